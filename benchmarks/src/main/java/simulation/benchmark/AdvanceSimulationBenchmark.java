@@ -0,0 +1,62 @@
+package simulation.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simulation.Constants;
+import simulation.EventQueue.EventQueueType;
+import simulation.Simulation;
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * The event loop. One operation is one event, so the score is in events per second and
+ * {@code gc.alloc.rate.norm} is the number of bytes allocated per event. The simulation
+ * keeps running across iterations, so the warmup also lets it reach a steady state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdvanceSimulationBenchmark {
+
+	@Param({"100", "1000", "10000", "100000"})
+	public int particles;
+
+	@Param({"0.05", "0.15", "0.3"})
+	public double packingFraction;
+
+	@Param({"CELL_GRID", "CELL_GRID_EVENT_PER_ATOM"})
+	public DetectionMode detection;
+
+	@Param({"BINARY_HEAP", "CALENDAR"})
+	public EventQueueType queue;
+
+	private Simulation simulation;
+	private final SimulationDiffrence diff = new SimulationDiffrence();
+
+	@Setup
+	public void setup() {
+		detection.apply();
+		Constants.EVENT_QUEUE = queue;
+		ParticleSystems system = ParticleSystems.create(particles, packingFraction, 1);
+		simulation = new Simulation(system.particles, system.width, system.height);
+	}
+
+	@Benchmark
+	public SimulationDiffrence advanceSimulation() {
+		return simulation.advanceSimulation(diff);
+	}
+}
@@ -0,0 +1,83 @@
+package simulation.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simulation.ParticleStore;
+import simulation.ParticleStore.WallCollision;
+
+/**
+ * The collision prediction kernels on their own. Every invocation predicts a fixed set of
+ * randomly chosen particles or pairs, so larger systems show the cost of cache misses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollisionKernelBenchmark {
+
+	private static final int SAMPLES = 4096;
+
+	@Param({"100", "1000", "10000", "100000"})
+	public int particles;
+
+	@Param({"0.05", "0.15", "0.3"})
+	public double packingFraction;
+
+	private ParticleSystems system;
+	private int[] first, second;
+	private final WallCollision wallCollision = new WallCollision(0, null);
+
+	@Setup
+	public void setup() {
+		system = ParticleSystems.create(particles, packingFraction, 1);
+		Random random = new Random(2);
+		first = new int[SAMPLES];
+		second = new int[SAMPLES];
+		for (int i = 0; i < SAMPLES; i++) {
+			first[i] = random.nextInt(particles);
+			do {
+				second[i] = random.nextInt(particles);
+			} while (second[i] == first[i]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float colitionTime() {
+		ParticleStore store = system.particles;
+		float sum = 0;
+		for (int i = 0; i < SAMPLES; i++) {
+			float time = store.getColitionTime(first[i], second[i]);
+			if (time != Float.POSITIVE_INFINITY)
+				sum += time;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAMPLES)
+	public float wallCollisionTime() {
+		ParticleStore store = system.particles;
+		float sum = 0;
+		for (int i = 0; i < SAMPLES; i++) {
+			sum += store.getWallCollisionTime(first[i], system.width, system.height, wallCollision).time;
+		}
+		return sum;
+	}
+}
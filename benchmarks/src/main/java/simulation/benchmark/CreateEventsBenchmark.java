@@ -0,0 +1,67 @@
+package simulation.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simulation.EventQueue.EventQueueType;
+import simulation.Constants;
+import simulation.ParticleStore;
+import simulation.Simulation;
+
+/**
+ * Setting up a simulation, which is dominated by predicting the first event of every
+ * pair of particles. The all-pairs mode is quadratic and is left out, it takes minutes
+ * per invocation at the larger sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CreateEventsBenchmark {
+
+	@Param({"100", "1000", "10000", "100000"})
+	public int particles;
+
+	@Param({"0.05", "0.15", "0.3"})
+	public double packingFraction;
+
+	@Param({"CELL_GRID", "CELL_GRID_EVENT_PER_ATOM"})
+	public DetectionMode detection;
+
+	@Param({"BINARY_HEAP", "CALENDAR"})
+	public EventQueueType queue;
+
+	private ParticleSystems system;
+	private ParticleStore store;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		detection.apply();
+		Constants.EVENT_QUEUE = queue;
+		system = ParticleSystems.create(particles, packingFraction, 1);
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() {
+		store = system.particles.copy();
+	}
+
+	@Benchmark
+	public Simulation createEvents() {
+		return new Simulation(store, system.width, system.height);
+	}
+}
@@ -0,0 +1,24 @@
+package simulation.benchmark;
+
+import simulation.Constants;
+
+/**
+ * The ways the simulation can find collisions, set through {@link Constants}.
+ */
+public enum DetectionMode {
+	ALL_PAIRS(false, false),
+	CELL_GRID(true, false),
+	CELL_GRID_EVENT_PER_ATOM(true, true);
+
+	private final boolean cellGrid, eventPerAtom;
+
+	private DetectionMode(boolean cellGrid, boolean eventPerAtom) {
+		this.cellGrid = cellGrid;
+		this.eventPerAtom = eventPerAtom;
+	}
+
+	void apply() {
+		Constants.USE_CELL_GRID = cellGrid;
+		Constants.ONE_EVENT_PER_ATOM = eventPerAtom;
+	}
+}
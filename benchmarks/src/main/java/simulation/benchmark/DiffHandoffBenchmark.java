@@ -0,0 +1,83 @@
+package simulation.benchmark;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simulation.DiffRingBuffer;
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * The cost of handing one diff from the simulation thread to the renderer, with one
+ * producer and one consumer thread running against each other. The ring fills slots in
+ * place, the blocking queue gets a new diff per event, as the simulation thread used to.
+ * Neither side blocks, so a full or empty queue shows up as a cheap failed operation.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DiffHandoffBenchmark {
+
+	private static final int CAPACITY = 1024;
+
+	private DiffRingBuffer ring;
+	private ArrayBlockingQueue<SimulationDiffrence> queue;
+	private float time;
+
+	@Setup
+	public void setup() {
+		ring = new DiffRingBuffer(CAPACITY);
+		queue = new ArrayBlockingQueue<>(CAPACITY);
+	}
+
+	@Benchmark
+	@Group("ring")
+	public boolean ringProduce() {
+		SimulationDiffrence slot = ring.tryClaim();
+		if (slot == null)
+			return false;
+		slot.time = time++;
+		ring.publish();
+		return true;
+	}
+
+	@Benchmark
+	@Group("ring")
+	public float ringConsume() {
+		SimulationDiffrence diff = ring.peek();
+		if (diff == null)
+			return -1;
+		float t = diff.time;
+		ring.release();
+		return t;
+	}
+
+	@Benchmark
+	@Group("blockingQueue")
+	public boolean queueProduce() {
+		SimulationDiffrence diff = new SimulationDiffrence();
+		diff.time = time++;
+		return queue.offer(diff);
+	}
+
+	@Benchmark
+	@Group("blockingQueue")
+	public float queueConsume() {
+		SimulationDiffrence diff = queue.poll();
+		return diff == null ? -1 : diff.time;
+	}
+}
@@ -0,0 +1,83 @@
+package simulation.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simulation.CollisionEvent;
+import simulation.EventQueue;
+import simulation.EventQueue.EventQueueType;
+import simulation.ParticleStore;
+import simulation.ParticleStore.Wall;
+import simulation.ParticleStore.WallCollision;
+
+/**
+ * Every {@link EventQueue} on its own with the classic "hold" model: the queue is filled
+ * with events, then the earliest event is repeatedly removed and put back a random time
+ * into the future. This is the access pattern of the simulation without the cost of
+ * predicting collisions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventQueueBenchmark {
+
+	private static final int OPERATIONS = 1024;
+	private static final float MEAN_HOLD_TIME = 10;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int size;
+
+	@Param
+	public EventQueueType queue;
+
+	private EventQueue events;
+	private Random random;
+
+	@Setup
+	public void setup() {
+		events = EventQueue.create(queue);
+		random = new Random(size);
+		ParticleStore particles = new ParticleStore(1);
+		particles.add(0, 0, 0, 0, 1, 1);
+		WallCollision collision = new WallCollision(0, Wall.TOP);
+		for (int i = 0; i < size; i++) {
+			CollisionEvent event = new CollisionEvent();
+			collision.time = nextHold();
+			event.setWallCollision(0, collision, particles);
+			events.add(event);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OPERATIONS)
+	public float hold() {
+		float time = 0;
+		for (int i = 0; i < OPERATIONS; i++) {
+			CollisionEvent event = events.poll();
+			time = event.getTime();
+			event.setTime(time + nextHold());
+			events.add(event);
+		}
+		return time;
+	}
+
+	private float nextHold() {
+		return (float) (-MEAN_HOLD_TIME * Math.log(1 - random.nextDouble()));
+	}
+}
@@ -0,0 +1,67 @@
+package simulation.benchmark;
+
+import java.util.Random;
+
+import simulation.Constants;
+import simulation.ParticleStore;
+
+/**
+ * Builds the particle systems the benchmarks run on. Unlike the simulation, which starts
+ * every atom in the middle of the box, the atoms are spread over a square lattice so
+ * that the cost per event is the steady state cost at the requested density.
+ */
+final class ParticleSystems {
+
+	// One atom in HEAVY_EVERY is heavy, the rest are light.
+	private static final int HEAVY_EVERY = 100;
+	private static final float ASPECT_RATIO = 16f / 9f;
+
+	final ParticleStore particles;
+	final int width, height;
+
+	private ParticleSystems(ParticleStore particles, int width, int height) {
+		this.particles = particles;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * {@code n} atoms with the radii, masses and start velocities in {@link Constants},
+	 * in a box sized so that the atoms cover {@code packingFraction} of its area.
+	 */
+	static ParticleSystems create(int n, double packingFraction, long seed) {
+		Random random = new Random(seed);
+		double area = 0;
+		for (int i = 0; i < n; i++) {
+			double radius = radius(i);
+			area += Math.PI * radius * radius;
+		}
+		area /= packingFraction;
+		int height = (int) Math.ceil(Math.sqrt(area / ASPECT_RATIO));
+		int width = (int) Math.ceil(area / height);
+
+		int columns = (int) Math.ceil(Math.sqrt(n * ASPECT_RATIO));
+		int rows = (n + columns - 1) / columns;
+		float spacingX = (float) width / columns;
+		float spacingY = (float) height / rows;
+
+		ParticleStore particles = new ParticleStore(n);
+		for (int i = 0; i < n; i++) {
+			boolean heavy = isHeavy(i);
+			double angle = random.nextDouble() * 2 * Math.PI;
+			float vel = random.nextFloat() * (heavy ? Constants.HEAVY_MAX_START_VEL : Constants.LIGHT_MAX_START_VEL * 1.5f);
+			particles.add((i % columns + 0.5f) * spacingX, (i / columns + 0.5f) * spacingY,
+					vel * (float) Math.cos(angle), vel * (float) Math.sin(angle),
+					heavy ? Constants.HEAVY_MASS : Constants.LIGHT_MASS, radius(i));
+		}
+		return new ParticleSystems(particles, width, height);
+	}
+
+	private static boolean isHeavy(int i) {
+		return i % HEAVY_EVERY == HEAVY_EVERY - 1;
+	}
+
+	private static int radius(int i) {
+		return isHeavy(i) ? Constants.HEAVY_ATOM_RADIUS : Constants.LIGHT_ATOM_RADIUS;
+	}
+}
@@ -0,0 +1,268 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A calendar queue (R. Brown, 1988). Time is split into "days" of equal width that are
+ * hashed into a ring of buckets, each holding a short sorted list of events. As long as
+ * the day width matches the spacing of the events, adding and removing the earliest
+ * event takes O(1) amortized time. The number of buckets follows the number of events
+ * and the day width is re-estimated every time the ring is resized. Since the size of
+ * the queue barely changes once a simulation is running, the queue also keeps track of
+ * how many list entries and days it walks per operation and re-estimates the width when
+ * that grows too large, as the dynamic calendar queue of Oh and Ahn does.
+ */
+public class CalendarEventQueue implements EventQueue {
+
+	private static final int MIN_BUCKETS = 16;
+	private static final double INITIAL_WIDTH = 1.0;
+	// Average number of steps per operation above which the day width is re-estimated.
+	private static final int MAX_AVERAGE_COST = 8;
+
+	private CollisionEvent[] buckets;
+	private double width;
+	private int size;
+	private long currentDay;
+	private boolean resizing;
+	private int operations;
+	private long cost;
+	// Scratch space for the event times when estimating the day width.
+	private float[] times;
+
+	public CalendarEventQueue() {
+		buckets = new CollisionEvent[MIN_BUCKETS];
+		width = INITIAL_WIDTH;
+		size = 0;
+		currentDay = 0;
+		operations = 0;
+		cost = 0;
+	}
+
+	@Override
+	public void add(CollisionEvent event) {
+		insert(event);
+		size++;
+		if (!resizing && size > 2 * buckets.length)
+			resize(buckets.length * 2);
+		else
+			checkCost();
+	}
+
+	@Override
+	public CollisionEvent poll() {
+		CollisionEvent first = find();
+		if (first != null) {
+			unlink(first);
+			size--;
+			if (!resizing && buckets.length > MIN_BUCKETS && size < buckets.length / 2)
+				resize(buckets.length / 2);
+			else
+				checkCost();
+		}
+		return first;
+	}
+
+	@Override
+	public CollisionEvent peek() {
+		return find();
+	}
+
+	@Override
+	public boolean remove(CollisionEvent event) {
+		if (!unlink(event))
+			return false;
+		size--;
+		return true;
+	}
+
+	@Override
+	public void update(CollisionEvent event) {
+		if (!unlink(event))
+			throw new IllegalArgumentException("The event is not in this queue");
+		insert(event);
+		checkCost();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The number of buckets in the ring, which follows the number of events.
+	 */
+	int getBucketCount() {
+		return buckets.length;
+	}
+
+	@Override
+	public void forEach(Consumer<CollisionEvent> action) {
+		for (CollisionEvent bucket : buckets) {
+			for (CollisionEvent event = bucket; event != null; event = event.queueNext) {
+				action.accept(event);
+			}
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < buckets.length; i++) {
+			for (CollisionEvent event = buckets[i]; event != null;) {
+				CollisionEvent next = event.queueNext;
+				event.queueIndex = -1;
+				event.queueNext = null;
+				event = next;
+			}
+			buckets[i] = null;
+		}
+		size = 0;
+		currentDay = 0;
+		operations = 0;
+		cost = 0;
+	}
+
+	private long day(CollisionEvent event) {
+		return (long) Math.floor(event.getTime() / width);
+	}
+
+	private int bucket(long day) {
+		return (int) Math.floorMod(day, (long) buckets.length);
+	}
+
+	/**
+	 * Inserts the event into the sorted list of its bucket without touching the size.
+	 */
+	private void insert(CollisionEvent event) {
+		long day = day(event);
+		int index = bucket(day);
+		if (day < currentDay)
+			currentDay = day;
+
+		CollisionEvent previous = null;
+		CollisionEvent current = buckets[index];
+		while (current != null && current.compareTo(event) <= 0) {
+			previous = current;
+			current = current.queueNext;
+			cost++;
+		}
+		event.queueNext = current;
+		event.queueIndex = index;
+		if (previous == null)
+			buckets[index] = event;
+		else
+			previous.queueNext = event;
+	}
+
+	private boolean unlink(CollisionEvent event) {
+		int index = event.queueIndex;
+		if (index < 0 || index >= buckets.length)
+			return false;
+
+		CollisionEvent previous = null;
+		CollisionEvent current = buckets[index];
+		while (current != null && current != event) {
+			previous = current;
+			current = current.queueNext;
+		}
+		if (current == null)
+			return false;
+
+		if (previous == null)
+			buckets[index] = event.queueNext;
+		else
+			previous.queueNext = event.queueNext;
+		event.queueNext = null;
+		event.queueIndex = -1;
+		return true;
+	}
+
+	/**
+	 * Finds the earliest event by walking the buckets one day at a time from the day of
+	 * the last event. If a whole year passes without a hit the events are sparse and the
+	 * earliest one is found by looking at the head of every bucket instead.
+	 */
+	private CollisionEvent find() {
+		if (size == 0)
+			return null;
+
+		for (int i = 0; i < buckets.length; i++) {
+			CollisionEvent head = buckets[bucket(currentDay)];
+			if (head != null && day(head) <= currentDay)
+				return head;
+			currentDay++;
+			cost++;
+		}
+
+		CollisionEvent first = null;
+		for (CollisionEvent head : buckets) {
+			if (head != null && (first == null || head.compareTo(first) < 0))
+				first = head;
+		}
+		currentDay = day(first);
+		return first;
+	}
+
+	/**
+	 * Re-estimates the day width once every year's worth of operations if the buckets
+	 * have become too crowded or too empty for the current spacing of the events.
+	 */
+	private void checkCost() {
+		if (resizing || ++operations < buckets.length)
+			return;
+		if (cost > (long) MAX_AVERAGE_COST * operations)
+			resize(buckets.length);
+		operations = 0;
+		cost = 0;
+	}
+
+	private void resize(int bucketCount) {
+		resizing = true;
+		double newWidth = estimateWidth();
+
+		CollisionEvent[] old = buckets;
+		buckets = new CollisionEvent[bucketCount];
+		width = newWidth;
+		currentDay = Long.MAX_VALUE;
+		for (CollisionEvent head : old) {
+			for (CollisionEvent event = head; event != null;) {
+				CollisionEvent next = event.queueNext;
+				insert(event);
+				event = next;
+			}
+		}
+		if (size == 0)
+			currentDay = 0;
+		operations = 0;
+		cost = 0;
+		resizing = false;
+	}
+
+	/**
+	 * Estimates a good day width from the spacing of the earliest half of the events.
+	 * The very first events can be far sparser or denser than the rest and the latest
+	 * ones are often predicted far into the future, so neither says much about how far
+	 * apart the events are that the queue will hand out next. Three events per day on
+	 * average keeps both the bucket lists and the number of empty days short.
+	 */
+	private double estimateWidth() {
+		if (times == null || times.length < size)
+			times = new float[Math.max(size, 2 * MIN_BUCKETS)];
+		int count = 0;
+		for (CollisionEvent head : buckets) {
+			for (CollisionEvent event = head; event != null; event = event.queueNext) {
+				if (event.getTime() != Float.POSITIVE_INFINITY)
+					times[count++] = event.getTime();
+			}
+		}
+		if (count < 2)
+			return width;
+
+		Arrays.sort(times, 0, count);
+		int half = Math.max(count / 2, 1);
+		double span = (double) times[half] - times[0];
+		if (!(span > 0))
+			return width;
+		return 3 * span / half;
+	}
+}
@@ -0,0 +1,202 @@
+package simulation;
+
+import java.util.Arrays;
+
+public class CellGrid {
+
+	private int columns, rows;
+	private float cellWidth, cellHeight;
+
+	// Each cell is a doubly linked list of particle indices threaded through the arrays.
+	private int[] first, last;
+	private int[] next, previous;
+	private int[] cellOf;
+
+	/**
+	 * Creates a uniform grid over a {@code width} x {@code height} box whose cells are
+	 * at least {@code minCellSize} wide and high. As long as {@code minCellSize} is at
+	 * least the largest particle diameter two particles can only collide when they are
+	 * in the same or in neighbouring cells.
+	 */
+	public CellGrid(int width, int height, float minCellSize, int particles) {
+		columns = Math.max(1, (int) (width / minCellSize));
+		rows = Math.max(1, (int) (height / minCellSize));
+		cellWidth = (float) width / columns;
+		cellHeight = (float) height / rows;
+		first = new int[columns * rows];
+		last = new int[columns * rows];
+		Arrays.fill(first, -1);
+		Arrays.fill(last, -1);
+		next = new int[particles];
+		previous = new int[particles];
+		cellOf = new int[particles];
+	}
+
+	/**
+	 * Whether this grid is the one {@code new CellGrid(width, height, minCellSize,
+	 * particles)} would create, so that it can be cleared and used instead.
+	 */
+	public boolean hasLayout(int width, int height, float minCellSize, int particles) {
+		return columns == Math.max(1, (int) (width / minCellSize)) && rows == Math.max(1, (int) (height / minCellSize))
+				&& cellWidth == (float) width / columns && cellHeight == (float) height / rows
+				&& next.length == particles;
+	}
+
+	/**
+	 * Removes every particle from the grid.
+	 */
+	public void clear() {
+		Arrays.fill(first, -1);
+		Arrays.fill(last, -1);
+	}
+
+	public int getCell(float x, float y) {
+		int column = Math.min(Math.max((int) (x / cellWidth), 0), columns - 1);
+		int row = Math.min(Math.max((int) (y / cellHeight), 0), rows - 1);
+		return row * columns + column;
+	}
+
+	public int getCell(int particle) {
+		return cellOf[particle];
+	}
+
+	public int getCellCount() {
+		return first.length;
+	}
+
+	public int getColumns() {
+		return columns;
+	}
+
+	public int getColumn(int cell) {
+		return cell % columns;
+	}
+
+	/**
+	 * The first particle in {@code cell}, or -1 if it is empty.
+	 */
+	public int getFirst(int cell) {
+		return first[cell];
+	}
+
+	/**
+	 * The particle after {@code particle} in its cell, or -1 if it is the last one.
+	 */
+	public int getNext(int particle) {
+		return next[particle];
+	}
+
+	public void insert(int particle, ParticleStore particles) {
+		float time = particles.getRefTime(particle);
+		insert(particle, getCell(particles.getX(particle, time), particles.getY(particle, time)));
+	}
+
+	public void move(int particle, int cell) {
+		int prev = previous[particle];
+		int nxt = next[particle];
+		if (prev >= 0)
+			next[prev] = nxt;
+		else
+			first[cellOf[particle]] = nxt;
+		if (nxt >= 0)
+			previous[nxt] = prev;
+		else
+			last[cellOf[particle]] = prev;
+		insert(particle, cell);
+	}
+
+	/**
+	 * Adds the particle to the end of the cell, so a cell lists its particles in the
+	 * order they were inserted. The cell does not have to be the one the particle is in,
+	 * which is how a grid is restored from a {@link Checkpoint}.
+	 */
+	public void insert(int particle, int cell) {
+		cellOf[particle] = cell;
+		next[particle] = -1;
+		int tail = last[cell];
+		previous[particle] = tail;
+		if (tail < 0)
+			first[cell] = particle;
+		else
+			next[tail] = particle;
+		last[cell] = particle;
+	}
+
+	/**
+	 * Writes the cells of the 3x3 block around {@code cell} into {@code result}, skipping
+	 * the cells that also are within the 3x3 block around {@code excludedCell}, and
+	 * returns how many were written. Pass -1 as {@code excludedCell} to get the whole
+	 * block. {@code result} must have room for 9 cells.
+	 */
+	public int getNeighbourCells(int cell, int excludedCell, int[] result) {
+		int x = cell % columns;
+		int y = cell / columns;
+		int exX = excludedCell % columns;
+		int exY = excludedCell / columns;
+
+		int count = 0;
+		for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, rows - 1); ny++) {
+			for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, columns - 1); nx++) {
+				if (excludedCell >= 0 && Math.abs(nx - exX) <= 1 && Math.abs(ny - exY) <= 1)
+					continue;
+				result[count++] = ny * columns + nx;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Predicts when {@code particle} leaves its current cell and which cell it enters,
+	 * and stores the result in {@code result}, which is returned. Crossings out of the
+	 * grid are never reported since the particle hits a wall first.
+	 */
+	public CellCrossing getCellCrossingTime(int particle, ParticleStore particles, CellCrossing result) {
+		int cell = cellOf[particle];
+		int x = cell % columns;
+		int y = cell / columns;
+		float refTime = particles.getRefTime(particle);
+		float posX = particles.getX(particle, refTime);
+		float posY = particles.getY(particle, refTime);
+		float velX = particles.getVelX(particle);
+		float velY = particles.getVelY(particle);
+
+		float xCrossingTime = Float.POSITIVE_INFINITY;
+		float yCrossingTime = Float.POSITIVE_INFINITY;
+		int xStep = 0;
+		int yStep = 0;
+		if (velX > 0 && x < columns - 1) {
+			xCrossingTime = ((x + 1) * cellWidth - posX)/velX;
+			xStep = 1;
+		} else if (velX < 0 && x > 0) {
+			xCrossingTime = (x * cellWidth - posX)/velX;
+			xStep = -1;
+		}
+
+		if (velY > 0 && y < rows - 1) {
+			yCrossingTime = ((y + 1) * cellHeight - posY)/velY;
+			yStep = 1;
+		} else if (velY < 0 && y > 0) {
+			yCrossingTime = (y * cellHeight - posY)/velY;
+			yStep = -1;
+		}
+
+		if (xCrossingTime < yCrossingTime) {
+			result.time = Math.max(xCrossingTime, 0) + refTime;
+			result.cell = cell + xStep;
+		} else {
+			result.time = Math.max(yCrossingTime, 0) + refTime;
+			result.cell = cell + yStep * columns;
+		}
+		return result;
+	}
+
+	public static class CellCrossing {
+		public float time;
+		public int cell;
+
+		public CellCrossing(float time, int cell) {
+			this.time = time;
+			this.cell = cell;
+		}
+	}
+}
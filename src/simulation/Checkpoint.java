@@ -0,0 +1,302 @@
+package simulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import simulation.CollisionEvent.CollisionEventType;
+import simulation.EventQueue.EventQueueType;
+import simulation.ParticleStore.Wall;
+
+/**
+ * The whole state of a {@link Simulation} between two events, so that a long run can be
+ * continued later with {@link Simulation#restore} instead of from the start: the
+ * particles with their reference times and collision counters, the order of the cell
+ * lists, and every scheduled event. Restoring takes time linear in the number of
+ * particles and events, as no event has to be predicted again, and the run goes on
+ * exactly as it would have without the break.
+ * <p>
+ * The file is a header followed by {@code x, y, vx, vy, refTime, mass, radius,
+ * collisions} of every particle, the particles of every cell in list order as
+ * {@code particle, cell} pairs, and the events as {@code type, particle1, particle2,
+ * time, collisions1, collisions2, wall or cell}, all four bytes wide and little endian.
+ * The random generator is not part of the state, it is only used to create the
+ * particles, so only its seed is kept.
+ * <p>
+ * Unlike event logs, checkpoints are read and written through a buffer on the heap
+ * rather than mapped: a file that is still mapped can not be replaced on Windows, and
+ * a mapping only goes away once it is garbage collected.
+ */
+public final class Checkpoint {
+
+	static final int MAGIC = 0x54504B43;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 13 * 4;
+	static final int PARTICLE_SIZE = 8 * 4;
+	static final int GRID_ENTRY_SIZE = 2 * 4;
+	static final int EVENT_SIZE = 7 * 4;
+	private static final int CELL_GRID = 1;
+	private static final int EVENT_PER_ATOM = 2;
+
+	private final int lightAtoms;
+	private final int width, height;
+	private final long seed;
+	private final float time;
+	private final EventQueueType queueType;
+	private final boolean eventPerAtom;
+	private final ParticleStore particles;
+	// Null without a grid.
+	private final CellGrid grid;
+	private final CollisionEvent[] events;
+
+	/**
+	 * A checkpoint of the given state, which it does not copy, so it has to be written
+	 * before the state changes.
+	 */
+	Checkpoint(int lightAtoms, int width, int height, long seed, float time, EventQueueType queueType,
+			boolean eventPerAtom, ParticleStore particles, CellGrid grid, CollisionEvent[] events) {
+		this.lightAtoms = lightAtoms;
+		this.width = width;
+		this.height = height;
+		this.seed = seed;
+		this.time = time;
+		this.queueType = queueType;
+		this.eventPerAtom = eventPerAtom;
+		this.particles = particles;
+		this.grid = grid;
+		this.events = events;
+	}
+
+	/**
+	 * Writes the checkpoint to a file next to {@code file} and moves it over {@code file}
+	 * once it is complete, so that a checkpoint interrupted while it is written does not
+	 * destroy the last one.
+	 */
+	public void write(Path file) throws IOException {
+		int n = particles.size();
+		int gridEntries = grid == null ? 0 : n;
+		long size = HEADER_SIZE + (long) n * PARTICLE_SIZE + (long) gridEntries * GRID_ENTRY_SIZE
+				+ (long) events.length * EVENT_SIZE;
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("A checkpoint of " + size + " bytes is too large");
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(lightAtoms).putInt(width).putInt(height)
+					.putLong(seed).putFloat(time).putInt(queueType.ordinal())
+					.putInt((grid != null ? CELL_GRID : 0) | (eventPerAtom ? EVENT_PER_ATOM : 0))
+					.putInt(gridEntries).putInt(events.length);
+			for (int i = 0; i < n; i++) {
+				float refTime = particles.getRefTime(i);
+				buffer.putFloat(particles.getX(i, refTime)).putFloat(particles.getY(i, refTime))
+						.putFloat(particles.getVelX(i)).putFloat(particles.getVelY(i)).putFloat(refTime)
+						.putInt(particles.getMass(i)).putInt(particles.getRadius(i))
+						.putInt(particles.getCollisionCount(i));
+			}
+			for (int cell = 0; grid != null && cell < grid.getCellCount(); cell++) {
+				for (int particle = grid.getFirst(cell); particle >= 0; particle = grid.getNext(particle)) {
+					buffer.putInt(particle).putInt(cell);
+				}
+			}
+			for (CollisionEvent event : events) {
+				CollisionEventType type = event.getType();
+				int extra = type == CollisionEventType.WALL_COLLISION ? event.getWall().ordinal()
+						: type == CollisionEventType.CELL_CROSSING ? event.getCell() : -1;
+				buffer.putInt(type.ordinal()).putInt(event.getParticle1()).putInt(event.getParticle2())
+						.putFloat(event.getTime()).putInt(event.getCollisions1()).putInt(event.getCollisions2())
+						.putInt(extra);
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a checkpoint written by {@link #write}.
+	 *
+	 * @throws IOException if the file cannot be read or is not a checkpoint
+	 */
+	public static Checkpoint read(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_SIZE)
+				throw new IOException("Not a checkpoint");
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Corrupt checkpoint");
+			ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0)
+					throw new IOException("Corrupt checkpoint");
+			}
+			buffer.flip();
+			if (buffer.getInt() != MAGIC)
+				throw new IOException("Not a checkpoint");
+			int version = buffer.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported checkpoint version " + version);
+			int n = buffer.getInt();
+			int lightAtoms = buffer.getInt();
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			long seed = buffer.getLong();
+			float time = buffer.getFloat();
+			int queue = buffer.getInt();
+			int flags = buffer.getInt();
+			int gridEntries = buffer.getInt();
+			int eventCount = buffer.getInt();
+			if (n < 0 || width <= 0 || height <= 0 || gridEntries < 0 || eventCount < 0 || queue < 0
+					|| queue >= EventQueueType.values().length || size != HEADER_SIZE + (long) n * PARTICLE_SIZE + (long) gridEntries * GRID_ENTRY_SIZE
+							+ (long) eventCount * EVENT_SIZE)
+				throw new IOException("Corrupt checkpoint");
+
+			ParticleStore particles = new ParticleStore(n);
+			for (int i = 0; i < n; i++) {
+				float x = buffer.getFloat();
+				float y = buffer.getFloat();
+				float vx = buffer.getFloat();
+				float vy = buffer.getFloat();
+				float refTime = buffer.getFloat();
+				particles.add(x, y, vx, vy, buffer.getInt(), buffer.getInt());
+				particles.setState(i, x, y, vx, vy, refTime);
+				particles.setCollisionCount(i, buffer.getInt());
+			}
+
+			// The cells are the ones the particles were in rather than the ones their
+			// positions are in, and in the order they were listed.
+			CellGrid grid = null;
+			if ((flags & CELL_GRID) != 0) {
+				if (gridEntries != n)
+					throw new IOException("Corrupt checkpoint");
+				int maxRadius = 1;
+				for (int i = 0; i < n; i++) {
+					maxRadius = Math.max(maxRadius, particles.getRadius(i));
+				}
+				grid = new CellGrid(width, height, 2 * maxRadius, n);
+				boolean[] listed = new boolean[n];
+				for (int i = 0; i < n; i++) {
+					int particle = checkParticle(buffer.getInt(), n);
+					int cell = buffer.getInt();
+					if (listed[particle] || cell < 0 || cell >= grid.getCellCount())
+						throw new IOException("Corrupt checkpoint");
+					listed[particle] = true;
+					grid.insert(particle, cell);
+				}
+			}
+
+			CollisionEventType[] types = CollisionEventType.values();
+			Wall[] walls = Wall.values();
+			boolean eventPerAtom = (flags & EVENT_PER_ATOM) != 0;
+			if (eventPerAtom && eventCount != n)
+				throw new IOException("Corrupt checkpoint");
+			boolean[] scheduled = new boolean[eventPerAtom ? n : 0];
+			CollisionEvent[] events = new CollisionEvent[eventCount];
+			for (int i = 0; i < eventCount; i++) {
+				int type = buffer.getInt();
+				if (type < 0 || type >= types.length)
+					throw new IOException("Corrupt checkpoint");
+				int particle1 = checkParticle(buffer.getInt(), n);
+				// With one event per particle each particle is the first of exactly one event.
+				if (eventPerAtom) {
+					if (scheduled[particle1])
+						throw new IOException("Corrupt checkpoint");
+					scheduled[particle1] = true;
+				}
+				int particle2 = buffer.getInt();
+				if (types[type] == CollisionEventType.PARTICLE_COLLISION)
+					checkParticle(particle2, n);
+				float eventTime = buffer.getFloat();
+				int collisions1 = buffer.getInt();
+				int collisions2 = buffer.getInt();
+				int extra = buffer.getInt();
+				Wall wall = null;
+				if (types[type] == CollisionEventType.WALL_COLLISION) {
+					if (extra < 0 || extra >= walls.length)
+						throw new IOException("Corrupt checkpoint");
+					wall = walls[extra];
+				} else if (types[type] == CollisionEventType.CELL_CROSSING
+						&& (grid == null || extra < 0 || extra >= grid.getCellCount())) {
+					throw new IOException("Corrupt checkpoint");
+				}
+				events[i] = new CollisionEvent();
+				events[i].restore(types[type], particle1, particle2, eventTime, collisions1, collisions2, wall, extra);
+			}
+			return new Checkpoint(lightAtoms, width, height, seed, time, EventQueueType.values()[queue],
+					eventPerAtom, particles, grid, events);
+		}
+	}
+
+	private static int checkParticle(int particle, int n) throws IOException {
+		if (particle < 0 || particle >= n)
+			throw new IOException("Corrupt checkpoint");
+		return particle;
+	}
+
+	public int getLightAtoms() {
+		return lightAtoms;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * The seed the particles of the run were originally created from.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * The time of the last event handled before the checkpoint.
+	 */
+	public float getTime() {
+		return time;
+	}
+
+	public EventQueueType getEventQueue() {
+		return queueType;
+	}
+
+	public boolean isOneEventPerAtom() {
+		return eventPerAtom;
+	}
+
+	public boolean useCellGrid() {
+		return grid != null;
+	}
+
+	/**
+	 * The particles, which a simulation restored from this checkpoint takes over.
+	 */
+	ParticleStore getParticles() {
+		return particles;
+	}
+
+	/**
+	 * The cell grid, or {@code null} without one, which a restored simulation takes over.
+	 */
+	CellGrid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * The scheduled events, which a simulation restored from this checkpoint takes over.
+	 */
+	CollisionEvent[] getEvents() {
+		return events;
+	}
+}
@@ -1,107 +1,197 @@
 package simulation;
 
-import java.util.Hashtable;
-
-import simulation.Atom.Wall;
-import simulation.Atom.WallCollision;
+import simulation.CellGrid.CellCrossing;
+import simulation.ParticleStore.Wall;
+import simulation.ParticleStore.WallCollision;
 
+/**
+ * A predicted event of one or two particles. Events are mutable so that the simulation
+ * can reuse them instead of allocating a new one for every prediction.
+ */
 public class CollisionEvent implements Comparable<CollisionEvent>{
-	
+
 	public static CollisionEventType WALL_COLLISION = CollisionEventType.WALL_COLLISION;
 	public static CollisionEventType PARTICLE_COLLISION = CollisionEventType.PARTICLE_COLLISION;
-	
+	public static CollisionEventType CELL_CROSSING = CollisionEventType.CELL_CROSSING;
+
 	private CollisionEventType type;
-	private Atom atom1, atom2;
+	private int particle1, particle2;
 	private float occuranceTime;
-	private float createdTime;
+	private int collisions1, collisions2;
 	private Wall wall;
-	
-	public CollisionEvent(Atom atom1, WallCollision collision, float currentTime) {
+	private int cell;
+
+	// Bookkeeping owned by the EventQueue currently holding this event.
+	int queueIndex = -1;
+	CollisionEvent queueNext;
+
+	public CollisionEvent() {
+		particle1 = -1;
+		particle2 = -1;
+	}
+
+	public void setWallCollision(int particle, WallCollision collision, ParticleStore particles) {
 		type = WALL_COLLISION;
-		this.atom1 = atom1;
-		this.occuranceTime = collision.time;
-		this.wall = collision.wall;
-		createdTime = currentTime;
-	}
-	
-	public CollisionEvent(Atom atom1, Atom atom2, float occuranceTime, float currentTime) {
-		this.atom1 = atom1;
-		this.atom2 = atom2;
-		this.occuranceTime = occuranceTime;
-		createdTime = currentTime;
+		particle1 = particle;
+		particle2 = -1;
+		occuranceTime = collision.time;
+		wall = collision.wall;
+		collisions1 = particles.getCollisionCount(particle);
+	}
+
+	public void setParticleCollision(int particle1, int particle2, float occuranceTime, ParticleStore particles) {
 		type = PARTICLE_COLLISION;
+		this.particle1 = particle1;
+		this.particle2 = particle2;
+		this.occuranceTime = occuranceTime;
+		collisions1 = particles.getCollisionCount(particle1);
+		collisions2 = particles.getCollisionCount(particle2);
 	}
-	
-	public boolean isActive(Hashtable<Atom, Float> lastUpdate) {
-		switch(type) {
-		case WALL_COLLISION:
-			return createdTime >= lastUpdate.get(atom1);
-		case PARTICLE_COLLISION:
-			return createdTime >= lastUpdate.get(atom1) && createdTime > lastUpdate.get(atom2);
-		default:
-			throw new Error("ERROR!");
-		}
+
+	public void setCellCrossing(int particle, CellCrossing crossing, ParticleStore particles) {
+		type = CELL_CROSSING;
+		particle1 = particle;
+		particle2 = -1;
+		occuranceTime = crossing.time;
+		cell = crossing.cell;
+		collisions1 = particles.getCollisionCount(particle);
+	}
+
+	/**
+	 * Sets every field at once, for an event read back from a {@link Checkpoint}.
+	 */
+	void restore(CollisionEventType type, int particle1, int particle2, float occuranceTime, int collisions1,
+			int collisions2, Wall wall, int cell) {
+		this.type = type;
+		this.particle1 = particle1;
+		this.particle2 = particle2;
+		this.occuranceTime = occuranceTime;
+		this.collisions1 = collisions1;
+		this.collisions2 = collisions2;
+		this.wall = wall;
+		this.cell = cell;
+	}
+
+	/**
+	 * An event is active as long as none of its particles has collided since the event
+	 * was predicted.
+	 */
+	public boolean isActive(ParticleStore particles) {
+		return collisions1 == particles.getCollisionCount(particle1) &&
+			   (particle2 < 0 || collisions2 == particles.getCollisionCount(particle2));
+	}
+
+
+	/**
+	 * The collision counters of the particles when the event was predicted.
+	 */
+	int getCollisions1() {
+		return collisions1;
 	}
-	
-	
+
+	int getCollisions2() {
+		return collisions2;
+	}
+
 	public Wall getWall() {
 		return wall;
 	}
-	
+
+	public int getCell() {
+		return cell;
+	}
+
 	public CollisionEventType getType() {
 		return type;
 	}
 
-	public Atom getAtom1() {
-		return atom1;
+	public int getParticle1() {
+		return particle1;
 	}
 
-	public Atom getAtom2() {
-		return atom2;
+	/**
+	 * The second particle of a particle collision, -1 for other events.
+	 */
+	public int getParticle2() {
+		return particle2;
 	}
-	
+
 	public float getTime() {
 		return occuranceTime;
 	}
 
+	/**
+	 * Changes the time of the event. If the event is in an {@link EventQueue} the queue
+	 * must be told with {@link EventQueue#update(CollisionEvent)}.
+	 */
+	public void setTime(float time) {
+		occuranceTime = time;
+	}
+
 	@Override
 	public int compareTo(CollisionEvent other) {
-		return Float.compare(occuranceTime, other.occuranceTime);
+		int cmp = Float.compare(occuranceTime, other.occuranceTime);
+		if (cmp != 0)
+			return cmp;
+		// Simultaneous events are ordered by the particles involved so that the order they
+		// are processed in does not depend on the order they were scheduled in.
+		cmp = Integer.compare(minParticle(), other.minParticle());
+		if (cmp != 0)
+			return cmp;
+		cmp = Integer.compare(maxParticle(), other.maxParticle());
+		if (cmp != 0)
+			return cmp;
+		return type.compareTo(other.type);
+	}
+
+	/**
+	 * Whether a collision of the two particles at {@code time} comes before this event in
+	 * the order of {@link #compareTo}. A prediction keeps the earliest event found this
+	 * way so that a tie goes to the same event whatever order the candidates are tried in.
+	 */
+	boolean isAfter(int particle1, int particle2, float time) {
+		int cmp = Float.compare(occuranceTime, time);
+		if (cmp != 0)
+			return cmp > 0;
+		cmp = Integer.compare(minParticle(), Math.min(particle1, particle2));
+		if (cmp != 0)
+			return cmp > 0;
+		cmp = Integer.compare(maxParticle(), Math.max(particle1, particle2));
+		if (cmp != 0)
+			return cmp > 0;
+		return type.compareTo(PARTICLE_COLLISION) > 0;
 	}
-	
+
+	private int minParticle() {
+		return (particle2 < 0) ? particle1 : Math.min(particle1, particle2);
+	}
+
+	private int maxParticle() {
+		return (particle2 < 0) ? -1 : Math.max(particle1, particle2);
+	}
+
 	@Override
 	public boolean equals(Object other) {
 		if (other instanceof CollisionEvent) {
 			CollisionEvent event = (CollisionEvent) other;
-			if (type == WALL_COLLISION) {
-				if (event.type == WALL_COLLISION)
-					return atom1.equals(event.atom1);
-				else
-					return atom1.equals(event.atom1) || atom1.equals(event.atom2);
-			} else {
-				if (event.type == WALL_COLLISION)
-					return event.atom1.equals(atom1) || event.atom1.equals(atom2);
-				else
-					return atom1.equals(event.atom1) || atom1.equals(event.atom2) ||
-						   atom2.equals(event.atom1) || atom2.equals(event.atom2);
-			}
+			return contains(event.particle1) || (event.particle2 >= 0 && contains(event.particle2));
 		}
 		return false;
 	}
-	
-	public boolean contains(Atom atom) {
-		return (type == WALL_COLLISION) ? atom.equals(atom1) : atom.equals(atom1) || atom.equals(atom2);
+
+	public boolean contains(int particle) {
+		return particle == particle1 || (particle2 >= 0 && particle == particle2);
 	}
-	
+
 	@Override
 	public String toString() {
 		return type.name();
 	}
-		
-	
+
+
 	public enum CollisionEventType {
-		WALL_COLLISION, PARTICLE_COLLISION;
+		WALL_COLLISION, PARTICLE_COLLISION, CELL_CROSSING;
 	}
-	
+
 
 }
@@ -1,5 +1,8 @@
 package simulation;
 
+import simulation.EventQueue.EventQueueType;
+import simulation.InitialState.Placement;
+
 public class Constants {
 	
 	private static final int N_LIGHT_ATOMS = 500;
@@ -17,6 +20,19 @@ public class Constants {
 	private static final int TIME_STEP = 17;
 	private static final int T_MAX_LENGTH = 800;
 	
+	private static final boolean CELL_GRID = true;
+	private static final EventQueueType QUEUE = EventQueueType.BINARY_HEAP;
+	private static final boolean EVENT_PER_ATOM = false;
+	private static final boolean PARALLEL_EVENT_SETUP = true;
+	private static final int SECTORS = 1;
+	private static final Placement PLACEMENT = Placement.RANDOM;
+	private static final boolean BATCHED_DRAWING = true;
+	private static final boolean METRICS_OVERLAY = false;
+	private static final float MSD_INTERVAL = 10;
+	private static final long RANDOM_SEED = -1;
+	private static final float PREFETCH = 200;
+	private static final int RING_CAPACITY = 1 << 16;
+	
 	
 	public static int NUMBER_OF_LIGHT_ATOMS = N_LIGHT_ATOMS;
 	public static int NUMBER_OF_HEAVY_ATOMS = N_HEAVY_ATOMS;
@@ -33,9 +49,29 @@ public class Constants {
 	public static int SIMULATION_TIME_STEPS = TIME_STEP;
 	public static int TRAIL_MAX_LENGTH = T_MAX_LENGTH;
 	
-	public static final int GET_QUEUE_LIMIT() {
-		return (NUMBER_OF_LIGHT_ATOMS + NUMBER_OF_HEAVY_ATOMS) * 2;
-	}
+	public static boolean USE_CELL_GRID = CELL_GRID;
+	public static EventQueueType EVENT_QUEUE = QUEUE;
+	public static boolean ONE_EVENT_PER_ATOM = EVENT_PER_ATOM;
+	public static boolean PARALLEL_SETUP = PARALLEL_EVENT_SETUP;
+	// More than one sector runs the events on one thread per sector, always with the cell
+	// grid and one event per atom.
+	public static int SIMULATION_SECTORS = SECTORS;
+	// Where the particles start and how their first velocities are drawn.
+	public static Placement INITIAL_PLACEMENT = PLACEMENT;
+	// Draws the particles as sprites straight into the pixel buffer instead of one
+	// ellipse call each.
+	public static boolean BATCHED_RENDERING = BATCHED_DRAWING;
+	// Shows the counters of SimulationMetrics over the simulation.
+	public static boolean SHOW_METRICS = METRICS_OVERLAY;
+	// The simulated time between the samples of the heavy atoms' displacement, 0 to
+	// measure none.
+	public static float MSD_SAMPLE_INTERVAL = MSD_INTERVAL;
+	// The seed of every reset, a negative one draws a new seed each time.
+	public static long SIMULATION_SEED = RANDOM_SEED;
+	// How far in simulated time the simulation may run ahead of the frame on screen, and
+	// the most events it may hold ahead however short that time is.
+	public static float PREFETCH_TIME = PREFETCH;
+	public static int PREFETCH_CAPACITY = RING_CAPACITY;
 	
 	public static final void RESET() {
 		NUMBER_OF_LIGHT_ATOMS = N_LIGHT_ATOMS;
@@ -52,6 +88,19 @@ public class Constants {
 		
 		SIMULATION_TIME_STEPS = TIME_STEP;
 		TRAIL_MAX_LENGTH = T_MAX_LENGTH;
+		
+		USE_CELL_GRID = CELL_GRID;
+		EVENT_QUEUE = QUEUE;
+		ONE_EVENT_PER_ATOM = EVENT_PER_ATOM;
+		PARALLEL_SETUP = PARALLEL_EVENT_SETUP;
+		SIMULATION_SECTORS = SECTORS;
+		INITIAL_PLACEMENT = PLACEMENT;
+		BATCHED_RENDERING = BATCHED_DRAWING;
+		SHOW_METRICS = METRICS_OVERLAY;
+		MSD_SAMPLE_INTERVAL = MSD_INTERVAL;
+		SIMULATION_SEED = RANDOM_SEED;
+		PREFETCH_TIME = PREFETCH;
+		PREFETCH_CAPACITY = RING_CAPACITY;
 	}
 
 }
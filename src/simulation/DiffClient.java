@@ -0,0 +1,205 @@
+package simulation;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.SocketChannel;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Receives the events of a simulation running in another process from a
+ * {@link DiffServer} on this machine, for the renderer to draw them like the events of
+ * its own simulation. A thread of its own reads the stream into a ring; a keyframe, which
+ * the server sends when this viewer fell behind, arrives as one diff that sets every
+ * particle.
+ * <p>
+ * The server does not know the time on screen, so the stream can fall behind a frame or
+ * run ahead of it; {@link #getLatestTime()} tells how far it has got.
+ */
+public class DiffClient implements DiffSource, Closeable {
+
+	private static final int READ_BUFFER_SIZE = 64 << 10;
+
+	private final SocketChannel channel;
+	private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final DiffRingBuffer ring;
+	private final ParticleStore initial;
+	private final int width, height;
+	private final float startTime;
+	private final Thread reader;
+	// The time of the last event received.
+	private volatile float latestTime;
+	private volatile boolean ended;
+
+	/**
+	 * Connects to the server on {@code port} of the loopback address and reads the state
+	 * the stream starts from. Up to {@code capacity} events are buffered.
+	 */
+	public DiffClient(int port, int capacity) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		try {
+			in.flip();
+			fill(EventRecorder.HEADER_SIZE);
+			EventRecorder.checkHeader(in);
+			int n = in.getInt();
+			width = in.getInt();
+			height = in.getInt();
+			startTime = in.getFloat();
+			if (n < 0 || width <= 0 || height <= 0)
+				throw new IOException("Corrupt stream");
+			initial = new ParticleStore(n);
+			for (int i = 0; i < n; i++) {
+				fill(EventRecorder.PARTICLE_SIZE);
+				float x = in.getFloat();
+				float y = in.getFloat();
+				float vx = in.getFloat();
+				float vy = in.getFloat();
+				float refTime = in.getFloat();
+				initial.add(x, y, vx, vy, in.getInt(), in.getInt());
+				initial.setState(i, x, y, vx, vy, refTime);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		ring = new DiffRingBuffer(capacity);
+		latestTime = startTime;
+		reader = new Thread(this::read, "Diff Client");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * The simulated time the stream started at.
+	 */
+	public float getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * The time of the last event received.
+	 */
+	public float getLatestTime() {
+		return latestTime;
+	}
+
+	/**
+	 * Whether the server has ended the stream or the connection was lost.
+	 */
+	public boolean hasEnded() {
+		return ended;
+	}
+
+	/**
+	 * A copy of the particles as they were when the stream started.
+	 */
+	public ParticleStore getParticles() {
+		return initial.copy();
+	}
+
+	/**
+	 * Applies every event received before {@code time}, without waiting for more.
+	 */
+	@Override
+	public int applyUntil(ParticleStore particles, float time, Observables observables) {
+		return ring.applyUntil(particles, time, observables);
+	}
+
+	@Override
+	public float getCompleteTime() {
+		return ring.getCompleteTime();
+	}
+
+	private void read() {
+		int n = initial.size();
+		try {
+			while (true) {
+				fill(8);
+				int count = in.getInt();
+				float time = in.getFloat();
+				if (count == 0)
+					break;
+				SimulationDiffrence diff = ring.claim();
+				diff.time = time;
+				if (count == EventRecorder.KEYFRAME) {
+					// The keyframe holds every particle at its own reference time.
+					diff.ensureCapacity(n);
+					for (int i = 0; i < n; i++) {
+						fill(EventRecorder.KEYFRAME_PARTICLE_SIZE);
+						float x = in.getFloat();
+						float y = in.getFloat();
+						float vx = in.getFloat();
+						float vy = in.getFloat();
+						float refTime = in.getFloat();
+						diff.ids[i] = i;
+						diff.x[i] = x + vx * (time - refTime);
+						diff.y[i] = y + vy * (time - refTime);
+						diff.vx[i] = vx;
+						diff.vy[i] = vy;
+					}
+					diff.count = n;
+				} else {
+					if (count < 0 || count > 2)
+						throw new IOException("Corrupt stream");
+					fill(count * 5 * 4);
+					for (int i = 0; i < count; i++) {
+						int id = in.getInt();
+						if (id < 0 || id >= n)
+							throw new IOException("Corrupt stream");
+						diff.ids[i] = id;
+						diff.x[i] = in.getFloat();
+						diff.y[i] = in.getFloat();
+						diff.vx[i] = in.getFloat();
+						diff.vy[i] = in.getFloat();
+					}
+					diff.count = count;
+				}
+				ring.publish();
+				latestTime = time;
+			}
+		} catch (ClosedByInterruptException | InterruptedException e) {
+			// Closed.
+		} catch (EOFException e) {
+			// The server has gone without ending the stream.
+		} catch (IOException e) {
+			if (channel.isOpen())
+				e.printStackTrace();
+		} finally {
+			ended = true;
+		}
+	}
+
+	/**
+	 * Reads from the socket until {@code bytes} bytes are there to get from {@code in}.
+	 */
+	private void fill(int bytes) throws IOException {
+		if (in.remaining() >= bytes)
+			return;
+		in.compact();
+		while (in.position() < bytes) {
+			if (channel.read(in) < 0)
+				throw new EOFException("Connection closed");
+		}
+		in.flip();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.interrupt();
+		channel.close();
+	}
+}
@@ -0,0 +1,192 @@
+package simulation;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.locks.LockSupport;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * A bounded queue of preallocated {@link SimulationDiffrence}s between exactly one
+ * producer thread and one consumer thread. The producer fills the slot returned by
+ * {@link #claim()} in place and hands it over with {@link #publish()}, the consumer reads
+ * slots in place and hands them back, usually many at once. Neither side locks or
+ * allocates, a hand-off is an ordered write of a counter. A side that has to wait spins
+ * for a moment and then parks in short steps, so nobody has to be woken up.
+ */
+public class DiffRingBuffer implements DiffSource {
+
+	private static final VarHandle HEAD, TAIL;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			HEAD = lookup.findVarHandle(DiffRingBuffer.class, "head", long.class);
+			TAIL = lookup.findVarHandle(DiffRingBuffer.class, "tail", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static final int SPINS = 100;
+	private static final int YIELDS = 100;
+	private static final long PARK_NANOS = 50_000;
+
+	private final SimulationDiffrence[] slots;
+	private final int mask;
+
+	// The next slot to consume, only written by the consumer.
+	private long head;
+	// The next slot to fill, only written by the producer.
+	private long tail;
+	// The last value of the other side's counter each side has seen, so that the shared
+	// counters are only read when the queue looks full or empty.
+	private long cachedHead, cachedTail;
+	// Consumer side, see getCompleteTime().
+	private float completeTime = Float.NEGATIVE_INFINITY;
+
+	/**
+	 * Creates a ring with room for at least {@code capacity} diffs.
+	 */
+	public DiffRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		slots = new SimulationDiffrence[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new SimulationDiffrence();
+		}
+		mask = size - 1;
+	}
+
+	public int capacity() {
+		return slots.length;
+	}
+
+	/**
+	 * Drops every published diff, so the ring can be handed to a new pair of threads. Only
+	 * while neither side uses it; the thread that starts the new sides publishes the reset.
+	 */
+	public void clear() {
+		head = tail = cachedHead = cachedTail = 0;
+		completeTime = Float.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * The number of published diffs that have not been consumed yet. Safe to call from
+	 * any thread.
+	 */
+	public int size() {
+		long h = (long) HEAD.getAcquire(this);
+		return (int) ((long) TAIL.getAcquire(this) - h);
+	}
+
+	/**
+	 * Producer side. The slot to fill next, or {@code null} if the ring is full.
+	 */
+	public SimulationDiffrence tryClaim() {
+		if (tail - cachedHead >= slots.length) {
+			cachedHead = (long) HEAD.getAcquire(this);
+			if (tail - cachedHead >= slots.length)
+				return null;
+		}
+		return slots[(int) tail & mask];
+	}
+
+	/**
+	 * Producer side. The slot to fill next, waiting until the consumer has made room.
+	 *
+	 * @throws InterruptedException if the producer is interrupted while waiting
+	 */
+	public SimulationDiffrence claim() throws InterruptedException {
+		SimulationDiffrence slot = tryClaim();
+		if (slot != null)
+			return slot;
+		SimulationEvents.HandoffWait event = null;
+		if (SimulationEvents.HANDOFF_WAIT.isEnabled()) {
+			event = new SimulationEvents.HandoffWait();
+			event.begin();
+		}
+		for (int idle = 0; slot == null; idle++) {
+			idle(idle);
+			slot = tryClaim();
+		}
+		if (event != null && event.shouldCommit()) {
+			event.queued = size();
+			event.commit();
+		}
+		return slot;
+	}
+
+	/**
+	 * Producer side. Hands the claimed slot to the consumer.
+	 */
+	public void publish() {
+		TAIL.setRelease(this, tail + 1);
+	}
+
+	/**
+	 * Consumer side. The oldest published diff without consuming it, or {@code null} if
+	 * there is none.
+	 */
+	public SimulationDiffrence peek() {
+		if (head == cachedTail) {
+			cachedTail = (long) TAIL.getAcquire(this);
+			if (head == cachedTail)
+				return null;
+		}
+		return slots[(int) head & mask];
+	}
+
+	/**
+	 * Consumer side. Gives the diff returned by {@link #peek()} back to the producer.
+	 */
+	public void release() {
+		HEAD.setRelease(this, head + 1);
+	}
+
+	/**
+	 * Consumer side. Applies every published diff before {@code time} to
+	 * {@code particles} in one batch and hands the slots back at once. Never waits for the
+	 * producer: if the ring runs empty first, the particles are left at the last diff
+	 * published, see {@link #getCompleteTime()}.
+	 *
+	 * @return the number of diffs applied
+	 */
+	@Override
+	public int applyUntil(ParticleStore particles, float time, Observables observables) {
+		long start = head;
+		long h = start;
+		long t = cachedTail = (long) TAIL.getAcquire(this);
+		while (h < t) {
+			SimulationDiffrence diff = slots[(int) h & mask];
+			if (diff.time >= time) {
+				// Nothing happens before the next diff.
+				completeTime = Math.max(completeTime, diff.time);
+				break;
+			}
+			diff.applyTo(particles, observables);
+			completeTime = Math.max(completeTime, diff.time);
+			h++;
+		}
+		HEAD.setRelease(this, h);
+		return (int) (h - start);
+	}
+
+	/**
+	 * Consumer side. The time up to which the particles applied to are known to be
+	 * right, the time of the next diff if there is one and else of the last one applied.
+	 */
+	@Override
+	public float getCompleteTime() {
+		return completeTime;
+	}
+
+	private static void idle(int idle) throws InterruptedException {
+		if (idle < SPINS)
+			Thread.onSpinWait();
+		else if (idle < SPINS + YIELDS)
+			Thread.yield();
+		else
+			LockSupport.parkNanos(PARK_NANOS);
+		if (Thread.interrupted())
+			throw new InterruptedException();
+	}
+}
@@ -0,0 +1,303 @@
+package simulation;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Streams the events of a running simulation to any number of viewers on this machine,
+ * each a {@link DiffClient}, on its own thread. The simulation thread hands every event
+ * to {@link #offer} through a ring like {@link MsdAnalyzer#offer}; the server keeps its
+ * own copy of the particles up to date with them and sends them on over non-blocking
+ * socket channels, so a viewer never holds up the simulation.
+ * <p>
+ * The stream uses the format of {@link EventRecorder}: a new viewer first gets the header
+ * with the current state of every particle, then the event records. Every viewer has a
+ * send buffer of its own. A viewer too slow to take an event in time is skipped until its
+ * buffer has been sent, and then catches up with a keyframe of the current state instead
+ * of the events it missed. A count of 0 ends the stream.
+ */
+public class DiffServer extends Thread {
+
+	private static final int RING_CAPACITY = 1 << 14;
+	// The events sent to every viewer at once.
+	private static final int BATCH_SIZE = 64 << 10;
+	private static final int MIN_CLIENT_BUFFER = 1 << 20;
+	private static final long SELECT_MILLIS = 1;
+	// How long the viewers get to take the rest of the stream once the run has ended.
+	private static final long CLOSE_NANOS = 1_000_000_000L;
+
+	private final DiffRingBuffer ring = new DiffRingBuffer(RING_CAPACITY);
+	private final ParticleStore particles;
+	private final int width, height;
+	private float time;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final List<Client> clients = new ArrayList<>();
+	private final ByteBuffer batch = ByteBuffer.allocate(BATCH_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private final int clientBuffer;
+	private volatile boolean running;
+
+	/**
+	 * Listens on {@code port} of the loopback address, or on a free port if it is 0, for
+	 * viewers of a simulation that is in the state of {@code particles} at {@code time}.
+	 */
+	public DiffServer(ParticleStore particles, float time, int width, int height, int port) throws IOException {
+		super("Diff Server");
+		setDaemon(true);
+		this.particles = particles.copy();
+		this.time = time;
+		this.width = width;
+		this.height = height;
+		long stateSize = Math.max(EventRecorder.HEADER_SIZE + (long) particles.size() * EventRecorder.PARTICLE_SIZE,
+				EventRecorder.keyframeSize(particles.size()));
+		// Room for the state and as many events after it.
+		clientBuffer = (int) Math.max(MIN_CLIENT_BUFFER, 2 * stateSize);
+		selector = Selector.open();
+		try {
+			server = ServerSocketChannel.open();
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			selector.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * The port the server listens on.
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		super.start();
+	}
+
+	/**
+	 * Ends the stream once the events offered so far have been sent, and closes the
+	 * server.
+	 */
+	public void terminate() {
+		running = false;
+	}
+
+	/**
+	 * Simulation thread. Passes {@code diff} on to the viewers. Waits only when the
+	 * server is a whole ring behind, which the viewers cannot cause.
+	 */
+	public void offer(SimulationDiffrence diff) throws InterruptedException {
+		SimulationDiffrence copy = ring.claim();
+		copy.time = diff.time;
+		copy.count = diff.count;
+		for (int i = 0; i < diff.count; i++) {
+			copy.ids[i] = diff.ids[i];
+			copy.x[i] = diff.x[i];
+			copy.y[i] = diff.y[i];
+			copy.vx[i] = diff.vx[i];
+			copy.vy[i] = diff.vy[i];
+		}
+		ring.publish();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running || ring.size() > 0) {
+				if (sendBatch())
+					selector.selectNow(this::handle);
+				else
+					selector.select(this::handle, SELECT_MILLIS);
+				clients.removeIf(client -> client.closed);
+			}
+			close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				selector.close();
+				server.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Takes the events offered since the last batch, up to a batch, into the particles
+	 * and the send buffers of the viewers that keep up.
+	 *
+	 * @return whether there were any
+	 */
+	private boolean sendBatch() {
+		batch.clear();
+		for (SimulationDiffrence diff = ring.peek(); diff != null
+				&& batch.remaining() >= EventRecorder.MAX_RECORD_SIZE; diff = ring.peek()) {
+			batch.putInt(diff.count).putFloat(diff.time);
+			for (int i = 0; i < diff.count; i++) {
+				batch.putInt(diff.ids[i]).putFloat(diff.x[i]).putFloat(diff.y[i]).putFloat(diff.vx[i])
+						.putFloat(diff.vy[i]);
+			}
+			diff.applyTo(particles);
+			time = diff.time;
+			ring.release();
+		}
+		if (batch.position() == 0)
+			return false;
+		batch.flip();
+		for (Client client : clients) {
+			if (client.closed)
+				continue;
+			if (!client.lagging && client.out.remaining() < batch.remaining())
+				client.lagging = true;
+			if (!client.lagging) {
+				client.out.put(batch.duplicate());
+				client.flush();
+			}
+		}
+		return true;
+	}
+
+	private void handle(SelectionKey key) {
+		if (!key.isValid())
+			return;
+		try {
+			if (key.isAcceptable()) {
+				SocketChannel channel = server.accept();
+				if (channel != null)
+					accept(channel);
+				return;
+			}
+			Client client = (Client) key.attachment();
+			// Viewers send nothing, so a read only tells that one has gone.
+			if (key.isReadable() && client.channel.read(client.in.clear()) < 0)
+				throw new IOException("Closed");
+			if (key.isValid() && key.isWritable())
+				client.flush();
+		} catch (IOException e) {
+			Client client = (Client) key.attachment();
+			if (client != null)
+				drop(client);
+		}
+	}
+
+	private void accept(SocketChannel channel) throws IOException {
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Client client = new Client(channel, clientBuffer);
+		ByteBuffer out = client.out;
+		int n = particles.size();
+		out.putInt(EventRecorder.MAGIC).putInt(EventRecorder.VERSION).putInt(n).putInt(width).putInt(height)
+				.putFloat(time);
+		for (int i = 0; i < n; i++) {
+			float refTime = particles.getRefTime(i);
+			out.putFloat(particles.getX(i, refTime)).putFloat(particles.getY(i, refTime))
+					.putFloat(particles.getVelX(i)).putFloat(particles.getVelY(i)).putFloat(refTime)
+					.putInt(particles.getMass(i)).putInt(particles.getRadius(i));
+		}
+		client.key = channel.register(selector, SelectionKey.OP_READ, client);
+		clients.add(client);
+		client.flush();
+	}
+
+	/**
+	 * Closes the connection to a viewer that has gone, which is removed from the list
+	 * once it is no longer iterated.
+	 */
+	private void drop(Client client) {
+		client.closed = true;
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Ends the stream of every viewer and gives them a moment to take the rest of it.
+	 */
+	private void close() throws IOException {
+		for (Client client : clients) {
+			if (!client.closed && !client.lagging && client.out.remaining() >= 8) {
+				client.out.putInt(0).putFloat(time);
+				client.flush();
+			}
+		}
+		long deadline = System.nanoTime() + CLOSE_NANOS;
+		while (System.nanoTime() < deadline
+				&& clients.stream().anyMatch(client -> !client.closed && client.out.position() > 0)) {
+			selector.select(this::handle, SELECT_MILLIS);
+		}
+		for (Client client : clients) {
+			client.channel.close();
+		}
+		clients.clear();
+	}
+
+	/**
+	 * A viewer, and what is still to be sent to it.
+	 */
+	private class Client {
+		final SocketChannel channel;
+		// Filled from the start, what is still to be sent.
+		final ByteBuffer out;
+		final ByteBuffer in = ByteBuffer.allocate(64);
+		SelectionKey key;
+		// Skipped events since its buffer last ran full, so it needs a keyframe.
+		boolean lagging;
+		boolean closed;
+
+		Client(SocketChannel channel, int bufferSize) {
+			this.channel = channel;
+			out = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		/**
+		 * Sends as much as the socket takes without waiting, and the keyframe of a
+		 * lagging viewer once everything before it is sent. Waits for the socket to take
+		 * more only if something is left.
+		 */
+		void flush() {
+			if (closed)
+				return;
+			try {
+				out.flip();
+				channel.write(out);
+				out.compact();
+				if (out.position() == 0 && lagging) {
+					lagging = false;
+					writeKeyframe();
+					out.flip();
+					channel.write(out);
+					out.compact();
+				}
+				key.interestOps(out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+			} catch (IOException e) {
+				drop(this);
+			}
+		}
+
+		private void writeKeyframe() {
+			out.putInt(EventRecorder.KEYFRAME).putFloat(time);
+			for (int i = 0; i < particles.size(); i++) {
+				float refTime = particles.getRefTime(i);
+				out.putFloat(particles.getX(i, refTime)).putFloat(particles.getY(i, refTime))
+						.putFloat(particles.getVelX(i)).putFloat(particles.getVelY(i)).putFloat(refTime);
+			}
+		}
+	}
+}
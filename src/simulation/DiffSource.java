@@ -0,0 +1,34 @@
+package simulation;
+
+/**
+ * Where the renderer gets the events from, the running simulation or a recording.
+ */
+public interface DiffSource {
+
+	/**
+	 * Applies every event before {@code time} that has not been applied yet to
+	 * {@code particles}.
+	 *
+	 * @return the number of events applied
+	 * @throws InterruptedException if the caller is interrupted while waiting for events
+	 */
+	public default int applyUntil(ParticleStore particles, float time) throws InterruptedException {
+		return applyUntil(particles, time, null);
+	}
+
+	/**
+	 * Applies every event before {@code time} like {@link #applyUntil(ParticleStore, float)}
+	 * and keeps {@code observables} up to date, unless it is {@code null}.
+	 */
+	public int applyUntil(ParticleStore particles, float time, Observables observables) throws InterruptedException;
+
+	/**
+	 * The time up to which the particles are known to be right after the last
+	 * {@code applyUntil}. A source that may not have the events up to the time asked for
+	 * yet returns less than it, so that a frame can be drawn from the last complete
+	 * state rather than wait for the rest.
+	 */
+	public default float getCompleteTime() {
+		return Float.POSITIVE_INFINITY;
+	}
+}
@@ -0,0 +1,120 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * Draws outlined discs straight into an ARGB pixel buffer by copying precomputed sprites,
+ * which is much cheaper per particle than a filled and stroked ellipse through the
+ * renderer. The sprites are antialiased with 4 x 4 samples per pixel and made once per
+ * radius and fill color. Discs larger than {@link #MAX_RADIUS} are left to the renderer.
+ */
+public class DiscRasterizer {
+
+	public static final int MAX_RADIUS = 64;
+
+	private static final int SAMPLES = 4;
+
+	private int[] fills = new int[0];
+	private int[][][] sprites = new int[0][][];
+
+	/**
+	 * Whether {@link #drawDisc} can draw a disc of the radius.
+	 */
+	public boolean canDraw(int radius) {
+		return radius >= 0 && radius <= MAX_RADIUS;
+	}
+
+	/**
+	 * Draws a disc filled with {@code fill} and outlined in black, centered on
+	 * {@code (x, y)}, into {@code pixels}, which holds {@code width} x {@code height}
+	 * pixels row by row. Parts outside the buffer are cut off.
+	 */
+	public void drawDisc(int[] pixels, int width, int height, float x, float y, int radius, int fill) {
+		int[] sprite = getSprite(radius, fill);
+		int size = 2 * (radius + 1);
+		int left = Math.round(x) - radius - 1;
+		int top = Math.round(y) - radius - 1;
+		int fromX = Math.max(0, -left);
+		int toX = Math.min(size, width - left);
+		int fromY = Math.max(0, -top);
+		int toY = Math.min(size, height - top);
+		for (int sy = fromY; sy < toY; sy++) {
+			int row = (top + sy) * width + left;
+			int spriteRow = sy * size;
+			for (int sx = fromX; sx < toX; sx++) {
+				int color = sprite[spriteRow + sx];
+				int alpha = color >>> 24;
+				if (alpha == 0xFF)
+					pixels[row + sx] = color;
+				else if (alpha != 0)
+					pixels[row + sx] = blend(color, pixels[row + sx], alpha);
+			}
+		}
+	}
+
+	private static int blend(int color, int background, int alpha) {
+		int inverse = 0xFF - alpha;
+		int r = (((color >> 16) & 0xFF) * alpha + ((background >> 16) & 0xFF) * inverse) / 0xFF;
+		int g = (((color >> 8) & 0xFF) * alpha + ((background >> 8) & 0xFF) * inverse) / 0xFF;
+		int b = ((color & 0xFF) * alpha + (background & 0xFF) * inverse) / 0xFF;
+		return 0xFF000000 | (r << 16) | (g << 8) | b;
+	}
+
+	private int[] getSprite(int radius, int fill) {
+		int f = 0;
+		while (f < fills.length && fills[f] != fill) {
+			f++;
+		}
+		if (f == fills.length) {
+			fills = Arrays.copyOf(fills, f + 1);
+			fills[f] = fill;
+			sprites = Arrays.copyOf(sprites, f + 1);
+			sprites[f] = new int[MAX_RADIUS + 1][];
+		}
+		int[] sprite = sprites[f][radius];
+		if (sprite == null) {
+			sprite = createSprite(radius, fill);
+			sprites[f][radius] = sprite;
+		}
+		return sprite;
+	}
+
+	/**
+	 * A disc of diameter {@code 2 * radius} with a one pixel wide black outline centered
+	 * on its edge, like {@code ellipse} with {@code strokeWeight(1)}. The center is on the
+	 * corner between the middle four pixels.
+	 */
+	private static int[] createSprite(int radius, int fill) {
+		int size = 2 * (radius + 1);
+		int[] sprite = new int[size * size];
+		float center = radius + 1;
+		float inner = Math.max(radius - 0.5f, 0);
+		float outer = radius + 0.5f;
+		for (int py = 0; py < size; py++) {
+			for (int px = 0; px < size; px++) {
+				int filled = 0, stroked = 0;
+				for (int sy = 0; sy < SAMPLES; sy++) {
+					for (int sx = 0; sx < SAMPLES; sx++) {
+						float dx = px + (sx + 0.5f) / SAMPLES - center;
+						float dy = py + (sy + 0.5f) / SAMPLES - center;
+						float distance = (float) Math.sqrt(dx * dx + dy * dy);
+						if (distance < inner)
+							filled++;
+						else if (distance < outer)
+							stroked++;
+					}
+				}
+				int covered = filled + stroked;
+				if (covered == 0)
+					continue;
+				// The outline is black, so it only darkens the fill.
+				int r = ((fill >> 16) & 0xFF) * filled / covered;
+				int g = ((fill >> 8) & 0xFF) * filled / covered;
+				int b = (fill & 0xFF) * filled / covered;
+				int alpha = covered * 0xFF / (SAMPLES * SAMPLES);
+				sprite[py * size + px] = (alpha << 24) | (r << 16) | (g << 8) | b;
+			}
+		}
+		return sprite;
+	}
+}
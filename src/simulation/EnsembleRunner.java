@@ -0,0 +1,184 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Runs independent replicas of one simulation side by side on a thread pool, each from
+ * its own {@link SimulationConfig} that differs only in the seed, and folds their results
+ * together as they finish. The replicas share nothing, so the throughput grows with the
+ * number of threads up to the number of cores.
+ */
+public class EnsembleRunner {
+
+	private final SimulationConfig config;
+	private final int replicas;
+	private final int threads;
+	private final long maxEvents;
+	private final float maxTime;
+	private final float msdInterval;
+
+	/**
+	 * Runs {@code replicas} replicas of {@code config}, each with its own random stream
+	 * drawn from a generator seeded with the seed of {@code config}, and each until
+	 * {@code maxEvents} events or simulated time {@code maxTime}, where a negative limit
+	 * is no limit. The heavy atoms' displacement is sampled every {@code msdInterval}
+	 * unless it is 0.
+	 */
+	public EnsembleRunner(SimulationConfig config, int replicas, int threads, long maxEvents, float maxTime,
+			float msdInterval) {
+		this.config = config;
+		this.replicas = replicas;
+		this.threads = threads;
+		this.maxEvents = maxEvents;
+		this.maxTime = maxTime;
+		this.msdInterval = msdInterval;
+	}
+
+	public void run() throws InterruptedException {
+		System.out.printf("%d replicas on %d threads, seed %d%n", replicas, threads, config.getSeed());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CompletionService<Replica> completion = new ExecutorCompletionService<>(executor);
+		long start = System.nanoTime();
+		// Every replica seeds its own generator from this one, so the replicas are
+		// independent and any one can be rerun alone from its printed seed.
+		SplittableRandom seeds = new SplittableRandom(config.getSeed());
+		for (int i = 0; i < replicas; i++) {
+			completion.submit(new Replica(i, config.withSeed(seeds.split().nextLong())));
+		}
+
+		Ensemble ensemble = new Ensemble();
+		try {
+			for (int i = 0; i < replicas; i++) {
+				Replica replica = completion.take().get();
+				ensemble.add(replica);
+				System.out.printf("  replica %d (seed %d): %d events in %.3f s, D = %.6g; mean D = %.6g +- %.2g over %d%n",
+						replica.index, replica.config.getSeed(), replica.events, replica.seconds, replica.diffusion,
+						ensemble.getMeanDiffusion(), ensemble.getDiffusionError(), ensemble.diffusionCount);
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("A replica failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("Events:           %d%n", ensemble.events);
+		System.out.printf("Wall time:        %.3f s%n", seconds);
+		System.out.printf("Throughput:       %.0f events/s%n", ensemble.events / seconds);
+		System.out.printf("Mean speed heavy: %.6g%n", ensemble.speedSum / replicas);
+		if (ensemble.lags != null) {
+			System.out.println("Mean squared displacement heavy, averaged over the replicas:");
+			System.out.println("          lag           MSD    MSD/(4 lag)");
+			for (int i = 0; i < ensemble.lags.length; i++) {
+				double msd = ensemble.msdSums[i] / replicas;
+				System.out.printf("  %11.1f  %12.6g  %12.6g%n", ensemble.lags[i], msd, msd / (4 * ensemble.lags[i]));
+			}
+			System.out.printf("Diffusion coefficient heavy: %.6g +- %.2g%n", ensemble.getMeanDiffusion(),
+					ensemble.getDiffusionError());
+		}
+	}
+
+	/**
+	 * One run, and its results once it is done.
+	 */
+	private class Replica implements Callable<Replica> {
+		final int index;
+		final SimulationConfig config;
+		long events;
+		double seconds;
+		double meanSpeedHeavy;
+		double diffusion = Double.NaN;
+		float[] lags;
+		double[] msd;
+
+		Replica(int index, SimulationConfig config) {
+			this.index = index;
+			this.config = config;
+		}
+
+		@Override
+		public Replica call() {
+			long start = System.nanoTime();
+			Simulation simulation = new Simulation(config);
+			ParticleStore particles = simulation.getParticlesClone();
+			int first = config.getLightAtoms();
+			MsdAnalyzer analyzer = msdInterval <= 0 ? null
+					: new MsdAnalyzer(particles, first, particles.size(), msdInterval, config.getWidth(), config.getHeight());
+			SimulationDiffrence diff = new SimulationDiffrence();
+			float time = 0;
+			while ((maxEvents < 0 || events < maxEvents) && (maxTime < 0 || time < maxTime)) {
+				simulation.advanceSimulation(diff);
+				if (analyzer != null)
+					analyzer.process(diff);
+				diff.applyTo(particles);
+				time = diff.time;
+				events++;
+			}
+			seconds = (System.nanoTime() - start) / 1e9;
+			meanSpeedHeavy = HeadlessRunner.meanSpeed(particles, first, particles.size());
+			if (analyzer != null) {
+				lags = analyzer.getLags();
+				msd = analyzer.getMeanSquaredDisplacements();
+				diffusion = analyzer.getDiffusionCoefficient();
+			}
+			return this;
+		}
+	}
+
+	/**
+	 * The results of the replicas done so far.
+	 */
+	private static class Ensemble {
+		long events;
+		double speedSum;
+		// The lags all replicas have measured, and the sum of their displacements.
+		float[] lags;
+		double[] msdSums;
+		// The running mean and sum of squared deviations of the diffusion coefficients.
+		int diffusionCount;
+		double diffusionMean, diffusionSquares;
+
+		void add(Replica replica) {
+			events += replica.events;
+			speedSum += replica.meanSpeedHeavy;
+			if (replica.lags != null) {
+				int n = lags == null ? replica.lags.length : Math.min(lags.length, replica.lags.length);
+				if (lags == null || n < lags.length) {
+					lags = Arrays.copyOf(replica.lags, n);
+					msdSums = msdSums == null ? new double[n] : Arrays.copyOf(msdSums, n);
+				}
+				for (int i = 0; i < n; i++) {
+					msdSums[i] += replica.msd[i];
+				}
+			}
+			if (!Double.isNaN(replica.diffusion)) {
+				diffusionCount++;
+				double delta = replica.diffusion - diffusionMean;
+				diffusionMean += delta / diffusionCount;
+				diffusionSquares += delta * (replica.diffusion - diffusionMean);
+			}
+		}
+
+		double getMeanDiffusion() {
+			return diffusionCount == 0 ? Double.NaN : diffusionMean;
+		}
+
+		/**
+		 * The standard error of the mean diffusion coefficient.
+		 */
+		double getDiffusionError() {
+			if (diffusionCount < 2)
+				return Double.NaN;
+			return Math.sqrt(diffusionSquares / (diffusionCount - 1) / diffusionCount);
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Plays a recorded log back to the renderer in place of the running simulation. Playing
+ * forward reads the log in order; {@link #seek} jumps to any time by loading the last
+ * keyframe before it and replaying the events in between, so it never replays the log
+ * from the start.
+ */
+public class EventLogPlayer implements DiffSource, Closeable {
+
+	private final EventLogReader reader;
+	private final ParticleStore particles;
+	// The first event not applied yet, read ahead to see whether it is due.
+	private final SimulationDiffrence next = new SimulationDiffrence();
+	private boolean hasNext;
+	private float time;
+
+	public EventLogPlayer(Path file) throws IOException {
+		reader = new EventLogReader(file);
+		particles = reader.getParticles();
+		time = reader.getStartTime();
+	}
+
+	/**
+	 * The particles the events are played into. They are only changed by
+	 * {@link #applyUntil} and {@link #seek}.
+	 */
+	public ParticleStore getParticles() {
+		return particles;
+	}
+
+	public EventLogReader getReader() {
+		return reader;
+	}
+
+	public float getStartTime() {
+		return reader.getStartTime();
+	}
+
+	public float getEndTime() {
+		return reader.getEndTime();
+	}
+
+	/**
+	 * Brings the particles to {@code time}, the state {@link #applyUntil} would have
+	 * reached playing there from the start.
+	 */
+	public void seek(float time) throws IOException {
+		if (time < this.time || reader.findKeyframe(time) > reader.getKeyframe()) {
+			reader.seekKeyframe(time, particles);
+			hasNext = false;
+		}
+		apply(particles, time, null);
+	}
+
+	/**
+	 * Plays the events before {@code time}. The particles must be the ones of
+	 * {@link #getParticles()}.
+	 *
+	 * @throws UncheckedIOException if the log cannot be read
+	 */
+	@Override
+	public int applyUntil(ParticleStore particles, float time, Observables observables) {
+		try {
+			return apply(particles, time, observables);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private int apply(ParticleStore particles, float time, Observables observables) throws IOException {
+		int applied = 0;
+		while (hasNext || reader.next(next)) {
+			if (next.time >= time) {
+				hasNext = true;
+				break;
+			}
+			next.applyTo(particles, observables);
+			hasNext = false;
+			applied++;
+		}
+		this.time = time;
+		return applied;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,278 @@
+package simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Streams a log written by {@link EventRecorder} back one event at a time. Only the
+ * segment being read is mapped, so logs larger than the heap can be read.
+ * <p>
+ * The keyframes of the log are indexed by time, so {@link #seekKeyframe} finds the last
+ * keyframe before a time with a binary search. The index is read from the end of the
+ * log, or rebuilt by reading the whole log once if the recorder was not closed.
+ */
+public class EventLogReader implements Closeable {
+
+	private final FileChannel channel;
+	private final int width, height;
+	private final float startTime;
+	private final ParticleStore initial;
+	private final long dataStart;
+	private long end;
+	private MappedByteBuffer segment;
+	private long segmentStart;
+	private boolean done;
+
+	private float[] keyframeTimes = new float[16];
+	private long[] keyframePositions = new long[16];
+	private int keyframes;
+	// The index of the last keyframe read past, -1 before the first.
+	private int keyframe;
+	private boolean indexing;
+	private float endTime;
+	private long eventCount;
+
+	public EventLogReader(Path file) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < EventRecorder.HEADER_SIZE)
+				throw new IOException("Not an event log");
+			MappedByteBuffer header = EventRecorder.map(channel, MapMode.READ_ONLY, 0, EventRecorder.HEADER_SIZE);
+			EventRecorder.checkHeader(header);
+			int n = header.getInt();
+			width = header.getInt();
+			height = header.getInt();
+			startTime = header.getFloat();
+
+			dataStart = EventRecorder.HEADER_SIZE + (long) n * EventRecorder.PARTICLE_SIZE;
+			if (size < dataStart)
+				throw new IOException("Event log ends inside the start state");
+			MappedByteBuffer state = EventRecorder.map(channel, MapMode.READ_ONLY, EventRecorder.HEADER_SIZE,
+					dataStart - EventRecorder.HEADER_SIZE);
+			initial = new ParticleStore(n);
+			for (int i = 0; i < n; i++) {
+				float x = state.getFloat();
+				float y = state.getFloat();
+				float vx = state.getFloat();
+				float vy = state.getFloat();
+				float refTime = state.getFloat();
+				initial.add(x, y, vx, vy, state.getInt(), state.getInt());
+				initial.setState(i, x, y, vx, vy, refTime);
+			}
+
+			end = size;
+			if (!readIndex(size))
+				buildIndex();
+			keyframe = -1;
+			done = false;
+			mapSegment(dataStart);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private boolean readIndex(long size) throws IOException {
+		if (size < dataStart + EventRecorder.INDEX_TRAILER_SIZE)
+			return false;
+		MappedByteBuffer trailer = EventRecorder.map(channel, MapMode.READ_ONLY,
+				size - EventRecorder.INDEX_TRAILER_SIZE, EventRecorder.INDEX_TRAILER_SIZE);
+		float lastTime = trailer.getFloat();
+		long events = trailer.getLong();
+		int count = trailer.getInt();
+		if (trailer.getInt() != EventRecorder.INDEX_MAGIC || count < 0)
+			return false;
+		long indexStart = size - EventRecorder.INDEX_TRAILER_SIZE - (long) count * EventRecorder.INDEX_ENTRY_SIZE;
+		if (indexStart < dataStart)
+			return false;
+		MappedByteBuffer index = EventRecorder.map(channel, MapMode.READ_ONLY, indexStart,
+				(long) count * EventRecorder.INDEX_ENTRY_SIZE);
+		keyframeTimes = new float[Math.max(count, 1)];
+		keyframePositions = new long[Math.max(count, 1)];
+		for (int i = 0; i < count; i++) {
+			keyframeTimes[i] = index.getFloat();
+			keyframePositions[i] = index.getLong();
+		}
+		keyframes = count;
+		endTime = lastTime;
+		eventCount = events;
+		end = indexStart;
+		return true;
+	}
+
+	private void buildIndex() throws IOException {
+		SimulationDiffrence diff = new SimulationDiffrence();
+		diff.time = startTime;
+		indexing = true;
+		mapSegment(dataStart);
+		while (next(diff)) {
+			eventCount++;
+		}
+		indexing = false;
+		endTime = diff.time;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * The simulated time at which the recording started.
+	 */
+	public float getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * The time of the last event in the log.
+	 */
+	public float getEndTime() {
+		return endTime;
+	}
+
+	public long getEventCount() {
+		return eventCount;
+	}
+
+	public int getKeyframeCount() {
+		return keyframes;
+	}
+
+	/**
+	 * A copy of the particles as they were when the recording started.
+	 */
+	public ParticleStore getParticles() {
+		return initial.copy();
+	}
+
+	/**
+	 * Reads the next event into {@code diff}, skipping keyframes.
+	 *
+	 * @return {@code false} if the log has ended, {@code diff} is unchanged then
+	 */
+	public boolean next(SimulationDiffrence diff) throws IOException {
+		while (!done) {
+			if (segment.position() > EventRecorder.SEGMENT_SIZE - EventRecorder.MAX_RECORD_SIZE)
+				mapSegment(segmentStart + segment.position());
+			MappedByteBuffer s = segment;
+			if (s.remaining() < 8)
+				break;
+			int count = s.getInt();
+			if (count == EventRecorder.KEYFRAME) {
+				long position = segmentStart + s.position() - 4;
+				long next = position + EventRecorder.keyframeSize(initial.size());
+				// Like an event, a keyframe cut off by the end of the file ends the log.
+				if (next > end)
+					break;
+				if (indexing)
+					addKeyframe(s.getFloat(), position);
+				keyframe++;
+				mapSegment(next);
+				continue;
+			}
+			// A count of 0 is the unwritten rest of a segment, the recorder did not get to
+			// close the file.
+			if (count <= 0 || count > 2 || s.remaining() < 4 + count * 5 * 4)
+				break;
+			diff.count = count;
+			diff.time = s.getFloat();
+			for (int i = 0; i < count; i++) {
+				diff.ids[i] = s.getInt();
+				diff.x[i] = s.getFloat();
+				diff.y[i] = s.getFloat();
+				diff.vx[i] = s.getFloat();
+				diff.vy[i] = s.getFloat();
+			}
+			return true;
+		}
+		done = true;
+		return false;
+	}
+
+	/**
+	 * The index of the last keyframe before {@code time}, or -1 if there is none and
+	 * {@code time} has to be reached from the start of the log.
+	 */
+	public int findKeyframe(float time) {
+		int low = 0;
+		int high = keyframes;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (keyframeTimes[mid] < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low - 1;
+	}
+
+	/**
+	 * The index of the last keyframe read past, -1 if the reader is before the first.
+	 */
+	public int getKeyframe() {
+		return keyframe;
+	}
+
+	/**
+	 * Loads the last keyframe before {@code time}, or the start state, into
+	 * {@code particles} and continues reading after it. The events from there up to
+	 * {@code time} are still to be applied.
+	 */
+	public void seekKeyframe(float time, ParticleStore particles) throws IOException {
+		int k = findKeyframe(time);
+		int n = initial.size();
+		if (k < 0) {
+			for (int i = 0; i < n; i++) {
+				particles.setState(i, initial.getX(i, initial.getRefTime(i)), initial.getY(i, initial.getRefTime(i)),
+						initial.getVelX(i), initial.getVelY(i), initial.getRefTime(i));
+			}
+			mapSegment(dataStart);
+		} else {
+			long size = EventRecorder.keyframeSize(n);
+			MappedByteBuffer s = EventRecorder.map(channel, MapMode.READ_ONLY, keyframePositions[k], size);
+			if (s.getInt() != EventRecorder.KEYFRAME)
+				throw new IOException("No keyframe at " + keyframePositions[k]);
+			s.getFloat();
+			for (int i = 0; i < n; i++) {
+				particles.setState(i, s.getFloat(), s.getFloat(), s.getFloat(), s.getFloat(), s.getFloat());
+			}
+			mapSegment(keyframePositions[k] + size);
+		}
+		keyframe = k;
+		done = false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void addKeyframe(float time, long position) {
+		if (keyframes == keyframeTimes.length) {
+			keyframeTimes = Arrays.copyOf(keyframeTimes, keyframes * 2);
+			keyframePositions = Arrays.copyOf(keyframePositions, keyframes * 2);
+		}
+		keyframeTimes[keyframes] = time;
+		keyframePositions[keyframes] = position;
+		keyframes++;
+	}
+
+	private void mapSegment(long start) throws IOException {
+		segmentStart = start;
+		long size = Math.max(0, Math.min(EventRecorder.SEGMENT_SIZE, end - start));
+		segment = EventRecorder.map(channel, MapMode.READ_ONLY, start, size);
+	}
+}
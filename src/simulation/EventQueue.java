@@ -0,0 +1,72 @@
+package simulation;
+
+import java.util.function.Consumer;
+
+/**
+ * A priority queue of {@link CollisionEvent}s ordered by {@link CollisionEvent#compareTo}.
+ * An event can only be in one queue at a time.
+ */
+public interface EventQueue {
+
+	public void add(CollisionEvent event);
+
+	/**
+	 * Adds the first {@code count} events of {@code events}.
+	 */
+	public default void addAll(CollisionEvent[] events, int count) {
+		for (int i = 0; i < count; i++) {
+			add(events[i]);
+		}
+	}
+
+	/**
+	 * Removes and returns the earliest event, or {@code null} if the queue is empty.
+	 */
+	public CollisionEvent poll();
+
+	/**
+	 * Returns the earliest event without removing it, or {@code null} if the queue is empty.
+	 */
+	public CollisionEvent peek();
+
+	/**
+	 * Removes the event from the queue. Returns {@code false} if it was not in the queue.
+	 */
+	public boolean remove(CollisionEvent event);
+
+	/**
+	 * Moves an event that is already in the queue to its new place after its time has been
+	 * changed with {@link CollisionEvent#setTime(float)}.
+	 *
+	 * @throws IllegalArgumentException if the event is not in this queue
+	 */
+	public void update(CollisionEvent event);
+
+	public int size();
+
+	/**
+	 * Hands every event to {@code action} without removing it, in no particular order.
+	 */
+	public void forEach(Consumer<CollisionEvent> action);
+
+	public void clear();
+
+	public default boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public static EventQueue create(EventQueueType type) {
+		switch (type) {
+		case BINARY_HEAP:
+			return new HeapEventQueue();
+		case CALENDAR:
+			return new CalendarEventQueue();
+		default:
+			throw new IllegalArgumentException("Unknown event queue " + type);
+		}
+	}
+
+	public enum EventQueueType {
+		BINARY_HEAP, CALENDAR;
+	}
+}
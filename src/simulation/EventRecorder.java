@@ -0,0 +1,208 @@
+package simulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Appends every event handed out by a {@link Simulation} to a binary log, which
+ * {@link EventLogReader} streams back. The file is written through memory mapped segments
+ * of {@link #SEGMENT_SIZE} bytes, so recording an event is a handful of stores into
+ * memory and never allocates.
+ * <p>
+ * The file starts with a header and the state of every particle when the recording
+ * started. Events follow as records of {@code count}, {@code time} and {@code count} times
+ * the new trajectory {@code id, x, y, vx, vy} of a particle, all four bytes wide and
+ * little endian. A record never crosses the end of a segment: a record that does not fit
+ * starts the next one. A count of 0 or the end of the file ends the log.
+ * <p>
+ * Every few events per particle a keyframe record with the count {@link #KEYFRAME}, the
+ * time and {@code x, y, vx, vy, refTime} of every particle is written, and a new segment
+ * starts after it. {@link #close()} writes the time and position of every keyframe to the
+ * end of the file, so that a reader can seek without scanning the log. The file is not
+ * cut after the last record, since a file that is still mapped can not be shortened on
+ * Windows and a segment is only unmapped once it is garbage collected. The unused rest
+ * of the last segment reads as a count of 0 and ends the log.
+ */
+public class EventRecorder implements Closeable {
+
+	static final int MAGIC = 0x4C454D42;
+	static final int INDEX_MAGIC = 0x58444E49;
+	static final int VERSION = 2;
+	static final int SEGMENT_SIZE = 64 << 20;
+	static final int HEADER_SIZE = 6 * 4;
+	static final int PARTICLE_SIZE = 7 * 4;
+	static final int MAX_RECORD_SIZE = 2 * 4 + 2 * 5 * 4;
+	static final int KEYFRAME = -1;
+	static final int KEYFRAME_PARTICLE_SIZE = 5 * 4;
+	static final int INDEX_ENTRY_SIZE = 4 + 8;
+	static final int INDEX_TRAILER_SIZE = 4 + 8 + 4 + 4;
+
+	// An event record is about 40 bytes, so keyframes take up about a tenth of the log.
+	private static final int KEYFRAME_EVENTS_PER_PARTICLE = 4;
+	private static final int MIN_KEYFRAME_INTERVAL = 1024;
+
+	private final FileChannel channel;
+	// The particles after the last recorded event, which is what a keyframe holds.
+	private final ParticleStore particles;
+	private final long keyframeInterval;
+	private MappedByteBuffer segment;
+	private long segmentStart;
+	private long events;
+	private long sinceKeyframe;
+	private float lastTime;
+	private float[] keyframeTimes = new float[16];
+	private long[] keyframePositions = new long[16];
+	private int keyframes;
+
+	/**
+	 * Creates or overwrites {@code file} and writes the state of {@code particles} at
+	 * {@code time} to it.
+	 */
+	public EventRecorder(Path file, ParticleStore particles, float time, int width, int height) throws IOException {
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.particles = particles.copy();
+		int n = particles.size();
+		keyframeInterval = Math.max((long) n * KEYFRAME_EVENTS_PER_PARTICLE, MIN_KEYFRAME_INTERVAL);
+		lastTime = time;
+		try {
+			long dataStart = HEADER_SIZE + (long) n * PARTICLE_SIZE;
+			MappedByteBuffer header = map(channel, MapMode.READ_WRITE, 0, dataStart);
+			header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(width).putInt(height).putFloat(time);
+			for (int i = 0; i < n; i++) {
+				header.putFloat(particles.getX(i, time));
+				header.putFloat(particles.getY(i, time));
+				header.putFloat(particles.getVelX(i));
+				header.putFloat(particles.getVelY(i));
+				header.putFloat(time);
+				header.putInt(particles.getMass(i));
+				header.putInt(particles.getRadius(i));
+			}
+			nextSegment(dataStart);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Appends {@code diff} to the log.
+	 */
+	public void record(SimulationDiffrence diff) throws IOException {
+		if (segment.position() > SEGMENT_SIZE - MAX_RECORD_SIZE)
+			nextSegment(getSize());
+		MappedByteBuffer s = segment;
+		s.putInt(diff.count);
+		s.putFloat(diff.time);
+		for (int i = 0; i < diff.count; i++) {
+			s.putInt(diff.ids[i]);
+			s.putFloat(diff.x[i]);
+			s.putFloat(diff.y[i]);
+			s.putFloat(diff.vx[i]);
+			s.putFloat(diff.vy[i]);
+		}
+		diff.applyTo(particles);
+		lastTime = diff.time;
+		events++;
+		if (++sinceKeyframe >= keyframeInterval)
+			writeKeyframe();
+	}
+
+	private void writeKeyframe() throws IOException {
+		if (segment.position() > SEGMENT_SIZE - MAX_RECORD_SIZE)
+			nextSegment(getSize());
+		long position = getSize();
+		int n = particles.size();
+		long size = keyframeSize(n);
+		MappedByteBuffer keyframe = map(channel, MapMode.READ_WRITE, position, size);
+		keyframe.putInt(KEYFRAME).putFloat(lastTime);
+		for (int i = 0; i < n; i++) {
+			float refTime = particles.getRefTime(i);
+			keyframe.putFloat(particles.getX(i, refTime));
+			keyframe.putFloat(particles.getY(i, refTime));
+			keyframe.putFloat(particles.getVelX(i));
+			keyframe.putFloat(particles.getVelY(i));
+			keyframe.putFloat(refTime);
+		}
+		if (keyframes == keyframeTimes.length) {
+			keyframeTimes = Arrays.copyOf(keyframeTimes, keyframes * 2);
+			keyframePositions = Arrays.copyOf(keyframePositions, keyframes * 2);
+		}
+		keyframeTimes[keyframes] = lastTime;
+		keyframePositions[keyframes] = position;
+		keyframes++;
+		sinceKeyframe = 0;
+		nextSegment(position + size);
+	}
+
+	private void nextSegment(long start) throws IOException {
+		segmentStart = start;
+		segment = map(channel, MapMode.READ_WRITE, segmentStart, SEGMENT_SIZE);
+	}
+
+	/**
+	 * The number of events recorded so far.
+	 */
+	public long getEventCount() {
+		return events;
+	}
+
+	/**
+	 * The size of the log so far in bytes.
+	 */
+	public long getSize() {
+		return segmentStart + segment.position();
+	}
+
+	/**
+	 * Writes the keyframe index to the end of the file, after the last record, and closes
+	 * it.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			ByteBuffer index = ByteBuffer.allocate(keyframes * INDEX_ENTRY_SIZE + INDEX_TRAILER_SIZE);
+			index.order(ByteOrder.LITTLE_ENDIAN);
+			for (int i = 0; i < keyframes; i++) {
+				index.putFloat(keyframeTimes[i]).putLong(keyframePositions[i]);
+			}
+			index.putFloat(lastTime).putLong(events).putInt(keyframes).putInt(INDEX_MAGIC);
+			index.flip();
+			// The file reaches at least to the end of the last segment, and only grows here.
+			long start = Math.max(getSize(), channel.size() - index.remaining());
+			while (index.hasRemaining()) {
+				channel.write(index, start + index.position());
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	static long keyframeSize(int particles) {
+		return 8 + (long) particles * KEYFRAME_PARTICLE_SIZE;
+	}
+
+	static MappedByteBuffer map(FileChannel channel, MapMode mode, long position, long size) throws IOException {
+		MappedByteBuffer buffer = channel.map(mode, position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	static void checkHeader(ByteBuffer header) throws IOException {
+		if (header.getInt() != MAGIC)
+			throw new IOException("Not an event log");
+		int version = header.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported event log version " + version);
+	}
+}
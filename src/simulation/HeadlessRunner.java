@@ -0,0 +1,469 @@
+package simulation;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import simulation.EventQueue.EventQueueType;
+import simulation.InitialState.Placement;
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Runs the simulation without a window, as fast as the CPU allows, and prints the
+ * throughput and a summary of the final state. Particle counts, masses, radii and start
+ * velocities are read into {@link Constants} before the simulation is created.
+ * <p>
+ * Usage: {@code HeadlessRunner [options]}, see {@link #printUsage()}.
+ */
+public class HeadlessRunner {
+
+	private static final long PROGRESS_INTERVAL = 10_000_000_000L;
+	private static final float DEFAULT_CHECKPOINT_INTERVAL = 600;
+	// How far the measures of isEquilibrated may be off their equilibrium values.
+	private static final double SPREAD_TOLERANCE = 0.05;
+	private static final double VELOCITY_TOLERANCE = 0.1;
+	// Fewer atoms of a species than this are too few to compare its temperature.
+	private static final int MIN_SPECIES_SIZE = 100;
+
+	private int width = 1280;
+	private int height = 720;
+	private long seed = System.nanoTime();
+	private long maxEvents = -1;
+	private float maxTime = -1;
+	private Path recordFile;
+	private float msdInterval;
+	private int replicas;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private boolean measureEquilibration;
+	private Path checkpointFile;
+	private float checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+	private Path restoreFile;
+	// The port the events are streamed to viewers on, -1 if they are not.
+	private int servePort = -1;
+
+	public static void main(String[] args) {
+		HeadlessRunner runner = new HeadlessRunner();
+		try {
+			runner.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			printUsage();
+			System.exit(1);
+		}
+		try {
+			runner.run();
+		} catch (IOException e) {
+			System.err.println("Reading or writing a file failed: " + e.getMessage());
+			System.exit(1);
+		} catch (InterruptedException e) {
+			System.err.println("Interrupted");
+			System.exit(1);
+		}
+	}
+
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			switch (arg) {
+			case "--headless":
+				break;
+			case "--grid":
+				Constants.USE_CELL_GRID = true;
+				break;
+			case "--all-pairs":
+				Constants.USE_CELL_GRID = false;
+				break;
+			case "--event-per-atom":
+				Constants.ONE_EVENT_PER_ATOM = true;
+				break;
+			case "--serial-setup":
+				Constants.PARALLEL_SETUP = false;
+				break;
+			case "--equilibration":
+				measureEquilibration = true;
+				break;
+			case "--help":
+				printUsage();
+				System.exit(0);
+				break;
+			default:
+				if (i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for " + arg);
+				parseOption(arg, args[++i]);
+			}
+		}
+		if (maxEvents < 0 && maxTime < 0)
+			throw new IllegalArgumentException("Either --events or --time must be given");
+		if (replicas > 0 && (checkpointFile != null || restoreFile != null))
+			throw new IllegalArgumentException("Replicas cannot be checkpointed or restored");
+		if (replicas > 0 && servePort >= 0)
+			throw new IllegalArgumentException("Replicas cannot be served");
+		if (checkpointFile != null && Constants.SIMULATION_SECTORS > 1 && restoreFile == null)
+			throw new IllegalArgumentException("A simulation split into sectors cannot be checkpointed");
+	}
+
+	private void parseOption(String option, String value) {
+		try {
+			switch (option) {
+			case "--light":
+				Constants.NUMBER_OF_LIGHT_ATOMS = Integer.parseInt(value);
+				break;
+			case "--heavy":
+				Constants.NUMBER_OF_HEAVY_ATOMS = Integer.parseInt(value);
+				break;
+			case "--width":
+				width = Integer.parseInt(value);
+				break;
+			case "--height":
+				height = Integer.parseInt(value);
+				break;
+			case "--light-mass":
+				Constants.LIGHT_MASS = Integer.parseInt(value);
+				break;
+			case "--heavy-mass":
+				Constants.HEAVY_MASS = Integer.parseInt(value);
+				break;
+			case "--light-radius":
+				Constants.LIGHT_ATOM_RADIUS = Integer.parseInt(value);
+				break;
+			case "--heavy-radius":
+				Constants.HEAVY_ATOM_RADIUS = Integer.parseInt(value);
+				break;
+			case "--light-speed":
+				Constants.LIGHT_MAX_START_VEL = Float.parseFloat(value);
+				break;
+			case "--heavy-speed":
+				Constants.HEAVY_MAX_START_VEL = Float.parseFloat(value);
+				break;
+			case "--seed":
+				seed = Long.parseLong(value);
+				break;
+			case "--events":
+				maxEvents = Long.parseLong(value);
+				break;
+			case "--time":
+				maxTime = Float.parseFloat(value);
+				break;
+			case "--sectors":
+				Constants.SIMULATION_SECTORS = Integer.parseInt(value);
+				break;
+			case "--record":
+				recordFile = Paths.get(value);
+				break;
+			case "--replicas":
+				replicas = Integer.parseInt(value);
+				break;
+			case "--threads":
+				threads = Integer.parseInt(value);
+				break;
+			case "--msd":
+				msdInterval = Float.parseFloat(value);
+				break;
+			case "--queue":
+				Constants.EVENT_QUEUE = parseQueue(value);
+				break;
+			case "--placement":
+				Constants.INITIAL_PLACEMENT = parsePlacement(value);
+				break;
+			case "--checkpoint":
+				checkpointFile = Paths.get(value);
+				break;
+			case "--checkpoint-interval":
+				checkpointInterval = Float.parseFloat(value);
+				break;
+			case "--restore":
+				restoreFile = Paths.get(value);
+				break;
+			case "--serve":
+				servePort = Integer.parseInt(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + option);
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+		}
+	}
+
+	private static EventQueueType parseQueue(String value) {
+		switch (value) {
+		case "heap":
+			return EventQueueType.BINARY_HEAP;
+		case "calendar":
+			return EventQueueType.CALENDAR;
+		default:
+			throw new IllegalArgumentException("Unknown queue " + value);
+		}
+	}
+
+	private static Placement parsePlacement(String value) {
+		switch (value) {
+		case "centre":
+			return Placement.CENTRE;
+		case "random":
+			return Placement.RANDOM;
+		case "square":
+			return Placement.SQUARE_LATTICE;
+		case "hexagonal":
+			return Placement.HEXAGONAL_LATTICE;
+		default:
+			throw new IllegalArgumentException("Unknown placement " + value);
+		}
+	}
+
+	private static void printUsage() {
+		System.err.println("Usage: HeadlessRunner (--events N | --time T) [options]");
+		System.err.println("  --light N, --heavy N          number of light and heavy atoms");
+		System.err.println("  --width N, --height N         size of the box");
+		System.err.println("  --light-mass N, --heavy-mass N");
+		System.err.println("  --light-radius N, --heavy-radius N");
+		System.err.println("  --light-speed V, --heavy-speed V   maximum start speeds");
+		System.err.println("  --seed N                      seed of the start velocities");
+		System.err.println("  --events N                    stop after N events");
+		System.err.println("  --time T                      stop at simulated time T");
+		System.err.println("  --grid | --all-pairs          collision detection");
+		System.err.println("  --queue heap|calendar         event queue");
+		System.err.println("  --placement centre|random|square|hexagonal   initial positions");
+		System.err.println("  --equilibration               report when the run reaches equilibrium");
+		System.err.println("  --event-per-atom              schedule one event per atom");
+		System.err.println("  --serial-setup                predict the first events on one thread");
+		System.err.println("  --sectors N                   split the box into N sectors run in parallel");
+		System.err.println("  --record FILE                 record every event to FILE");
+		System.err.println("  --checkpoint FILE             save the simulation to FILE at the end and on a timer");
+		System.err.println("  --checkpoint-interval S       seconds between checkpoints, " + (int) DEFAULT_CHECKPOINT_INTERVAL
+				+ " by default");
+		System.err.println("  --restore FILE                continue from the checkpoint in FILE");
+		System.err.println("  --serve PORT                  stream the events to viewers on localhost:PORT, 0 for any port");
+		System.err.println("  --msd T                       measure the heavy atoms' displacement every T");
+		System.err.println("  --replicas K                  run K replicas with seeds from --seed on");
+		System.err.println("  --threads N                   threads the replicas run on");
+	}
+
+	private void run() throws IOException, InterruptedException {
+		if (replicas > 0) {
+			// The replicas already keep the cores busy.
+			SimulationConfig config = SimulationConfig.fromConstants(width, height, seed).withParallelSetup(false);
+			new EnsembleRunner(config, replicas, threads, maxEvents, maxTime, msdInterval).run();
+			return;
+		}
+		long start = System.nanoTime();
+		Simulation simulation;
+		if (restoreFile != null) {
+			simulation = new Simulation(Checkpoint.read(restoreFile));
+			width = simulation.getWidth();
+			height = simulation.getHeight();
+			seed = simulation.getSeed();
+		} else {
+			simulation = new Simulation(Constants.NUMBER_OF_LIGHT_ATOMS, Constants.NUMBER_OF_HEAVY_ATOMS, width, height,
+					seed);
+		}
+		long setupTime = System.nanoTime() - start;
+		int nLight = simulation.getLightAtoms();
+		int nHeavy = simulation.getParticles().size() - nLight;
+		float startTime = simulation.getTime();
+		if (restoreFile != null)
+			System.out.printf("Restored %s at time %.3f%n", restoreFile, startTime);
+		System.out.printf("%d light and %d heavy atoms in a %d x %d box, seed %d%n", nLight, nHeavy, width, height, seed);
+		SimulationMetrics metrics = new SimulationMetrics();
+		simulation.setMetrics(metrics);
+		metrics.register();
+		// Rebuilt from the events handed out, since the live state of the simulation can
+		// be ahead of them.
+		ParticleStore particles = simulation.getParticlesClone();
+		ParticleStore initial = particles.copy();
+		float startEnergy = kineticEnergy(particles);
+		EventRecorder recorder = recordFile == null ? null
+				: new EventRecorder(recordFile, particles, startTime, width, height);
+		MsdAnalyzer analyzer = null;
+		if (msdInterval > 0) {
+			analyzer = new MsdAnalyzer(particles, nLight, nLight + nHeavy, msdInterval, width, height);
+			analyzer.start();
+		}
+		DiffServer server = null;
+		if (servePort >= 0) {
+			server = new DiffServer(particles, startTime, width, height, servePort);
+			server.start();
+			System.out.printf("Serving the events on localhost:%d%n", server.getPort());
+		}
+
+		SimulationDiffrence diff = new SimulationDiffrence();
+		long events = 0;
+		long wallCollisions = 0;
+		float time = startTime;
+		long checkpoints = 0;
+		long equilibrationEvents = -1;
+		float equilibrationTime = 0;
+		double equilibrationSeconds = 0;
+		int checkInterval = Math.max(particles.size(), 1024);
+		start = System.nanoTime();
+		long nextProgress = start + PROGRESS_INTERVAL;
+		long nextCheckpoint = start + (long) (checkpointInterval * 1e9);
+		while ((maxEvents < 0 || events < maxEvents) && (maxTime < 0 || time < maxTime)) {
+			simulation.advanceSimulation(diff);
+			if (recorder != null)
+				recorder.record(diff);
+			if (analyzer != null)
+				analyzer.offer(diff);
+			if (server != null)
+				server.offer(diff);
+			diff.applyTo(particles);
+			time = diff.time;
+			events++;
+			if (diff.count == 1)
+				wallCollisions++;
+			if (measureEquilibration && equilibrationEvents < 0 && events % checkInterval == 0
+					&& isEquilibrated(particles, nLight, time, width, height)) {
+				equilibrationEvents = events;
+				equilibrationTime = time;
+				equilibrationSeconds = (System.nanoTime() - start) / 1e9;
+			}
+			// Checking the clock on every event costs more than the event itself.
+			if ((events & 0xFFFF) == 0) {
+				long now = System.nanoTime();
+				if (now > nextProgress) {
+					nextProgress += PROGRESS_INTERVAL;
+					System.out.printf("  %d events, time %.1f, %.0f events/s%n", events, time, events / ((now - start) / 1e9));
+				}
+				if (checkpointFile != null && now > nextCheckpoint) {
+					simulation.writeCheckpoint(checkpointFile);
+					checkpoints++;
+					nextCheckpoint = System.nanoTime() + (long) (checkpointInterval * 1e9);
+				}
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		if (recorder != null)
+			recorder.close();
+		if (server != null) {
+			server.terminate();
+			server.join();
+		}
+		if (checkpointFile != null) {
+			simulation.writeCheckpoint(checkpointFile);
+			checkpoints++;
+		}
+
+		System.out.printf("Setup:            %.3f s%n", setupTime / 1e9);
+		System.out.printf("Events:           %d (%d wall, %d particle)%n", events, wallCollisions, events - wallCollisions);
+		System.out.printf("Simulated time:   %.3f%n", time);
+		System.out.printf("Wall time:        %.3f s%n", seconds);
+		System.out.printf("Throughput:       %.0f events/s%n", events / seconds);
+		System.out.printf("Stale events:     %.1f%% of %d taken from the queue%n",
+				100.0 * metrics.getStaleEvents() / Math.max(metrics.getPolledEvents(), 1), metrics.getPolledEvents());
+		if (checkpointFile != null)
+			System.out.printf("Checkpoints:      %d to %s, the last at time %.3f%n", checkpoints, checkpointFile, time);
+		if (recorder != null)
+			System.out.printf("Recorded:         %s, %.1f MB%n", recordFile, recorder.getSize() / 1e6);
+		if (measureEquilibration && equilibrationEvents < 0)
+			System.out.println("Equilibrated:     not yet");
+		else if (measureEquilibration)
+			System.out.printf("Equilibrated:     at time %.1f after %d events, %.3f s including setup%n", equilibrationTime,
+					equilibrationEvents, equilibrationSeconds + setupTime / 1e9);
+		System.out.printf("Kinetic energy:   %.6g -> %.6g%n", startEnergy, kineticEnergy(particles));
+		System.out.printf("Momentum:         (%.6g, %.6g)%n", momentum(particles, true), momentum(particles, false));
+		System.out.printf("Mean speed light: %.6g%n", meanSpeed(particles, 0, nLight));
+		System.out.printf("Mean speed heavy: %.6g%n", meanSpeed(particles, nLight, nLight + nHeavy));
+		System.out.printf("RMS displacement heavy: %.6g%n",
+				rmsDisplacement(initial, particles, nLight, nLight + nHeavy, startTime, time));
+		if (analyzer != null) {
+			analyzer.terminate();
+			analyzer.join();
+			printDisplacement(analyzer);
+		}
+	}
+
+	private static void printDisplacement(MsdAnalyzer analyzer) {
+		float[] lags = analyzer.getLags();
+		double[] msd = analyzer.getMeanSquaredDisplacements();
+		System.out.println("Mean squared displacement heavy:");
+		System.out.println("          lag           MSD    MSD/(4 lag)");
+		for (int i = 0; i < lags.length; i++) {
+			System.out.printf("  %11.1f  %12.6g  %12.6g%n", lags[i], msd[i], msd[i] / (4 * lags[i]));
+		}
+		System.out.printf("Diffusion coefficient heavy: %.6g%n", analyzer.getDiffusionCoefficient());
+	}
+
+	/**
+	 * Whether the particles at {@code time} look like an equilibrium state: spread over
+	 * the box with the mean squared distance from its centre of a uniform distribution,
+	 * the light atoms' speeds with the ratio of the moments that of a Maxwell-Boltzmann
+	 * distribution, {@code <v^4> / <v^2>^2 = 2} in two dimensions, and both species at
+	 * the same temperature if there are enough atoms of each to tell.
+	 */
+	private static boolean isEquilibrated(ParticleStore particles, int nLight, float time, int width, int height) {
+		double spread = 0, uniformSpread = 0;
+		for (int i = 0; i < particles.size(); i++) {
+			float dx = particles.getX(i, time) - width / 2f;
+			float dy = particles.getY(i, time) - height / 2f;
+			spread += dx * dx + dy * dy;
+			float w = width - 2 * particles.getRadius(i);
+			float h = height - 2 * particles.getRadius(i);
+			uniformSpread += (w * w + h * h) / 12.0;
+		}
+		if (Math.abs(spread / uniformSpread - 1) > SPREAD_TOLERANCE)
+			return false;
+
+		double v2 = 0, v4 = 0;
+		for (int i = 0; i < nLight; i++) {
+			float vx = particles.getVelX(i);
+			float vy = particles.getVelY(i);
+			double speed2 = vx * vx + vy * vy;
+			v2 += speed2;
+			v4 += speed2 * speed2;
+		}
+		if (nLight > 0 && Math.abs(v4 * nLight / (v2 * v2) / 2 - 1) > VELOCITY_TOLERANCE)
+			return false;
+
+		int nHeavy = particles.size() - nLight;
+		if (nLight < MIN_SPECIES_SIZE || nHeavy < MIN_SPECIES_SIZE)
+			return true;
+		double light = 2 * kineticEnergy(particles, 0, nLight) / nLight;
+		double heavy = 2 * kineticEnergy(particles, nLight, particles.size()) / nHeavy;
+		return Math.abs(heavy / light - 1) <= VELOCITY_TOLERANCE;
+	}
+
+	private static float kineticEnergy(ParticleStore particles) {
+		return (float) kineticEnergy(particles, 0, particles.size());
+	}
+
+	private static double kineticEnergy(ParticleStore particles, int from, int to) {
+		double energy = 0;
+		for (int i = from; i < to; i++) {
+			float vx = particles.getVelX(i);
+			float vy = particles.getVelY(i);
+			energy += 0.5 * particles.getMass(i) * (vx * vx + vy * vy);
+		}
+		return energy;
+	}
+
+	private static float momentum(ParticleStore particles, boolean x) {
+		double momentum = 0;
+		for (int i = 0; i < particles.size(); i++) {
+			momentum += particles.getMass(i) * (x ? particles.getVelX(i) : particles.getVelY(i));
+		}
+		return (float) momentum;
+	}
+
+	static float meanSpeed(ParticleStore particles, int from, int to) {
+		if (to <= from)
+			return 0;
+		double sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += Math.hypot(particles.getVelX(i), particles.getVelY(i));
+		}
+		return (float) (sum / (to - from));
+	}
+
+	private static float rmsDisplacement(ParticleStore initial, ParticleStore particles, int from, int to,
+			float startTime, float time) {
+		if (to <= from)
+			return 0;
+		double sum = 0;
+		for (int i = from; i < to; i++) {
+			double dx = particles.getX(i, time) - initial.getX(i, startTime);
+			double dy = particles.getY(i, time) - initial.getY(i, startTime);
+			sum += dx * dx + dy * dy;
+		}
+		return (float) Math.sqrt(sum / (to - from));
+	}
+}
@@ -0,0 +1,149 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A binary min-heap that keeps track of where every event is stored, so events can be
+ * removed and re-keyed in O(log n) instead of being left behind as stale entries.
+ */
+public class HeapEventQueue implements EventQueue {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private CollisionEvent[] heap;
+	private int size;
+
+	public HeapEventQueue() {
+		heap = new CollisionEvent[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	@Override
+	public void add(CollisionEvent event) {
+		if (size == heap.length)
+			heap = Arrays.copyOf(heap, heap.length * 2);
+		heap[size] = event;
+		event.queueIndex = size;
+		siftUp(size++);
+	}
+
+	/**
+	 * Appends the events and restores the heap bottom-up in O(n + count) time when that is
+	 * cheaper than sifting every event up on its own.
+	 */
+	@Override
+	public void addAll(CollisionEvent[] events, int count) {
+		if (count < size) {
+			EventQueue.super.addAll(events, count);
+			return;
+		}
+		if (size + count > heap.length)
+			heap = Arrays.copyOf(heap, Math.max(heap.length * 2, size + count));
+		for (int i = 0; i < count; i++) {
+			heap[size] = events[i];
+			events[i].queueIndex = size++;
+		}
+		for (int i = (size >>> 1) - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+	}
+
+	@Override
+	public CollisionEvent poll() {
+		if (size == 0)
+			return null;
+		CollisionEvent first = heap[0];
+		removeAt(0);
+		return first;
+	}
+
+	@Override
+	public CollisionEvent peek() {
+		return (size == 0) ? null : heap[0];
+	}
+
+	@Override
+	public boolean remove(CollisionEvent event) {
+		int index = event.queueIndex;
+		if (index < 0 || index >= size || heap[index] != event)
+			return false;
+		removeAt(index);
+		return true;
+	}
+
+	@Override
+	public void update(CollisionEvent event) {
+		int index = event.queueIndex;
+		if (index < 0 || index >= size || heap[index] != event)
+			throw new IllegalArgumentException("The event is not in this queue");
+		siftDown(siftUp(index));
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void forEach(Consumer<CollisionEvent> action) {
+		for (int i = 0; i < size; i++) {
+			action.accept(heap[i]);
+		}
+	}
+
+	@Override
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			heap[i].queueIndex = -1;
+			heap[i] = null;
+		}
+		size = 0;
+	}
+
+	private void removeAt(int index) {
+		heap[index].queueIndex = -1;
+		size--;
+		if (index != size) {
+			heap[index] = heap[size];
+			heap[index].queueIndex = index;
+			heap[size] = null;
+			siftDown(siftUp(index));
+		} else {
+			heap[size] = null;
+		}
+	}
+
+	private int siftUp(int index) {
+		CollisionEvent event = heap[index];
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (heap[parent].compareTo(event) <= 0)
+				break;
+			heap[index] = heap[parent];
+			heap[index].queueIndex = index;
+			index = parent;
+		}
+		heap[index] = event;
+		event.queueIndex = index;
+		return index;
+	}
+
+	private int siftDown(int index) {
+		CollisionEvent event = heap[index];
+		int half = size >>> 1;
+		while (index < half) {
+			int child = 2 * index + 1;
+			if (child + 1 < size && heap[child + 1].compareTo(heap[child]) < 0)
+				child++;
+			if (event.compareTo(heap[child]) <= 0)
+				break;
+			heap[index] = heap[child];
+			heap[index].queueIndex = index;
+			index = child;
+		}
+		heap[index] = event;
+		event.queueIndex = index;
+		return index;
+	}
+}
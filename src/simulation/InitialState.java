@@ -0,0 +1,280 @@
+package simulation;
+
+import java.util.SplittableRandom;
+
+/**
+ * Creates the particles a simulation starts from. The light atoms come first, then the
+ * heavy ones. Except for {@link Placement#CENTRE} no two particles overlap and the
+ * velocities of every species follow the Maxwell-Boltzmann distribution of one common
+ * temperature, so the run starts out close to equilibrium.
+ */
+public final class InitialState {
+
+	// How often random sequential addition tries to place a particle before it gives up.
+	private static final int MAX_ATTEMPTS = 1000;
+	// How much the lattice spacing shrinks per step while the sites do not fit.
+	private static final float SPACING_STEP = 0.99f;
+
+	private InitialState() {
+	}
+
+	public enum Placement {
+		/**
+		 * Every particle at the centre of the box with a uniformly distributed speed up
+		 * to its maximum start speed, the start of the first versions. The overlapping
+		 * particles burst apart in a storm of collisions.
+		 */
+		CENTRE,
+		/**
+		 * Random sequential addition, the heavy atoms first. Falls back to the hexagonal
+		 * lattice when the box is too full to place a particle at random.
+		 */
+		RANDOM,
+		SQUARE_LATTICE,
+		HEXAGONAL_LATTICE;
+	}
+
+	/**
+	 * Creates the particles of {@code config}, drawing every random number from
+	 * {@code random}.
+	 *
+	 * @throws IllegalArgumentException if the particles do not fit into the box
+	 */
+	public static ParticleStore create(SimulationConfig config, SplittableRandom random) {
+		return create(config, random, null);
+	}
+
+	/**
+	 * Creates the particles of {@code config} into {@code reuse} instead of a new store
+	 * if it is not {@code null} and has room for them.
+	 *
+	 * @throws IllegalArgumentException if the particles do not fit into the box, in which
+	 *                                  case {@code reuse} is left as it was
+	 */
+	public static ParticleStore create(SimulationConfig config, SplittableRandom random, ParticleStore reuse) {
+		int nLight = config.getLightAtoms();
+		int n = nLight + config.getHeavyAtoms();
+		float[] x = null, y = null;
+		if (config.getPlacement() != Placement.CENTRE) {
+			x = new float[n];
+			y = new float[n];
+			boolean placed = false;
+			if (config.getPlacement() == Placement.RANDOM)
+				placed = placeRandomly(config, random, x, y);
+			if (!placed)
+				placeOnLattice(config, random, config.getPlacement() == Placement.SQUARE_LATTICE, x, y);
+		}
+
+		ParticleStore particles;
+		if (reuse != null && reuse.capacity() >= n) {
+			particles = reuse;
+			particles.clear();
+		} else {
+			particles = new ParticleStore(n);
+		}
+		if (config.getPlacement() == Placement.CENTRE) {
+			for (int i = 0; i < n; i++) {
+				boolean light = i < nLight;
+				float maxVel = light ? config.getLightMaxStartVel() * 1.5f : config.getHeavyMaxStartVel();
+				double angle = random.nextDouble() * 2 * Math.PI;
+				float vel = (float) random.nextDouble() * maxVel;
+				particles.add(config.getWidth() / 2, config.getHeight() / 2, vel * (float) Math.cos(angle),
+						vel * (float) Math.sin(angle), mass(config, i), radius(config, i));
+			}
+			return particles;
+		}
+
+		// One temperature for all species with the mean kinetic energy of the uniformly
+		// distributed speeds of CENTRE, m v^2 / 6 for a maximum speed v.
+		double energy = 0;
+		for (int i = 0; i < n; i++) {
+			float maxVel = i < nLight ? config.getLightMaxStartVel() * 1.5f : config.getHeavyMaxStartVel();
+			energy += mass(config, i) * maxVel * maxVel / 6.0;
+		}
+		double temperature = n == 0 ? 0 : energy / n;
+		for (int i = 0; i < n; i++) {
+			int mass = mass(config, i);
+			double sigma = Math.sqrt(temperature / mass);
+			// Box-Muller, which gives both components from two uniform numbers.
+			double r = Math.sqrt(-2 * Math.log(1 - random.nextDouble()));
+			double angle = random.nextDouble() * 2 * Math.PI;
+			particles.add(x[i], y[i], (float) (sigma * r * Math.cos(angle)), (float) (sigma * r * Math.sin(angle)),
+					mass, radius(config, i));
+		}
+		return particles;
+	}
+
+	/**
+	 * Places the particles one after the other at random spots that overlap neither a
+	 * wall nor a particle placed before, the heavy atoms first.
+	 *
+	 * @return {@code false} if a particle could not be placed
+	 */
+	private static boolean placeRandomly(SimulationConfig config, SplittableRandom random, float[] x, float[] y) {
+		int nLight = config.getLightAtoms();
+		Placer placer = new Placer(config);
+		for (int i = nLight; i < x.length; i++) {
+			if (!placer.placeRandomly(i, random))
+				return false;
+		}
+		for (int i = 0; i < nLight; i++) {
+			if (!placer.placeRandomly(i, random))
+				return false;
+		}
+		placer.copyTo(x, y);
+		return true;
+	}
+
+	/**
+	 * Places the particles on random sites of the widest square or hexagonal lattice
+	 * that has enough sites, centred in the box. When the species differ in size the
+	 * lattice is spaced for the smaller one, and the larger one is placed at random first
+	 * with the sites it covers left empty.
+	 *
+	 * @throws IllegalArgumentException if the particles do not fit
+	 */
+	private static void placeOnLattice(SimulationConfig config, SplittableRandom random, boolean square, float[] x,
+			float[] y) {
+		int n = x.length;
+		int nLight = config.getLightAtoms();
+		int lightRadius = config.getLightRadius();
+		int heavyRadius = config.getHeavyRadius();
+		// The atoms of the larger species, if the sizes differ, go at random first.
+		int freeFrom = 0, freeTo = 0;
+		if (heavyRadius > lightRadius) {
+			freeFrom = nLight;
+			freeTo = n;
+		} else if (lightRadius > heavyRadius) {
+			freeTo = nLight;
+		}
+		int latticeCount = n - (freeTo - freeFrom);
+		int radius = Math.min(lightRadius, heavyRadius);
+		float width = config.getWidth() - 2 * radius;
+		float height = config.getHeight() - 2 * radius;
+		float rowFactor = square ? 1 : (float) Math.sqrt(3) / 2;
+		float spacing = (float) Math.sqrt(config.getWidth() * config.getHeight() / (rowFactor * Math.max(latticeCount, 1)));
+		Placer placer = new Placer(config);
+		int[] order = new int[0];
+		while (true) {
+			if (spacing < 2 * radius || width < 0 || height < 0)
+				throw new IllegalArgumentException(n + " particles do not fit into a " + config.getWidth() + " x "
+						+ config.getHeight() + " box");
+			placer.clear();
+			boolean placed = true;
+			for (int i = freeFrom; i < freeTo && placed; i++) {
+				placed = placer.placeRandomly(i, random);
+			}
+			// Odd rows of the hexagonal lattice are shifted by half the spacing.
+			int columns = (int) ((width - (square ? 0 : spacing / 2)) / spacing) + 1;
+			int rows = (int) (height / (spacing * rowFactor)) + 1;
+			float left = radius + (width - ((columns - 1) * spacing + (square || rows < 2 ? 0 : spacing / 2))) / 2;
+			float top = radius + (height - (rows - 1) * spacing * rowFactor) / 2;
+			// The sites in random order, so the empty ones and the species are spread evenly.
+			int sites = columns * rows;
+			if (order.length < sites)
+				order = new int[sites];
+			for (int site = 0; site < sites; site++) {
+				order[site] = site;
+			}
+			int next = 0;
+			for (int i = 0; i < n && placed; i++) {
+				if (i >= freeFrom && i < freeTo)
+					continue;
+				placed = false;
+				while (!placed && next < sites) {
+					int s = next + random.nextInt(sites - next);
+					int site = order[s];
+					order[s] = order[next];
+					order[next++] = site;
+					int row = site / columns;
+					float px = left + (site % columns) * spacing + (square || row % 2 == 0 ? 0 : spacing / 2);
+					float py = top + row * spacing * rowFactor;
+					placed = placer.place(i, px, py);
+				}
+			}
+			if (placed) {
+				placer.copyTo(x, y);
+				return;
+			}
+			spacing *= SPACING_STEP;
+		}
+	}
+
+	private static int mass(SimulationConfig config, int i) {
+		return i < config.getLightAtoms() ? config.getLightMass() : config.getHeavyMass();
+	}
+
+	private static int radius(SimulationConfig config, int i) {
+		return i < config.getLightAtoms() ? config.getLightRadius() : config.getHeavyRadius();
+	}
+
+	/**
+	 * The particles placed so far, in a cell grid to find the ones a new particle would
+	 * overlap.
+	 */
+	private static class Placer {
+		private final SimulationConfig config;
+		// The grid needs particles to look up positions, so they are kept in the order
+		// they are placed along with their index.
+		private final ParticleStore placed;
+		private final int[] index;
+		private final CellGrid grid;
+		private final int[] neighbours = new int[9];
+
+		Placer(SimulationConfig config) {
+			this.config = config;
+			int n = config.getLightAtoms() + config.getHeavyAtoms();
+			placed = new ParticleStore(n);
+			index = new int[n];
+			int maxRadius = Math.max(1, Math.max(config.getLightRadius(), config.getHeavyRadius()));
+			grid = new CellGrid(config.getWidth(), config.getHeight(), 2 * maxRadius, n);
+		}
+
+		void clear() {
+			placed.clear();
+			grid.clear();
+		}
+
+		boolean placeRandomly(int i, SplittableRandom random) {
+			int radius = radius(config, i);
+			float width = config.getWidth() - 2 * radius;
+			float height = config.getHeight() - 2 * radius;
+			if (width < 0 || height < 0)
+				return false;
+			for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+				if (place(i, radius + (float) random.nextDouble() * width, radius + (float) random.nextDouble() * height))
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Places particle {@code i} at {@code x}, {@code y} unless it would overlap one
+		 * placed before.
+		 */
+		boolean place(int i, float x, float y) {
+			int radius = radius(config, i);
+			int cells = grid.getNeighbourCells(grid.getCell(x, y), -1, neighbours);
+			for (int c = 0; c < cells; c++) {
+				for (int j = grid.getFirst(neighbours[c]); j >= 0; j = grid.getNext(j)) {
+					float dx = placed.getX(j, 0) - x;
+					float dy = placed.getY(j, 0) - y;
+					float distance = radius + placed.getRadius(j);
+					if (dx * dx + dy * dy < distance * distance)
+						return false;
+				}
+			}
+			int k = placed.add(x, y, 0, 0, 1, radius);
+			index[k] = i;
+			grid.insert(k, placed);
+			return true;
+		}
+
+		void copyTo(float[] x, float[] y) {
+			for (int k = 0; k < placed.size(); k++) {
+				x[index[k]] = placed.getX(k, 0);
+				y[index[k]] = placed.getY(k, 0);
+			}
+		}
+	}
+}
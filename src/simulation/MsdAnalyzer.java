@@ -0,0 +1,293 @@
+package simulation;
+
+import java.util.concurrent.locks.LockSupport;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Measures the mean squared displacement of a range of particles, usually the heavy
+ * ones, on its own thread while the simulation runs. The simulation thread hands every
+ * event to {@link #offer}, which passes on only the states of the measured particles
+ * through a ring of its own, so the analysis never holds up the renderer.
+ * <p>
+ * The positions are sampled every {@code interval} of simulated time into a multi-tau
+ * correlator: level {@code l} keeps the last {@value #POINTS} samples taken every
+ * {@code 2^l} intervals, and the lags of each level start where the level below ends.
+ * That gives logarithmically spaced lags up to {@code POINTS * 2^LEVELS} intervals in
+ * constant memory per particle. Every sample is kept as it is rather than averaged, so
+ * the displacements are exact. Sampling starts at the latest reference time of the
+ * particles given, which is the time the state is from.
+ */
+public class MsdAnalyzer extends Thread {
+
+	private static final int POINTS = 16;
+	private static final int LEVELS = 24;
+	private static final int RING_CAPACITY = 1 << 14;
+	private static final long PARK_NANOS = 100_000;
+	// The largest growth exponent of the displacement with the lag still taken as diffusive.
+	private static final double MAX_DIFFUSIVE_EXPONENT = 1.25;
+
+	private final DiffRingBuffer ring;
+	private final ParticleStore particles;
+	private final int first, last;
+	private final float interval;
+	private final float startTime;
+	// The root mean squared displacement above which the walls hold the particles back,
+	// see getDiffusionCoefficient().
+	private final float maxDisplacement;
+	private volatile boolean running;
+
+	// Producer side, the time the last diff without a measured particle was passed on.
+	private float forwardTime;
+
+	// The samples of every particle and level, particle major.
+	private final float[] sampleX, sampleY;
+	// How many samples each level has taken.
+	private final long[] levelSamples = new long[LEVELS];
+	private long samples;
+	// The summed squared displacements of all particles and how many samples were summed,
+	// for lag j of level l at l * POINTS + j.
+	private final double[] sums = new double[LEVELS * POINTS];
+	private final long[] counts = new long[LEVELS * POINTS];
+
+	/**
+	 * Measures particles {@code first} to {@code last} (exclusive) of {@code particles},
+	 * which must be the state the events offered start from.
+	 */
+	public MsdAnalyzer(ParticleStore particles, int first, int last, float interval, int width, int height) {
+		this(particles, first, last, interval, width, height, new DiffRingBuffer(RING_CAPACITY));
+	}
+
+	/**
+	 * Like the other constructor, but takes the events through {@code ring}, which must be
+	 * empty, such as the {@link #getRing() ring} of an analyzer that has finished.
+	 */
+	public MsdAnalyzer(ParticleStore particles, int first, int last, float interval, int width, int height,
+			DiffRingBuffer ring) {
+		super("MSD Analyzer");
+		this.ring = ring;
+		setDaemon(true);
+		this.particles = particles.copy();
+		this.first = first;
+		this.last = last;
+		this.interval = interval;
+		float time = 0;
+		for (int i = 0; i < particles.size(); i++) {
+			time = Math.max(time, particles.getRefTime(i));
+		}
+		startTime = time;
+		forwardTime = time;
+		maxDisplacement = Math.min(width, height) / 4f;
+		int n = Math.max(last - first, 0);
+		sampleX = new float[n * LEVELS * POINTS];
+		sampleY = new float[n * LEVELS * POINTS];
+	}
+
+	@Override
+	public void start() {
+		running = true;
+		super.start();
+	}
+
+	/**
+	 * Stops the analysis once the events offered so far have been taken in.
+	 */
+	public void terminate() {
+		running = false;
+	}
+
+	/**
+	 * The ring the events are handed over through, for the next analyzer once this one
+	 * has finished.
+	 */
+	public DiffRingBuffer getRing() {
+		return ring;
+	}
+
+	public float getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Simulation thread. Passes on the measured particles changed by {@code diff}, and
+	 * the time once per interval, so that the samples keep up when they rarely change.
+	 * Waits only when the analysis is a whole ring behind.
+	 */
+	public void offer(SimulationDiffrence diff) throws InterruptedException {
+		int measured = 0;
+		for (int i = 0; i < diff.count; i++) {
+			if (diff.ids[i] >= first && diff.ids[i] < last)
+				measured++;
+		}
+		if (measured == 0 && diff.time < forwardTime + interval)
+			return;
+		forwardTime = diff.time;
+		SimulationDiffrence copy = ring.claim();
+		copy.time = diff.time;
+		copy.count = 0;
+		for (int i = 0; i < diff.count; i++) {
+			int id = diff.ids[i];
+			if (id < first || id >= last)
+				continue;
+			copy.ids[copy.count] = id;
+			copy.x[copy.count] = diff.x[i];
+			copy.y[copy.count] = diff.y[i];
+			copy.vx[copy.count] = diff.vx[i];
+			copy.vy[copy.count] = diff.vy[i];
+			copy.count++;
+		}
+		ring.publish();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			SimulationDiffrence diff = ring.peek();
+			if (diff == null) {
+				if (!running)
+					return;
+				LockSupport.parkNanos(PARK_NANOS);
+				continue;
+			}
+			process(diff);
+			ring.release();
+		}
+	}
+
+	/**
+	 * Takes in {@code diff} on the calling thread, for an analyzer that is fed directly
+	 * rather than started.
+	 */
+	public void process(SimulationDiffrence diff) {
+		// Every event before a sample time has been applied once a later one arrives.
+		while (startTime + samples * interval < diff.time) {
+			sample(startTime + samples * interval);
+		}
+		diff.applyTo(particles);
+	}
+
+	private synchronized void sample(float time) {
+		for (int level = 0; level < LEVELS; level++) {
+			if ((samples & ((1L << level) - 1)) != 0)
+				break;
+			long taken = levelSamples[level];
+			int slot = (int) (taken % POINTS);
+			int minLag = level == 0 ? 1 : POINTS / 2;
+			int maxLag = (int) Math.min(taken, POINTS - 1);
+			for (int p = first; p < last; p++) {
+				int base = ((p - first) * LEVELS + level) * POINTS;
+				float x = particles.getX(p, time);
+				float y = particles.getY(p, time);
+				for (int lag = minLag; lag <= maxLag; lag++) {
+					int other = base + (slot - lag + POINTS) % POINTS;
+					float dx = x - sampleX[other];
+					float dy = y - sampleY[other];
+					sums[level * POINTS + lag] += dx * dx + dy * dy;
+				}
+				sampleX[base + slot] = x;
+				sampleY[base + slot] = y;
+			}
+			for (int lag = minLag; lag <= maxLag; lag++) {
+				counts[level * POINTS + lag] += last - first;
+			}
+			levelSamples[level] = taken + 1;
+		}
+		samples++;
+	}
+
+	/**
+	 * The simulated time covered by the samples so far.
+	 */
+	public synchronized float getSampledTime() {
+		return Math.max(samples - 1, 0) * interval;
+	}
+
+	/**
+	 * The lags the displacement has been measured for so far, in increasing order.
+	 */
+	public synchronized float[] getLags() {
+		float[] lags = new float[lagCount()];
+		int i = 0;
+		for (int index = 0; index < sums.length; index++) {
+			if (counts[index] > 0)
+				lags[i++] = lag(index);
+		}
+		return lags;
+	}
+
+	/**
+	 * The mean squared displacement at each lag of {@link #getLags()}.
+	 */
+	public synchronized double[] getMeanSquaredDisplacements() {
+		double[] msd = new double[lagCount()];
+		int i = 0;
+		for (int index = 0; index < sums.length; index++) {
+			if (counts[index] > 0)
+				msd[i++] = sums[index] / counts[index];
+		}
+		return msd;
+	}
+
+	/**
+	 * The diffusion coefficient D of MSD = 4 D t in two dimensions, the slope of a least
+	 * squares line through the lags where the motion is diffusive: short lags are still
+	 * ballistic, with the displacement growing faster than linearly, and long ones are
+	 * held back by the walls. So the fit runs back from the last lag whose root mean
+	 * squared displacement is within a quarter of the box for as long as the displacement
+	 * grows close to linearly.
+	 *
+	 * @return the estimate, or {@code NaN} while no two lags are diffusive
+	 */
+	public synchronized double getDiffusionCoefficient() {
+		float[] lags = getLags();
+		double[] msd = getMeanSquaredDisplacements();
+		int end = 0;
+		while (end < lags.length && msd[end] <= (double) maxDisplacement * maxDisplacement) {
+			end++;
+		}
+		int start = end - 1;
+		while (start > 0 && msd[start - 1] > 0
+				&& Math.log(msd[start] / msd[start - 1]) <= MAX_DIFFUSIVE_EXPONENT * Math.log(lags[start] / lags[start - 1])) {
+			start--;
+		}
+		if (end - start < 2)
+			return Double.NaN;
+		return getDiffusionCoefficient(lags[start], lags[end - 1]);
+	}
+
+	/**
+	 * The diffusion coefficient fitted to the lags from {@code minLag} to {@code maxLag}.
+	 */
+	public synchronized double getDiffusionCoefficient(float minLag, float maxLag) {
+		float[] lags = getLags();
+		double[] msd = getMeanSquaredDisplacements();
+		int n = 0;
+		double sumT = 0, sumM = 0, sumTT = 0, sumTM = 0;
+		for (int i = 0; i < lags.length; i++) {
+			if (lags[i] < minLag || lags[i] > maxLag)
+				continue;
+			n++;
+			sumT += lags[i];
+			sumM += msd[i];
+			sumTT += (double) lags[i] * lags[i];
+			sumTM += lags[i] * msd[i];
+		}
+		double det = n * sumTT - sumT * sumT;
+		if (n < 2 || det == 0)
+			return Double.NaN;
+		return (n * sumTM - sumT * sumM) / det / 4;
+	}
+
+	private int lagCount() {
+		int n = 0;
+		for (long count : counts) {
+			if (count > 0)
+				n++;
+		}
+		return n;
+	}
+
+	private float lag(int index) {
+		return (index % POINTS) * (float) (1L << (index / POINTS)) * interval;
+	}
+}
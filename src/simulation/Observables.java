@@ -0,0 +1,201 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * Running totals over all particles that are kept up to date as events are applied, in
+ * constant time per changed particle instead of a pass over all particles per frame.
+ * More quantities are added with {@link #register}. Every few events per particle the
+ * totals are recomputed from scratch, so rounding errors cannot pile up.
+ */
+public class Observables {
+
+	/**
+	 * A quantity that is a sum over the particles.
+	 */
+	public interface Quantity {
+
+		/**
+		 * Recomputes the quantity from all particles.
+		 */
+		public void reset(ParticleStore particles);
+
+		/**
+		 * Takes out the contribution of particle {@code i}, which is about to change.
+		 */
+		public void remove(ParticleStore particles, int i);
+
+		/**
+		 * Adds the contribution of particle {@code i}, which has just changed.
+		 */
+		public void add(ParticleStore particles, int i);
+	}
+
+	private static final int RESYNC_EVENTS_PER_PARTICLE = 16;
+
+	private Quantity[] quantities = new Quantity[0];
+	private ParticleStore particles;
+	private long changes;
+
+	/**
+	 * Adds {@code quantity}, which is computed from the current particles right away.
+	 */
+	public <T extends Quantity> T register(T quantity) {
+		quantities = Arrays.copyOf(quantities, quantities.length + 1);
+		quantities[quantities.length - 1] = quantity;
+		if (particles != null)
+			quantity.reset(particles);
+		return quantity;
+	}
+
+	/**
+	 * Recomputes every quantity from {@code particles}, which all later changes apply to.
+	 */
+	public void reset(ParticleStore particles) {
+		this.particles = particles;
+		for (Quantity quantity : quantities) {
+			quantity.reset(particles);
+		}
+		changes = 0;
+	}
+
+	public void beforeChange(int i) {
+		for (Quantity quantity : quantities) {
+			quantity.remove(particles, i);
+		}
+	}
+
+	public void afterChange(int i) {
+		for (Quantity quantity : quantities) {
+			quantity.add(particles, i);
+		}
+		if (++changes > (long) RESYNC_EVENTS_PER_PARTICLE * particles.size())
+			reset(particles);
+	}
+
+	/**
+	 * The total kinetic energy.
+	 */
+	public static class KineticEnergy implements Quantity {
+		private double energy;
+
+		public double get() {
+			return energy;
+		}
+
+		@Override
+		public void reset(ParticleStore particles) {
+			energy = 0;
+			for (int i = 0; i < particles.size(); i++) {
+				add(particles, i);
+			}
+		}
+
+		@Override
+		public void remove(ParticleStore particles, int i) {
+			energy -= energy(particles, i);
+		}
+
+		@Override
+		public void add(ParticleStore particles, int i) {
+			energy += energy(particles, i);
+		}
+	}
+
+	/**
+	 * The total momentum.
+	 */
+	public static class Momentum implements Quantity {
+		private double x, y;
+
+		public double getX() {
+			return x;
+		}
+
+		public double getY() {
+			return y;
+		}
+
+		@Override
+		public void reset(ParticleStore particles) {
+			x = 0;
+			y = 0;
+			for (int i = 0; i < particles.size(); i++) {
+				add(particles, i);
+			}
+		}
+
+		@Override
+		public void remove(ParticleStore particles, int i) {
+			x -= particles.getMass(i) * particles.getVelX(i);
+			y -= particles.getMass(i) * particles.getVelY(i);
+		}
+
+		@Override
+		public void add(ParticleStore particles, int i) {
+			x += particles.getMass(i) * particles.getVelX(i);
+			y += particles.getMass(i) * particles.getVelY(i);
+		}
+	}
+
+	/**
+	 * The temperature of every species, the particles of one mass. In two dimensions
+	 * with {@code k = 1} it is the mean kinetic energy of the species.
+	 */
+	public static class Temperature implements Quantity {
+		private int[] masses = new int[0];
+		private int[] counts = new int[0];
+		private double[] energies = new double[0];
+		private int[] species = new int[0];
+
+		/**
+		 * The number of species, which are numbered from the lightest.
+		 */
+		public int getSpeciesCount() {
+			return masses.length;
+		}
+
+		public int getMass(int species) {
+			return masses[species];
+		}
+
+		public double get(int species) {
+			return counts[species] == 0 ? 0 : energies[species] / counts[species];
+		}
+
+		@Override
+		public void reset(ParticleStore particles) {
+			int n = particles.size();
+			masses = new int[n];
+			for (int i = 0; i < n; i++) {
+				masses[i] = particles.getMass(i);
+			}
+			masses = Arrays.stream(masses).distinct().sorted().toArray();
+			counts = new int[masses.length];
+			energies = new double[masses.length];
+			if (species.length < n)
+				species = new int[n];
+			for (int i = 0; i < n; i++) {
+				species[i] = Arrays.binarySearch(masses, particles.getMass(i));
+				counts[species[i]]++;
+				add(particles, i);
+			}
+		}
+
+		@Override
+		public void remove(ParticleStore particles, int i) {
+			energies[species[i]] -= energy(particles, i);
+		}
+
+		@Override
+		public void add(ParticleStore particles, int i) {
+			energies[species[i]] += energy(particles, i);
+		}
+	}
+
+	private static double energy(ParticleStore particles, int i) {
+		double vx = particles.getVelX(i);
+		double vy = particles.getVelY(i);
+		return 0.5 * particles.getMass(i) * (vx * vx + vy * vy);
+	}
+}
@@ -0,0 +1,290 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * The state of every particle kept in parallel primitive arrays and addressed by index.
+ * A particle moves in a straight line from {@code (x, y)} at {@code refTime} with velocity
+ * {@code (vx, vy)} until its next collision. None of the methods allocate.
+ */
+public class ParticleStore {
+
+	private float[] x, y;
+	private float[] vx, vy;
+	private float[] refTime;
+	private int[] mass;
+	private int[] radius;
+	private int[] collisions;
+	private int size;
+
+	public ParticleStore(int capacity) {
+		x = new float[capacity];
+		y = new float[capacity];
+		vx = new float[capacity];
+		vy = new float[capacity];
+		refTime = new float[capacity];
+		mass = new int[capacity];
+		radius = new int[capacity];
+		collisions = new int[capacity];
+		size = 0;
+	}
+
+	/**
+	 * Adds a particle with reference time 0 and returns its index.
+	 */
+	public int add(float x, float y, float vx, float vy, int mass, int radius) {
+		int i = size++;
+		this.x[i] = x;
+		this.y[i] = y;
+		this.vx[i] = vx;
+		this.vy[i] = vy;
+		this.mass[i] = mass;
+		this.radius[i] = radius;
+		refTime[i] = 0;
+		collisions[i] = 0;
+		return i;
+	}
+
+	public int capacity() {
+		return x.length;
+	}
+
+	/**
+	 * Removes every particle, keeping the storage for the next ones.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public float getX(int i, float time) {
+		return x[i] + vx[i] * (time - refTime[i]);
+	}
+
+	public float getY(int i, float time) {
+		return y[i] + vy[i] * (time - refTime[i]);
+	}
+
+	public float getVelX(int i) {
+		return vx[i];
+	}
+
+	public float getVelY(int i) {
+		return vy[i];
+	}
+
+	public float getRefTime(int i) {
+		return refTime[i];
+	}
+
+	public int getMass(int i) {
+		return mass[i];
+	}
+
+	public int getRadius(int i) {
+		return radius[i];
+	}
+
+	/**
+	 * The number of times the trajectory of the particle has changed.
+	 */
+	public int getCollisionCount(int i) {
+		return collisions[i];
+	}
+
+	/**
+	 * Sets the number of times the trajectory of the particle has changed, for a state
+	 * restored from a {@link Checkpoint}.
+	 */
+	public void setCollisionCount(int i, int count) {
+		collisions[i] = count;
+	}
+
+	/**
+	 * Overwrites the trajectory of a particle, for example with one received in a
+	 * {@link Simulation.SimulationDiffrence}.
+	 */
+	public void setState(int i, float x, float y, float vx, float vy, float refTime) {
+		this.x[i] = x;
+		this.y[i] = y;
+		this.vx[i] = vx;
+		this.vy[i] = vy;
+		this.refTime[i] = refTime;
+	}
+
+	/**
+	 * Counts a change of trajectory that did not come from a collision, so that every
+	 * event predicted for the particle becomes inactive.
+	 */
+	public void invalidate(int i) {
+		collisions[i]++;
+	}
+
+	/**
+	 * Moves the reference point of the particle to where it is at {@code time}.
+	 */
+	public void moveTo(int i, float time) {
+		x[i] = getX(i, time);
+		y[i] = getY(i, time);
+		refTime[i] = time;
+	}
+
+	public float getColitionTime(int i, int j) {
+		float commonRefTime = Math.max(refTime[i], refTime[j]);
+		float diffTime = refTime[j] - refTime[i];
+
+		float dx = x[i] - x[j];
+		float dy = y[i] - y[j];
+		if (diffTime > 0) {
+			dx += vx[i] * diffTime;
+			dy += vy[i] * diffTime;
+		} else {
+			dx += vx[j] * diffTime;
+			dy += vy[j] * diffTime;
+		}
+
+		float dvx = vx[i] - vx[j];
+		float dvy = vy[i] - vy[j];
+		float b = dx * dvx + dy * dvy;
+		float collisionDist = radius[i] + radius[j];
+		float c = dx * dx + dy * dy - collisionDist * collisionDist;
+		float a = dvx * dvx + dvy * dvy;
+
+		float discriminant = b * b - a * c;
+
+		if (discriminant > 0 && b < 0) {
+			float sqrtDisc = (float) Math.sqrt(discriminant);
+			float colTime = (-b - sqrtDisc) / a;
+
+			if (colTime >= 0)
+				return commonRefTime + colTime;
+		}
+		return Float.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Predicts when particle {@code i} hits a wall and stores the result in
+	 * {@code result}, which is returned.
+	 */
+	public WallCollision getWallCollisionTime(int i, int width, int height, WallCollision result) {
+		float xCollisionTime = Float.POSITIVE_INFINITY;
+		float yCollisionTime = Float.POSITIVE_INFINITY;
+		Wall xWall = null;
+		Wall yWall = null;
+		if (vx[i] > 0) {
+			xCollisionTime = (width - radius[i] - x[i])/vx[i];
+			xWall = Wall.RIGHT;
+		} else if (vx[i] < 0) {
+			xCollisionTime = (radius[i] - x[i])/vx[i];
+			xWall = Wall.LEFT;
+		}
+
+		if (vy[i] > 0) {
+			yCollisionTime = (height - radius[i] - y[i])/vy[i];
+			yWall = Wall.BOTTOM;
+		} else if (vy[i] < 0) {
+			yCollisionTime = (radius[i] - y[i])/vy[i];
+			yWall = Wall.TOP;
+		}
+
+		result.time = Math.min(xCollisionTime, yCollisionTime) + refTime[i];
+		result.wall = (xCollisionTime < yCollisionTime) ? xWall : yWall;
+		return result;
+	}
+
+	/**
+	 * Elastic collision between particles {@code i} and {@code j}, which must both have
+	 * been moved to {@code time}.
+	 */
+	public void collide(int i, int j, float time) {
+		float nx = x[j] - x[i];
+		float ny = y[j] - y[i];
+		float length = (float) Math.sqrt(nx * nx + ny * ny);
+		if (length != 0 && length != 1) {
+			nx /= length;
+			ny /= length;
+		}
+
+		float u1 = vx[i] * nx + vy[i] * ny;
+		float u2 = vx[j] * nx + vy[j] * ny;
+
+		float v1 = (u1 * (mass[i] - mass[j]) + 2 * mass[j] * u2)/(mass[i] + mass[j]);
+		float v2 = (u2 * (mass[j] - mass[i]) + 2 * mass[i] * u1) / (mass[i] + mass[j]);
+
+		vx[i] += nx * (v1 - u1);
+		vy[i] += ny * (v1 - u1);
+		vx[j] += nx * (v2 - u2);
+		vy[j] += ny * (v2 - u2);
+
+		refTime[i] = time;
+		refTime[j] = time;
+		collisions[i]++;
+		collisions[j]++;
+	}
+
+	public void collideWall(int i, Wall wall, float time) {
+		switch (wall) {
+		case BOTTOM:
+		case TOP:
+			vy[i] *= -1;
+			break;
+		case RIGHT:
+		case LEFT:
+			vx[i] *= -1;
+			break;
+		}
+
+		refTime[i] = time;
+		collisions[i]++;
+	}
+
+	/**
+	 * Copies the particles into {@code target} if it has room for them, else into a new
+	 * store, and returns the copy.
+	 */
+	public ParticleStore copyInto(ParticleStore target) {
+		if (target == null || target.capacity() < size)
+			return copy();
+		System.arraycopy(x, 0, target.x, 0, size);
+		System.arraycopy(y, 0, target.y, 0, size);
+		System.arraycopy(vx, 0, target.vx, 0, size);
+		System.arraycopy(vy, 0, target.vy, 0, size);
+		System.arraycopy(refTime, 0, target.refTime, 0, size);
+		System.arraycopy(mass, 0, target.mass, 0, size);
+		System.arraycopy(radius, 0, target.radius, 0, size);
+		System.arraycopy(collisions, 0, target.collisions, 0, size);
+		target.size = size;
+		return target;
+	}
+
+	public ParticleStore copy() {
+		ParticleStore copy = new ParticleStore(0);
+		copy.x = Arrays.copyOf(x, size);
+		copy.y = Arrays.copyOf(y, size);
+		copy.vx = Arrays.copyOf(vx, size);
+		copy.vy = Arrays.copyOf(vy, size);
+		copy.refTime = Arrays.copyOf(refTime, size);
+		copy.mass = Arrays.copyOf(mass, size);
+		copy.radius = Arrays.copyOf(radius, size);
+		copy.collisions = Arrays.copyOf(collisions, size);
+		copy.size = size;
+		return copy;
+	}
+
+	public static class WallCollision {
+		public float time;
+		public Wall wall;
+
+		public WallCollision(float time, Wall wall) {
+			this.time = time;
+			this.wall = wall;
+		}
+	}
+
+	public enum Wall {
+		TOP, BOTTOM, LEFT, RIGHT;
+	}
+}
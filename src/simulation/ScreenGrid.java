@@ -0,0 +1,157 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * The particles as drawn in the last frame, bucketed by their position on the screen.
+ * The draw pass adds every particle it draws between {@link #begin} and {@link #end},
+ * and picking, hovering and box selection then only look at the cells under the mouse.
+ * The arrays are reused from frame to frame and only grow.
+ */
+public class ScreenGrid {
+
+	private static final int MIN_CELL_SIZE = 8;
+
+	private ParticleStore particles;
+	private float cellSize;
+	private int columns, rows;
+	private int maxRadius;
+	// The drawn position of every particle, only valid for the particles added.
+	private float[] x = new float[0], y = new float[0];
+	// The added particles and their cells in the order they were added.
+	private int[] added = new int[0], addedCells = new int[0];
+	private int count;
+	// The particles sorted by cell, the ones of cell c are at cellStart[c] to cellStart[c + 1].
+	private int[] sorted = new int[0];
+	private int[] cellStart = new int[1];
+	private int[] cursor = new int[0];
+
+	/**
+	 * Starts a new frame of {@code width} x {@code height} pixels, in which some of
+	 * {@code particles} are drawn.
+	 */
+	public void begin(int width, int height, ParticleStore particles) {
+		this.particles = particles;
+		maxRadius = 1;
+		for (int i = 0; i < particles.size(); i++) {
+			maxRadius = Math.max(maxRadius, particles.getRadius(i));
+		}
+		cellSize = Math.max(2 * maxRadius, MIN_CELL_SIZE);
+		columns = Math.max(1, (int) Math.ceil(width / cellSize));
+		rows = Math.max(1, (int) Math.ceil(height / cellSize));
+		int n = particles.size();
+		if (x.length < n) {
+			x = new float[n];
+			y = new float[n];
+			added = new int[n];
+			addedCells = new int[n];
+			sorted = new int[n];
+		}
+		if (cellStart.length < columns * rows + 1) {
+			cellStart = new int[columns * rows + 1];
+			cursor = new int[columns * rows];
+		}
+		Arrays.fill(cellStart, 0, columns * rows + 1, 0);
+		count = 0;
+	}
+
+	/**
+	 * Adds a particle drawn at {@code (x, y)}.
+	 */
+	public void add(int particle, float x, float y) {
+		this.x[particle] = x;
+		this.y[particle] = y;
+		int cell = row(y) * columns + column(x);
+		added[count] = particle;
+		addedCells[count] = cell;
+		count++;
+		cellStart[cell + 1]++;
+	}
+
+	/**
+	 * Sorts the added particles into their cells.
+	 */
+	public void end() {
+		int cells = columns * rows;
+		for (int c = 0; c < cells; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		System.arraycopy(cellStart, 0, cursor, 0, cells);
+		for (int i = 0; i < count; i++) {
+			sorted[cursor[addedCells[i]]++] = added[i];
+		}
+	}
+
+	/**
+	 * The particle drawn on top at {@code (x, y)}, or -1 if there is none.
+	 */
+	public int pick(float x, float y) {
+		int hit = -1;
+		if (particles == null)
+			return hit;
+		int fromColumn = column(x - maxRadius), toColumn = column(x + maxRadius);
+		int fromRow = row(y - maxRadius), toRow = row(y + maxRadius);
+		for (int row = fromRow; row <= toRow; row++) {
+			for (int column = fromColumn; column <= toColumn; column++) {
+				int cell = row * columns + column;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int i = sorted[k];
+					float dx = x - this.x[i];
+					float dy = y - this.y[i];
+					int radius = particles.getRadius(i);
+					// Later particles are drawn over earlier ones.
+					if (i > hit && dx * dx + dy * dy < radius * radius)
+						hit = i;
+				}
+			}
+		}
+		return hit;
+	}
+
+	/**
+	 * Calls {@code action} with every particle drawn with its center inside the
+	 * rectangle between the corners {@code (x1, y1)} and {@code (x2, y2)}, which may be
+	 * given in any order, as a box can be dragged in any direction.
+	 */
+	public void forEachInRect(float x1, float y1, float x2, float y2, IntConsumer action) {
+		if (particles == null)
+			return;
+		float left = Math.min(x1, x2), right = Math.max(x1, x2);
+		float top = Math.min(y1, y2), bottom = Math.max(y1, y2);
+		for (int row = row(top); row <= row(bottom); row++) {
+			for (int column = column(left); column <= column(right); column++) {
+				int cell = row * columns + column;
+				for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+					int i = sorted[k];
+					if (x[i] >= left && x[i] <= right && y[i] >= top && y[i] <= bottom)
+						action.accept(i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forgets the last frame, for when the particles are replaced.
+	 */
+	public void clear() {
+		particles = null;
+		count = 0;
+	}
+
+	public float getX(int particle) {
+		return x[particle];
+	}
+
+	public float getY(int particle) {
+		return y[particle];
+	}
+
+	private int column(float x) {
+		return Math.min(Math.max((int) (x / cellSize), 0), columns - 1);
+	}
+
+	private int row(float y) {
+		return Math.min(Math.max((int) (y / cellSize), 0), rows - 1);
+	}
+}
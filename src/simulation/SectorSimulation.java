@@ -0,0 +1,662 @@
+package simulation;
+
+import java.util.Arrays;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+import simulation.CellGrid.CellCrossing;
+import simulation.CollisionEvent.CollisionEventType;
+import simulation.EventQueue.EventQueueType;
+import simulation.ParticleStore.WallCollision;
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Runs the simulation on several threads by splitting the box into vertical strips of
+ * grid columns, called sectors. Every sector owns the particles in its columns and has
+ * its own event queue, with one event per particle, and its own worker thread.
+ * <p>
+ * The first and last column of a sector border on a neighbouring sector. Particles in
+ * the other columns only ever meet particles of their own sector, so the events that
+ * involve none of the border columns, the interior events, of different sectors are
+ * independent and are handled in parallel. Every event that involves a border column is
+ * handled on the calling thread, one at a time in global time order, while the workers
+ * wait.
+ * <p>
+ * Sectors run ahead of each other between two border events. When a border event
+ * changes particles that a sector has already moved past, that sector is rolled back
+ * to the time of the border event with an undo log and redoes its events afterwards.
+ * Events become final once no sector can be rolled back past them, and they are
+ * handed out in time order. The result matches that of {@link Simulation} up to the
+ * order in which simultaneous events are found.
+ */
+class SectorSimulation {
+
+	// The most events a sector handles in one parallel round.
+	private static final int ROUND_EVENTS = 256;
+
+	private final ParticleStore particles;
+	private final CellGrid grid;
+	private final int width, height;
+	private final EventQueueType queueType;
+	private final CollisionEvent[] particleEvents;
+	// The sector whose queue holds the event of each particle, which is the sector that
+	// owns the particle except while it changes sectors.
+	private final Sector[] queuedIn;
+
+	private final Sector[] sectors;
+	private final int[] sectorOfColumn;
+	private final boolean[] borderColumn;
+	private final EventLog serialLog = new EventLog();
+
+	// Events before this one can no longer be rolled back.
+	private float commitTime;
+	private int commitMin, commitMax, commitType;
+	private long committedEvents;
+	// How far past the last final event a round may run, about ROUND_EVENTS per sector.
+	private float window = Float.POSITIVE_INFINITY;
+	// The earliest border event that was waiting at the end of the last round.
+	private float borderHorizon = Float.POSITIVE_INFINITY;
+	// Events up to this time are handled on the calling thread, see handleBorderEvents.
+	private float serialTime = Float.NEGATIVE_INFINITY;
+
+	private final int[] touched;
+	private int touchedStamp;
+	private final int[] touchStamps;
+
+	private final CyclicBarrier start, done;
+	private final Thread[] workers;
+	private volatile boolean closed;
+	private volatile Throwable failure;
+
+	/**
+	 * Takes over the particles and the grid, which must hold every particle, and splits
+	 * the grid columns into at most {@code sectorCount} sectors of at least three columns.
+	 */
+	SectorSimulation(ParticleStore particles, CellGrid grid, int width, int height, int sectorCount,
+			EventQueueType queueType) {
+		this.particles = particles;
+		this.queueType = queueType;
+		this.grid = grid;
+		this.width = width;
+		this.height = height;
+		particleEvents = new CollisionEvent[particles.size()];
+		queuedIn = new Sector[particles.size()];
+		touched = new int[particles.size()];
+		touchStamps = new int[particles.size()];
+
+		int columns = grid.getColumns();
+		sectorCount = Math.max(1, Math.min(sectorCount, columns / 3));
+		sectors = new Sector[sectorCount];
+		sectorOfColumn = new int[columns];
+		borderColumn = new boolean[columns];
+		for (int s = 0; s < sectorCount; s++) {
+			int first = s * columns / sectorCount;
+			int last = (s + 1) * columns / sectorCount - 1;
+			for (int c = first; c <= last; c++) {
+				sectorOfColumn[c] = s;
+			}
+			borderColumn[first] |= s > 0;
+			borderColumn[last] |= s < sectorCount - 1;
+			sectors[s] = new Sector();
+		}
+
+		for (int i = 0; i < particles.size(); i++) {
+			particleEvents[i] = new CollisionEvent();
+			owner(i).predict(i);
+		}
+		commitTime = Float.NEGATIVE_INFINITY;
+
+		start = new CyclicBarrier(sectorCount + 1);
+		done = new CyclicBarrier(sectorCount + 1);
+		workers = new Thread[sectorCount];
+		for (int s = 0; s < sectorCount; s++) {
+			workers[s] = new Thread(sectors[s]::work, "Sector Thread " + s);
+			workers[s].setDaemon(true);
+			workers[s].start();
+		}
+	}
+
+	public int getSectorCount() {
+		return sectors.length;
+	}
+
+	/**
+	 * Stops the worker threads and waits for them, so that the particles and the grid can
+	 * be used again even if a round was cut short. The simulation can not be advanced
+	 * afterwards.
+	 */
+	public void close() {
+		closed = true;
+		// Resetting the barrier instead would miss workers that have yet to reach it.
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes the next final event into {@code diff}, running rounds until there is one.
+	 *
+	 * @throws InterruptedException if the calling thread is interrupted while the sectors
+	 *                              run, which stops them as {@link #close} does
+	 */
+	public SimulationDiffrence advanceSimulation(SimulationDiffrence diff) throws InterruptedException {
+		while (!nextCommitted(diff)) {
+			runRound();
+		}
+		return diff;
+	}
+
+	private void runRound() throws InterruptedException {
+		if (closed)
+			throw new IllegalStateException("Sector threads stopped");
+		// Sectors do not run past a border event that is already known, since the
+		// sectors next to it would most likely have to be rolled back.
+		float horizon = (commitTime == Float.NEGATIVE_INFINITY) ? Float.POSITIVE_INFINITY : commitTime + window;
+		horizon = Math.min(horizon, borderHorizon);
+		for (Sector sector : sectors) {
+			sector.horizon = horizon;
+		}
+		try {
+			start.await();
+			done.await();
+		} catch (InterruptedException e) {
+			// The barriers are broken, so the workers stop, possibly half way through the round.
+			closed = true;
+			throw e;
+		} catch (BrokenBarrierException e) {
+			throw new IllegalStateException("Sector threads stopped", e);
+		}
+		if (failure != null)
+			throw new IllegalStateException("Sector thread failed", failure);
+
+		handleBorderEvents();
+	}
+
+	/**
+	 * Handles border events in time order until the earliest event of all sectors is an
+	 * interior event later than the last rollback, which the next parallel round can take
+	 * care of.
+	 */
+	private void handleBorderEvents() {
+		while (true) {
+			Sector first = null;
+			CollisionEvent event = null;
+			borderHorizon = Float.POSITIVE_INFINITY;
+			for (Sector sector : sectors) {
+				CollisionEvent head = sector.head();
+				if (head == null)
+					continue;
+				if (sector.isBorderEvent(head))
+					borderHorizon = Math.min(borderHorizon, head.getTime());
+				if (event == null || head.compareTo(event) < 0) {
+					event = head;
+					first = sector;
+				}
+			}
+			if (event == null)
+				return;
+			setCommit(event);
+			// After a rollback the events up to the border event are handled here too: an
+			// event found at the same time as the one it was predicted from sorts before it,
+			// so a worker would only redo the undone event and be rolled back again.
+			if (!first.isBorderEvent(event) && event.getTime() > serialTime)
+				return;
+
+			if (rollBackAround(event)) {
+				serialTime = Math.max(serialTime, event.getTime());
+				continue;
+			}
+			handleSerially(event);
+		}
+	}
+
+	/**
+	 * Rolls back every sector that owns one of the columns next to the particles of the
+	 * event, which are read when the particles are predicted again, and returns whether
+	 * any event had to be undone.
+	 */
+	private boolean rollBackAround(CollisionEvent event) {
+		int minColumn = grid.getColumn(grid.getCell(event.getParticle1()));
+		int maxColumn = minColumn;
+		if (event.getParticle2() >= 0) {
+			int column = grid.getColumn(grid.getCell(event.getParticle2()));
+			minColumn = Math.min(minColumn, column);
+			maxColumn = Math.max(maxColumn, column);
+		}
+		if (event.getType() == CollisionEvent.CELL_CROSSING) {
+			int column = grid.getColumn(event.getCell());
+			minColumn = Math.min(minColumn, column);
+			maxColumn = Math.max(maxColumn, column);
+		}
+		// Border columns only change here, so only sectors whose interior columns are read
+		// can be ahead of the event.
+		boolean rolledBack = false;
+		int last = Math.min(maxColumn + 1, sectorOfColumn.length - 1);
+		for (int column = Math.max(minColumn - 1, 0); column <= last; column++) {
+			if (!borderColumn[column])
+				rolledBack |= sectors[sectorOfColumn[column]].rollBackAfter(event);
+		}
+		return rolledBack;
+	}
+
+	private void handleSerially(CollisionEvent event) {
+		int particle1 = event.getParticle1();
+		int particle2 = event.getParticle2();
+		float time = event.getTime();
+		switch (event.getType()) {
+		case CELL_CROSSING:
+			Sector to = sectors[sectorOfColumn[grid.getColumn(event.getCell())]];
+			serialLog.addCrossing(particle1, grid.getCell(particle1), time);
+			grid.move(particle1, event.getCell());
+			to.predict(particle1);
+			return;
+		case PARTICLE_COLLISION:
+			serialLog.addCollision(event, particles);
+			particles.moveTo(particle1, time);
+			particles.moveTo(particle2, time);
+			particles.collide(particle1, particle2, time);
+			serialLog.setResult(particles);
+			owner(particle1).predict(particle1);
+			owner(particle2).predict(particle2);
+			return;
+		case WALL_COLLISION:
+			serialLog.addCollision(event, particles);
+			particles.moveTo(particle1, time);
+			particles.collideWall(particle1, event.getWall(), time);
+			serialLog.setResult(particles);
+			owner(particle1).predict(particle1);
+			return;
+		}
+	}
+
+	private Sector owner(int particle) {
+		return sectors[sectorOfColumn[grid.getColumn(grid.getCell(particle))]];
+	}
+
+	private void setCommit(CollisionEvent event) {
+		commitTime = event.getTime();
+		commitMin = EventLog.min(event.getParticle1(), event.getParticle2());
+		commitMax = EventLog.max(event.getParticle1(), event.getParticle2());
+		commitType = event.getType().ordinal();
+	}
+
+	/**
+	 * Moves the earliest final collision of all logs into {@code diff}, skipping cell
+	 * crossings. Returns false if there is none yet.
+	 */
+	private boolean nextCommitted(SimulationDiffrence diff) {
+		while (true) {
+			EventLog first = (serialLog.hasNext()) ? serialLog : null;
+			for (Sector sector : sectors) {
+				EventLog log = sector.log;
+				if (log.hasNext() && (first == null || log.compareNext(first) < 0))
+					first = log;
+			}
+			if (first == null || first.compareNext(commitTime, commitMin, commitMax, commitType) >= 0)
+				return false;
+
+			if (first.takeNext(diff)) {
+				committedEvents++;
+				if (committedEvents % ROUND_EVENTS == 0 && diff.time > 0)
+					window = ROUND_EVENTS * sectors.length * diff.time / committedEvents;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * A strip of columns with its own queue, log and scratch space.
+	 */
+	private class Sector {
+		final EventQueue events = EventQueue.create(queueType);
+		final EventLog log = new EventLog();
+		volatile float horizon;
+
+		private final WallCollision wallCollision = new WallCollision(0, null);
+		private final CellCrossing cellCrossing = new CellCrossing(0, 0);
+		private final int[] neighbourCells = new int[9];
+
+		void work() {
+			try {
+				while (true) {
+					start.await();
+					if (closed)
+						return;
+					try {
+						advance();
+					} catch (RuntimeException | Error e) {
+						failure = e;
+					}
+					if (closed)
+						return;
+					done.await();
+				}
+			} catch (InterruptedException | BrokenBarrierException e) {
+				return;
+			}
+		}
+
+		/**
+		 * Handles interior events until the next event is a border event, lies beyond
+		 * the horizon or the round is full.
+		 */
+		void advance() {
+			for (int i = 0; i < ROUND_EVENTS; i++) {
+				CollisionEvent event = head();
+				if (event == null || event.getTime() > horizon || isBorderEvent(event))
+					return;
+				handle(event);
+			}
+		}
+
+		/**
+		 * The earliest event of the sector, predicting again the events that became
+		 * inactive.
+		 */
+		CollisionEvent head() {
+			CollisionEvent event = events.peek();
+			while (event != null && !event.isActive(particles)) {
+				predict(event.getParticle1());
+				event = events.peek();
+			}
+			return event;
+		}
+
+		boolean isBorderEvent(CollisionEvent event) {
+			if (touchesBorder(event.getParticle1()) || (event.getParticle2() >= 0 && touchesBorder(event.getParticle2())))
+				return true;
+			if (event.getType() == CollisionEvent.CELL_CROSSING) {
+				int column = grid.getColumn(event.getCell());
+				return borderColumn[column] || sectors[sectorOfColumn[column]] != this;
+			}
+			return false;
+		}
+
+		private boolean touchesBorder(int particle) {
+			int column = grid.getColumn(grid.getCell(particle));
+			return borderColumn[column] || sectors[sectorOfColumn[column]] != this;
+		}
+
+		private void handle(CollisionEvent event) {
+			int particle1 = event.getParticle1();
+			int particle2 = event.getParticle2();
+			float time = event.getTime();
+			switch (event.getType()) {
+			case CELL_CROSSING:
+				log.addCrossing(particle1, grid.getCell(particle1), time);
+				grid.move(particle1, event.getCell());
+				predict(particle1);
+				return;
+			case PARTICLE_COLLISION:
+				log.addCollision(event, particles);
+				particles.moveTo(particle1, time);
+				particles.moveTo(particle2, time);
+				particles.collide(particle1, particle2, time);
+				log.setResult(particles);
+				predict(particle1);
+				predict(particle2);
+				return;
+			case WALL_COLLISION:
+				log.addCollision(event, particles);
+				particles.moveTo(particle1, time);
+				particles.collideWall(particle1, event.getWall(), time);
+				log.setResult(particles);
+				predict(particle1);
+				return;
+			}
+		}
+
+		/**
+		 * Undoes every event of the sector that comes after {@code event} and predicts the
+		 * particles it touched again. Their collision counters are increased rather than
+		 * restored so that no event predicted in between becomes active again.
+		 */
+		boolean rollBackAfter(CollisionEvent event) {
+			if (!log.hasNext() || log.compareLast(event) <= 0)
+				return false;
+			touchedStamp++;
+			int count = 0;
+			while (log.hasNext() && log.compareLast(event) > 0) {
+				count = log.undoLast(particles, grid, touched, count, touchStamps, touchedStamp);
+			}
+			for (int i = 0; i < count; i++) {
+				particles.invalidate(touched[i]);
+			}
+			// Undoing a crossing can move a particle into another sector.
+			for (int i = 0; i < count; i++) {
+				owner(touched[i]).predict(touched[i]);
+			}
+			return true;
+		}
+
+		/**
+		 * Replaces the event of the particle with its earliest predicted event, like
+		 * {@link Simulation} does with one event per particle. The particle must be in the
+		 * sector; if its event is still in the queue of the sector it came from, it is
+		 * moved here, which only the calling thread may do while the workers wait.
+		 */
+		void predict(int particle) {
+			CollisionEvent event = particleEvents[particle];
+			Sector holder = queuedIn[particle];
+			if (holder != this) {
+				if (holder != null && !holder.events.remove(event))
+					throw new IllegalStateException("The event of particle " + particle + " is not in its queue");
+				queuedIn[particle] = this;
+			}
+			event.setWallCollision(particle, particles.getWallCollisionTime(particle, width, height, wallCollision), particles);
+			grid.getCellCrossingTime(particle, particles, cellCrossing);
+			if (cellCrossing.time < event.getTime())
+				event.setCellCrossing(particle, cellCrossing, particles);
+			int cells = grid.getNeighbourCells(grid.getCell(particle), -1, neighbourCells);
+			for (int c = 0; c < cells; c++) {
+				for (int other = grid.getFirst(neighbourCells[c]); other >= 0; other = grid.getNext(other)) {
+					if (other == particle)
+						continue;
+					float time = (particles.getRefTime(particle) >= particles.getRefTime(other)) ?
+							particles.getColitionTime(particle, other) : particles.getColitionTime(other, particle);
+					if (event.isAfter(particle, other, time))
+						event.setParticleCollision(particle, other, time, particles);
+				}
+			}
+			if (holder == this)
+				events.update(event);
+			else
+				events.add(event);
+		}
+	}
+
+	/**
+	 * The events a sector has handled, in order, with the state of their particles before
+	 * and after. Entries from {@code next} on are not final yet and can be undone from
+	 * the end, entries before it have been handed out.
+	 */
+	private static class EventLog {
+		private static final int BEFORE = 10, AFTER = 8;
+
+		private float[] times = new float[64];
+		private int[] particles1 = new int[64], particles2 = new int[64];
+		private int[] types = new int[64];
+		private int[] cells = new int[64];
+		private float[] before = new float[64 * BEFORE], after = new float[64 * AFTER];
+		private int next, size;
+
+		static int min(int particle1, int particle2) {
+			return (particle2 < 0) ? particle1 : Math.min(particle1, particle2);
+		}
+
+		static int max(int particle1, int particle2) {
+			return (particle2 < 0) ? -1 : Math.max(particle1, particle2);
+		}
+
+		boolean hasNext() {
+			return next < size;
+		}
+
+		void addCrossing(int particle, int oldCell, float time) {
+			int i = append(time, particle, -1, CollisionEventType.CELL_CROSSING.ordinal());
+			cells[i] = oldCell;
+		}
+
+		void addCollision(CollisionEvent event, ParticleStore store) {
+			int i = append(event.getTime(), event.getParticle1(), event.getParticle2(), event.getType().ordinal());
+			saveState(before, i * BEFORE, particles1[i], store);
+			before[i * BEFORE + 4] = store.getRefTime(particles1[i]);
+			if (particles2[i] >= 0) {
+				saveState(before, i * BEFORE + 5, particles2[i], store);
+				before[i * BEFORE + 9] = store.getRefTime(particles2[i]);
+			}
+		}
+
+		/**
+		 * Records the state of the particles of the last entry after its event.
+		 */
+		void setResult(ParticleStore store) {
+			int i = size - 1;
+			saveState(after, i * AFTER, particles1[i], store);
+			if (particles2[i] >= 0)
+				saveState(after, i * AFTER + 4, particles2[i], store);
+		}
+
+		private static void saveState(float[] data, int offset, int particle, ParticleStore store) {
+			float refTime = store.getRefTime(particle);
+			data[offset] = store.getX(particle, refTime);
+			data[offset + 1] = store.getY(particle, refTime);
+			data[offset + 2] = store.getVelX(particle);
+			data[offset + 3] = store.getVelY(particle);
+		}
+
+		private int append(float time, int particle1, int particle2, int type) {
+			if (next > 0 && next >= size / 2)
+				compact();
+			if (size == times.length) {
+				int capacity = times.length * 2;
+				times = Arrays.copyOf(times, capacity);
+				particles1 = Arrays.copyOf(particles1, capacity);
+				particles2 = Arrays.copyOf(particles2, capacity);
+				types = Arrays.copyOf(types, capacity);
+				cells = Arrays.copyOf(cells, capacity);
+				before = Arrays.copyOf(before, capacity * BEFORE);
+				after = Arrays.copyOf(after, capacity * AFTER);
+			}
+			int i = size++;
+			times[i] = time;
+			particles1[i] = particle1;
+			particles2[i] = particle2;
+			types[i] = type;
+			return i;
+		}
+
+		/**
+		 * Drops the entries that have been handed out.
+		 */
+		private void compact() {
+			int remaining = size - next;
+			System.arraycopy(times, next, times, 0, remaining);
+			System.arraycopy(particles1, next, particles1, 0, remaining);
+			System.arraycopy(particles2, next, particles2, 0, remaining);
+			System.arraycopy(types, next, types, 0, remaining);
+			System.arraycopy(cells, next, cells, 0, remaining);
+			System.arraycopy(before, next * BEFORE, before, 0, remaining * BEFORE);
+			System.arraycopy(after, next * AFTER, after, 0, remaining * AFTER);
+			next = 0;
+			size = remaining;
+		}
+
+		int compareNext(EventLog other) {
+			int j = other.next;
+			return compare(next, other.times[j], min(other.particles1[j], other.particles2[j]),
+					max(other.particles1[j], other.particles2[j]), other.types[j]);
+		}
+
+		int compareNext(float time, int min, int max, int type) {
+			return compare(next, time, min, max, type);
+		}
+
+		int compareLast(CollisionEvent event) {
+			return compare(size - 1, event.getTime(), min(event.getParticle1(), event.getParticle2()),
+					max(event.getParticle1(), event.getParticle2()), event.getType().ordinal());
+		}
+
+		/**
+		 * Compares entry {@code i} with an event in the order of {@link CollisionEvent#compareTo}.
+		 */
+		private int compare(int i, float time, int min, int max, int type) {
+			int cmp = Float.compare(times[i], time);
+			if (cmp != 0)
+				return cmp;
+			cmp = Integer.compare(min(particles1[i], particles2[i]), min);
+			if (cmp != 0)
+				return cmp;
+			cmp = Integer.compare(max(particles1[i], particles2[i]), max);
+			if (cmp != 0)
+				return cmp;
+			return Integer.compare(types[i], type);
+		}
+
+		/**
+		 * Hands out the next entry. Returns false for cell crossings, which change no
+		 * trajectory.
+		 */
+		boolean takeNext(SimulationDiffrence diff) {
+			int i = next++;
+			if (types[i] == CollisionEventType.CELL_CROSSING.ordinal())
+				return false;
+			diff.time = times[i];
+			diff.count = 0;
+			addToDiff(diff, particles1[i], i * AFTER);
+			if (particles2[i] >= 0)
+				addToDiff(diff, particles2[i], i * AFTER + 4);
+			return true;
+		}
+
+		private void addToDiff(SimulationDiffrence diff, int particle, int offset) {
+			int c = diff.count++;
+			diff.ids[c] = particle;
+			diff.x[c] = after[offset];
+			diff.y[c] = after[offset + 1];
+			diff.vx[c] = after[offset + 2];
+			diff.vy[c] = after[offset + 3];
+		}
+
+		/**
+		 * Undoes the last entry and adds the particles it touched to {@code touched}
+		 * unless they already are marked with {@code stamp}. Returns the new number of
+		 * touched particles.
+		 */
+		int undoLast(ParticleStore store, CellGrid grid, int[] touched, int count, int[] stamps, int stamp) {
+			int i = --size;
+			if (types[i] == CollisionEventType.CELL_CROSSING.ordinal()) {
+				grid.move(particles1[i], cells[i]);
+			} else {
+				restore(store, particles1[i], i * BEFORE);
+				if (particles2[i] >= 0)
+					restore(store, particles2[i], i * BEFORE + 5);
+			}
+			count = touch(particles1[i], touched, count, stamps, stamp);
+			if (particles2[i] >= 0)
+				count = touch(particles2[i], touched, count, stamps, stamp);
+			return count;
+		}
+
+		private void restore(ParticleStore store, int particle, int offset) {
+			store.setState(particle, before[offset], before[offset + 1], before[offset + 2],
+					before[offset + 3], before[offset + 4]);
+		}
+
+		private static int touch(int particle, int[] touched, int count, int[] stamps, int stamp) {
+			if (stamps[particle] != stamp) {
+				stamps[particle] = stamp;
+				touched[count++] = particle;
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package simulation;
+
+import java.util.Arrays;
+
+/**
+ * The selected particles and their trails. Whether a particle is selected is one bit
+ * test, and the selected particles are also kept in a dense list so that going through
+ * them does not depend on the number of particles. The trails of deselected particles
+ * are kept for the next selection.
+ */
+public class Selection {
+
+	private final long[] bits;
+	private int[] members = new int[8];
+	// The position of every selected particle in members.
+	private final int[] slots;
+	private TrailBuffer[] trails = new TrailBuffer[8];
+	private int size;
+	private int trailLimit;
+
+	public Selection(int particles, int trailLimit) {
+		bits = new long[(particles + 63) >>> 6];
+		slots = new int[particles];
+		this.trailLimit = trailLimit;
+	}
+
+	/**
+	 * The number of particles that can be selected.
+	 */
+	public int capacity() {
+		return slots.length;
+	}
+
+	public boolean contains(int particle) {
+		return (bits[particle >>> 6] & (1L << particle)) != 0;
+	}
+
+	public void add(int particle) {
+		if (contains(particle))
+			return;
+		bits[particle >>> 6] |= 1L << particle;
+		if (size == members.length) {
+			members = Arrays.copyOf(members, size * 2);
+			trails = Arrays.copyOf(trails, size * 2);
+		}
+		if (trails[size] == null)
+			trails[size] = new TrailBuffer(trailLimit);
+		else {
+			trails[size].clear();
+			trails[size].setLimit(trailLimit);
+		}
+		members[size] = particle;
+		slots[particle] = size;
+		size++;
+	}
+
+	public void remove(int particle) {
+		if (!contains(particle))
+			return;
+		bits[particle >>> 6] &= ~(1L << particle);
+		int slot = slots[particle];
+		size--;
+		// Moves the last member into the gap and keeps the removed trail for reuse.
+		TrailBuffer trail = trails[slot];
+		members[slot] = members[size];
+		trails[slot] = trails[size];
+		slots[members[slot]] = slot;
+		trails[size] = trail;
+	}
+
+	public void toggle(int particle) {
+		if (contains(particle))
+			remove(particle);
+		else
+			add(particle);
+	}
+
+	public void clear() {
+		while (size > 0) {
+			remove(members[size - 1]);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The {@code i}-th selected particle, in no particular order.
+	 */
+	public int get(int i) {
+		return members[i];
+	}
+
+	/**
+	 * The trail of the {@code i}-th selected particle.
+	 */
+	public TrailBuffer getTrail(int i) {
+		return trails[i];
+	}
+
+	/**
+	 * Sets the most positions kept per trail, 0 for no limit.
+	 */
+	public void setTrailLimit(int limit) {
+		trailLimit = limit;
+		for (int i = 0; i < size; i++) {
+			trails[i].setLimit(limit);
+		}
+	}
+
+	public int getTrailLimit() {
+		return trailLimit;
+	}
+}
@@ -1,138 +1,695 @@
 package simulation;
-import java.util.Hashtable;
-import java.util.PriorityQueue;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.CancellationException;
+import java.util.stream.IntStream;
 
-import processing.core.PApplet;
-import processing.core.PVector;
+import simulation.CellGrid.CellCrossing;
+import simulation.EventQueue.EventQueueType;
+import simulation.ParticleStore.WallCollision;
 
 public class Simulation {
-	
-	private PriorityQueue<CollisionEvent> events;
-	private Atom[] atoms;
+
+	private EventQueue events;
+	private EventQueueType queueType;
+	private ParticleStore particles;
 	private int width, height;
-	private Hashtable<Atom, Float> lastUpdated;
-	
-	public Simulation(int nLightAtoms, int nHeavyAtoms, int width, int height, PApplet applet) {
-		reset(nLightAtoms, nHeavyAtoms, width, height, applet);
-	}
-	
-	public void reset(int nLightAtoms, int nHeavyAtoms, int width, int height, PApplet applet) {
-		this.width = width;
-		this.height = height;
-		events = new PriorityQueue<CollisionEvent>();
-		lastUpdated = new Hashtable<Atom, Float>(nLightAtoms + nHeavyAtoms, 1);
-		createAtoms(nLightAtoms, nHeavyAtoms, applet);
+	private CellGrid grid;
+	private boolean eventPerAtom;
+	private boolean parallelSetup;
+	// The seed of the random generator the particles were made with.
+	private long seed;
+	// How many of the particles are light atoms, the rest are heavy.
+	private int lightAtoms;
+	// The time of the last event handed out.
+	private float time;
+	// Runs the events instead of this class when the box is split into sectors.
+	private SectorSimulation sectorSimulation;
+
+	// The event of every particle when only one event per particle is scheduled.
+	private CollisionEvent[] particleEvents;
+	// Events that are no longer in the queue, linked through CollisionEvent.queueNext.
+	private CollisionEvent freeEvents;
+
+	private final WallCollision wallCollision = new WallCollision(0, null);
+	private final CellCrossing cellCrossing = new CellCrossing(0, 0);
+	private final int[] neighbourCells = new int[9];
+	private final EventScanner predictor = new EventScanner();
+	// The scanners of the last setup, kept with their buffers for the next one.
+	private EventScanner[] scanners = new EventScanner[0];
+
+	private SimulationMetrics metrics;
+	// Events taken from the queue for the event being handled, and how many were stale.
+	private int polledEvents, staleEvents;
+
+	// Particles per task when the first events are predicted in parallel.
+	private static final int SETUP_BLOCK_SIZE = 64;
+	private static final int PARALLEL_SETUP_THRESHOLD = 1024;
+
+	/**
+	 * Creates a simulation whose starting velocities are drawn from a random generator
+	 * seeded with {@code seed}, so the same seed always gives the same run, event for
+	 * event and bit for bit.
+	 */
+	public Simulation(int nLightAtoms, int nHeavyAtoms, int width, int height, long seed) {
+		this(SimulationConfig.fromConstants(width, height, seed).withAtoms(nLightAtoms, nHeavyAtoms));
+	}
+
+	/**
+	 * Creates a simulation from {@code config} alone, without reading {@link Constants}.
+	 */
+	public Simulation(SimulationConfig config) {
+		reset(config);
+	}
+
+	/**
+	 * Creates a simulation that starts from the given particles, which it takes ownership
+	 * of. The particles must all have reference time 0.
+	 */
+	public Simulation(ParticleStore particles, int width, int height) {
+		reset(particles, width, height);
+	}
+
+	/**
+	 * Creates a simulation that continues the run saved in {@code checkpoint}.
+	 */
+	public Simulation(Checkpoint checkpoint) {
+		restore(checkpoint);
+	}
+
+	public void reset(int nLightAtoms, int nHeavyAtoms, int width, int height, long seed) {
+		reset(SimulationConfig.fromConstants(width, height, seed).withAtoms(nLightAtoms, nHeavyAtoms));
+	}
+
+	/**
+	 * Starts over from the initial state of {@code config}. The storage of the last run
+	 * is reused as far as the new one fits into it, so a reset costs little more than
+	 * creating the initial state.
+	 *
+	 * @throws IllegalArgumentException if the particles do not fit into the box, in which
+	 *                                  case the last run goes on unchanged
+	 */
+	public void reset(SimulationConfig config) {
+		ParticleStore created = InitialState.create(config, new SplittableRandom(config.getSeed()), particles);
+		seed = config.getSeed();
+		reset(created, config);
+	}
+
+	public void reset(ParticleStore particles, int width, int height) {
+		reset(particles, SimulationConfig.fromConstants(width, height, 0));
+	}
+
+	/**
+	 * Starts over from {@code particles} with the size and algorithm settings of
+	 * {@code config}; its particle settings are not used.
+	 */
+	public void reset(ParticleStore particles, SimulationConfig config) {
+		this.particles = particles;
+		this.width = config.getWidth();
+		this.height = config.getHeight();
+		lightAtoms = Math.min(config.getLightAtoms(), particles.size());
+		time = 0;
+		// The queue is kept if it is of the same kind. Its events are not: new ones lie
+		// next to each other in memory, pooled ones all over the heap, and going through
+		// them to set up the queue costs more than allocating.
+		if (events != null && queueType == config.getEventQueue()) {
+			events.clear();
+		} else {
+			queueType = config.getEventQueue();
+			events = EventQueue.create(queueType);
+		}
+		freeEvents = null;
+		eventPerAtom = config.isOneEventPerAtom();
+		parallelSetup = config.isParallelSetup();
+		int maxRadius = 1;
+		for (int i = 0; i < particles.size(); i++) {
+			maxRadius = Math.max(maxRadius, particles.getRadius(i));
+		}
+		closeSectors();
+		if (config.getSectors() > 1) {
+			grid = createGrid(2 * maxRadius);
+			for (int i = 0; i < particles.size(); i++) {
+				grid.insert(i, particles);
+			}
+			sectorSimulation = new SectorSimulation(particles, grid, width, height, config.getSectors(),
+					config.getEventQueue());
+			return;
+		}
+		grid = (config.useCellGrid()) ? createGrid(2 * maxRadius) : null;
 		createEvents();
-		
 	}
-	
-	private void createAtoms(int nLightAtoms, int nHeavyAtoms, PApplet applet) {
-		atoms = new Atom[nLightAtoms + nHeavyAtoms];
-		for (int i = 0; i < nLightAtoms; i++) {
-			PVector vel = PVector.random2D();
-			vel.setMag(applet.random(Constants.LIGHT_MAX_START_VEL * 1.5f));
-			atoms[i] = new Atom(new PVector(width/2, height/2), vel, Constants.LIGHT_MASS, Constants.LIGHT_ATOM_RADIUS);
+
+	/**
+	 * Continues the run saved in {@code checkpoint}, taking over its particles, grid and
+	 * events, so a checkpoint that has been read can be restored once. Takes time linear in the
+	 * number of particles and events: the events are added to the queue as they are
+	 * rather than predicted again.
+	 */
+	public void restore(Checkpoint checkpoint) {
+		closeSectors();
+		particles = checkpoint.getParticles();
+		width = checkpoint.getWidth();
+		height = checkpoint.getHeight();
+		seed = checkpoint.getSeed();
+		lightAtoms = checkpoint.getLightAtoms();
+		time = checkpoint.getTime();
+		queueType = checkpoint.getEventQueue();
+		events = EventQueue.create(queueType);
+		freeEvents = null;
+		eventPerAtom = checkpoint.isOneEventPerAtom();
+		grid = checkpoint.getGrid();
+		CollisionEvent[] saved = checkpoint.getEvents();
+		if (eventPerAtom) {
+			particleEvents = new CollisionEvent[particles.size()];
+			for (CollisionEvent event : saved) {
+				particleEvents[event.getParticle1()] = event;
+			}
 		}
-		
-		for (int i = nLightAtoms; i < nLightAtoms + nHeavyAtoms; i++) {
-			PVector vel = PVector.random2D();
-			vel.setMag(applet.random(Constants.HEAVY_MAX_START_VEL));
-			atoms[i] = new Atom(new PVector(width/2, height/2), vel, Constants.HEAVY_MASS, Constants.HEAVY_ATOM_RADIUS);
+		events.addAll(saved, saved.length);
+	}
+
+	/**
+	 * Saves the state of this simulation to {@code file}, from which {@link #restore}
+	 * continues the run. Only the events that are still active are saved when every
+	 * particle may have several.
+	 *
+	 * @throws IllegalStateException if the box is split into sectors, whose particles are
+	 *                               not all at one point in time
+	 */
+	public void writeCheckpoint(Path file) throws IOException {
+		if (sectorSimulation != null)
+			throw new IllegalStateException("Checkpoints of a simulation split into sectors are not supported");
+		CollisionEvent[] saved = new CollisionEvent[events.size()];
+		int[] count = new int[1];
+		events.forEach(event -> {
+			if (eventPerAtom || event.isActive(particles))
+				saved[count[0]++] = event;
+		});
+		new Checkpoint(lightAtoms, width, height, seed, time, queueType, eventPerAtom, particles, grid,
+				Arrays.copyOf(saved, count[0])).write(file);
+	}
+
+	private void closeSectors() {
+		if (sectorSimulation != null)
+			sectorSimulation.close();
+		sectorSimulation = null;
+	}
+
+	/**
+	 * An empty grid for the particles, the one of the last run if it has the same layout.
+	 */
+	private CellGrid createGrid(float minCellSize) {
+		if (grid != null && grid.hasLayout(width, height, minCellSize, particles.size())) {
+			grid.clear();
+			return grid;
 		}
-		return;
+		return new CellGrid(width, height, minCellSize, particles.size());
 	}
-	
+
+	/**
+	 * Predicts the first events of every particle. The particles are split into blocks
+	 * that are scanned in parallel, each into its own buffer, and the buffers are added
+	 * to the queue in block order once all are done. Predicting only reads the particles
+	 * and the grid, so the result is the same as that of a sequential scan.
+	 */
 	private void createEvents() {
-		for (int i = 0; i < atoms.length; i++) {
-			Atom atom = atoms[i];
-			lastUpdated.put(atom, 0.0f);
-			events.add(new CollisionEvent(atom, atom.getWallCollisionTime(width, height), 0));
-			
-			for (int j = i + 1; j < atoms.length; j++) {
-				Atom collisionAtom = atoms[j];
-				float time = atom.getColitionTime(collisionAtom);
-				if (time != Float.POSITIVE_INFINITY)
-					events.add(new CollisionEvent(atom, collisionAtom, time, 0));
+		int n = particles.size();
+		if (grid != null) {
+			for (int i = 0; i < n; i++) {
+				grid.insert(i, particles);
+			}
+		}
+		if (eventPerAtom && (particleEvents == null || particleEvents.length != n))
+			particleEvents = new CollisionEvent[n];
+
+		int blocks = (n + SETUP_BLOCK_SIZE - 1) / SETUP_BLOCK_SIZE;
+		if (scanners.length != blocks) {
+			int old = scanners.length;
+			scanners = Arrays.copyOf(scanners, blocks);
+			for (int block = old; block < blocks; block++) {
+				scanners[block] = new EventScanner();
+			}
+		}
+		IntStream range = IntStream.range(0, blocks);
+		if (parallelSetup && n >= PARALLEL_SETUP_THRESHOLD)
+			range = range.parallel();
+		range.forEach(block -> {
+			EventScanner scanner = scanners[block];
+			scanner.count = 0;
+			int end = Math.min(n, (block + 1) * SETUP_BLOCK_SIZE);
+			for (int i = block * SETUP_BLOCK_SIZE; i < end; i++) {
+				if (eventPerAtom)
+					scanner.predictFirstEvent(i);
+				else
+					scanner.scanFirstEvents(i);
 			}
-			
+		});
+
+		for (EventScanner scanner : scanners) {
+			events.addAll(scanner.buffer, scanner.count);
+			Arrays.fill(scanner.buffer, 0, scanner.count, null);
+		}
+	}
+
+	/**
+	 * Replaces the single event of the particle with its earliest predicted event. Used
+	 * when only one event per particle is scheduled, which keeps the queue at exactly one
+	 * entry per particle. Collisions predicted against a particle that later collides
+	 * with something else become inactive through its collision counter and are
+	 * predicted again when they reach the front of the queue.
+	 */
+	private void predictNextEvent(int particle) {
+		CollisionEvent event = particleEvents[particle];
+		predictor.predictEarliestEvent(particle, event);
+		events.update(event);
+	}
+
+	private void predictParticleCollision(CollisionEvent event, int other) {
+		// Predicted from the side of the most recently updated particle like the other paths.
+		int particle = event.getParticle1();
+		float time = (particles.getRefTime(particle) >= particles.getRefTime(other)) ?
+				particles.getColitionTime(particle, other) : particles.getColitionTime(other, particle);
+		if (event.isAfter(particle, other, time))
+			event.setParticleCollision(particle, other, time, particles);
+	}
+
+	private CollisionEvent obtainEvent() {
+		CollisionEvent event = freeEvents;
+		if (event == null)
+			return new CollisionEvent();
+		freeEvents = event.queueNext;
+		event.queueNext = null;
+		return event;
+	}
+
+	private void recycleEvent(CollisionEvent event) {
+		event.queueNext = freeEvents;
+		freeEvents = event;
+	}
+
+	private void addWallCollision(int particle) {
+		particles.getWallCollisionTime(particle, width, height, wallCollision);
+		if (wallCollision.time != Float.POSITIVE_INFINITY) {
+			CollisionEvent event = obtainEvent();
+			event.setWallCollision(particle, wallCollision, particles);
+			events.add(event);
 		}
 	}
-	
+
+	private void addParticleCollision(int particle, int other) {
+		float time = particles.getColitionTime(particle, other);
+		if (time != Float.POSITIVE_INFINITY) {
+			CollisionEvent event = obtainEvent();
+			event.setParticleCollision(particle, other, time, particles);
+			events.add(event);
+		}
+	}
+
+	private void addCellCrossing(int particle) {
+		grid.getCellCrossingTime(particle, particles, cellCrossing);
+		if (cellCrossing.time != Float.POSITIVE_INFINITY) {
+			CollisionEvent event = obtainEvent();
+			event.setCellCrossing(particle, cellCrossing, particles);
+			events.add(event);
+		}
+	}
+
+	/**
+	 * Moves the particle into its new cell and predicts collisions with the particles
+	 * that just became its neighbours. The trajectory of the particle is unchanged, so
+	 * every event already scheduled for it stays valid. Each pair is predicted from the
+	 * side of the most recently updated particle, which is how the all-pairs path
+	 * predicts it.
+	 */
+	private void crossCell(int particle, int cell) {
+		int oldCell = grid.getCell(particle);
+		grid.move(particle, cell);
+		if (eventPerAtom) {
+			predictNextEvent(particle);
+			return;
+		}
+		int cells = grid.getNeighbourCells(cell, oldCell, neighbourCells);
+		for (int c = 0; c < cells; c++) {
+			for (int other = grid.getFirst(neighbourCells[c]); other >= 0; other = grid.getNext(other)) {
+				if (other == particle)
+					continue;
+				if (particles.getRefTime(particle) >= particles.getRefTime(other))
+					addParticleCollision(particle, other);
+				else
+					addParticleCollision(other, particle);
+			}
+		}
+		addCellCrossing(particle);
+	}
+
 	private CollisionEvent getNextEvent() {
-		CollisionEvent event = events.poll();
-		
-		while (!event.isActive(lastUpdated)) {
+		SimulationEvents.NextEvent jfrEvent = null;
+		if (SimulationEvents.NEXT_EVENT.isEnabled()) {
+			jfrEvent = new SimulationEvents.NextEvent();
+			jfrEvent.begin();
+		}
+		int stale = 0;
+		CollisionEvent event;
+		if (eventPerAtom) {
+			// The event stays in the queue as the slot of its particle and is replaced
+			// once the event has been handled.
+			event = events.peek();
+			while (!event.isActive(particles)) {
+				predictNextEvent(event.getParticle1());
+				event = events.peek();
+				stale++;
+			}
+		} else {
 			event = events.poll();
+			while (!event.isActive(particles)) {
+				recycleEvent(event);
+				event = events.poll();
+				stale++;
+			}
+		}
+		polledEvents += stale + 1;
+		staleEvents += stale;
+
+		if (jfrEvent != null && jfrEvent.shouldCommit()) {
+			jfrEvent.stale = stale;
+			jfrEvent.queueDepth = events.size();
+			jfrEvent.commit();
 		}
-		
 		return event;
 	}
-	
-	
+
+
 	public SimulationDiffrence advanceSimulation() {
+		return advanceSimulation(new SimulationDiffrence());
+	}
+
+	/**
+	 * Handles the next event and writes the particles it changed into {@code diff},
+	 * which is returned. Does not allocate once the event pool has grown to its working
+	 * size.
+	 *
+	 * @throws CancellationException if the box is split into sectors and the calling
+	 *                               thread is interrupted while they run. The interrupt
+	 *                               stays set and the simulation has to be reset before
+	 *                               it can be advanced again.
+	 */
+	public SimulationDiffrence advanceSimulation(SimulationDiffrence diff) {
+		SimulationEvents.Advance jfrEvent = null;
+		if (SimulationEvents.ADVANCE.isEnabled()) {
+			jfrEvent = new SimulationEvents.Advance();
+			jfrEvent.begin();
+		}
+		if (sectorSimulation != null) {
+			try {
+				sectorSimulation.advanceSimulation(diff);
+			} catch (InterruptedException e) {
+				// The round may have been cut short, so the workers have to stop before a
+				// reset reuses the particles.
+				sectorSimulation.close();
+				Thread.currentThread().interrupt();
+				throw new CancellationException("Interrupted while the sectors were running");
+			}
+			time = diff.time;
+			if (metrics != null)
+				metrics.eventHandled(diff.time, 1, 0, 0);
+		} else {
+			advanceEvent(diff);
+		}
+		if (jfrEvent != null && jfrEvent.shouldCommit()) {
+			jfrEvent.time = diff.time;
+			jfrEvent.particles = diff.count;
+			jfrEvent.commit();
+		}
+		return diff;
+	}
+
+	private void advanceEvent(SimulationDiffrence diff) {
+		polledEvents = 0;
+		staleEvents = 0;
 		CollisionEvent nextEvent = getNextEvent();
-		
-		Atom[] eventAtoms;
-		
+		while (nextEvent.getType() == CollisionEvent.CELL_CROSSING) {
+			int particle = nextEvent.getParticle1();
+			int cell = nextEvent.getCell();
+			if (!eventPerAtom)
+				recycleEvent(nextEvent);
+			crossCell(particle, cell);
+			nextEvent = getNextEvent();
+		}
+
+		float time = nextEvent.getTime();
+		int particle1 = nextEvent.getParticle1();
+		int particle2 = nextEvent.getParticle2();
+
 		switch (nextEvent.getType()) {
 		case PARTICLE_COLLISION:
-			Atom atom1 = nextEvent.getAtom1();
-			Atom atom2 = nextEvent.getAtom2();
-			atom1.setStartPos(atom1.getPos(nextEvent.getTime()));
-			atom2.setStartPos(atom2.getPos(nextEvent.getTime()));
-			atom1.collideAtom(nextEvent.getTime(), atom2);
-			eventAtoms = new Atom[] {atom1, atom2};
+			particles.moveTo(particle1, time);
+			particles.moveTo(particle2, time);
+			particles.collide(particle1, particle2, time);
 			break;
 		case WALL_COLLISION:
-			Atom atom = nextEvent.getAtom1();
-			atom.setStartPos(atom.getPos(nextEvent.getTime()));
-			atom.collideWall(nextEvent.getTime(), nextEvent.getWall(), width, height);
-			eventAtoms = new Atom[] {atom};
+			particles.moveTo(particle1, time);
+			particles.collideWall(particle1, nextEvent.getWall(), time);
 			break;
 		default:
-			eventAtoms = new Atom[] {};
-		}
-
-		
-		for (Atom a: eventAtoms) {
-			lastUpdated.put(a, nextEvent.getTime());
-			events.add(new CollisionEvent(a, a.getWallCollisionTime(width, height), nextEvent.getTime()));
-			for (Atom other : atoms) {
-				if (other != a) {
-					float collisionTime = a.getColitionTime(other);
-					if (collisionTime != Float.POSITIVE_INFINITY) 
-						events.add(new CollisionEvent(a, other, collisionTime, nextEvent.getTime()));
+			break;
+		}
+		if (!eventPerAtom)
+			recycleEvent(nextEvent);
+
+		this.time = time;
+		diff.time = time;
+		diff.count = 0;
+		scheduleEvents(particle1);
+		diff.add(particle1, particles);
+		if (particle2 >= 0) {
+			scheduleEvents(particle2);
+			diff.add(particle2, particles);
+		}
+		if (metrics != null)
+			metrics.eventHandled(time, polledEvents, staleEvents, events.size());
+	}
+
+	private void scheduleEvents(int particle) {
+		if (eventPerAtom) {
+			predictNextEvent(particle);
+			return;
+		}
+
+		addWallCollision(particle);
+		if (grid == null) {
+			for (int other = 0; other < particles.size(); other++) {
+				if (other != particle)
+					addParticleCollision(particle, other);
+			}
+		} else {
+			int cells = grid.getNeighbourCells(grid.getCell(particle), -1, neighbourCells);
+			for (int c = 0; c < cells; c++) {
+				for (int other = grid.getFirst(neighbourCells[c]); other >= 0; other = grid.getNext(other)) {
+					if (other != particle)
+						addParticleCollision(particle, other);
 				}
 			}
+			addCellCrossing(particle);
 		}
-		
-		return new SimulationDiffrence(nextEvent.getTime(), copyAtoms(eventAtoms));
 	}
-	
-	private Atom[] copyAtoms(Atom[] atoms) {
-		Atom[] res = new Atom[atoms.length];
-		for (int i = 0; i < atoms.length; i++) {
-			res[i] = atoms[i].clone();
-		}
-		return res;
+
+	/**
+	 * The live particle state. Only safe to read from the thread running the simulation.
+	 * When the box is split into sectors some particles may already be past the time of
+	 * the last event handed out.
+	 */
+	public ParticleStore getParticles() {
+		return particles;
+	}
+
+	/**
+	 * The seed the particles were created from, which recreates this run when given to
+	 * another simulation with the same settings.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * The time of the last event handed out, or of the checkpoint the simulation was
+	 * restored from.
+	 */
+	public float getTime() {
+		return time;
+	}
+
+	/**
+	 * How many of the particles are light atoms, the first ones.
+	 */
+	public int getLightAtoms() {
+		return lightAtoms;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Sets the metrics every handled event is counted in, or {@code null} to count none.
+	 */
+	public void setMetrics(SimulationMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public SimulationMetrics getMetrics() {
+		return metrics;
+	}
+
+	public ParticleStore getParticlesClone() {
+		return particles.copy();
 	}
-	
-	public Atom[] getAtomsClone() {
-		Atom[] clones = new Atom[atoms.length];
-		for (int i = 0; i < atoms.length; i++) {
-			clones[i] = atoms[i].clone();
+
+	/**
+	 * Scratch space and an event buffer for predicting events off the simulation thread.
+	 * Each thread needs its own scanner.
+	 */
+	private class EventScanner {
+		private final WallCollision wallCollision = new WallCollision(0, null);
+		private final CellCrossing cellCrossing = new CellCrossing(0, 0);
+		private final int[] neighbourCells = new int[9];
+		private CollisionEvent[] buffer = new CollisionEvent[4 * SETUP_BLOCK_SIZE];
+		private int count;
+
+		/**
+		 * Buffers the wall collision and cell crossing of the particle and its collisions
+		 * with every particle of a lower index, so that each pair is predicted once.
+		 */
+		void scanFirstEvents(int particle) {
+			particles.getWallCollisionTime(particle, width, height, wallCollision);
+			if (wallCollision.time != Float.POSITIVE_INFINITY) {
+				CollisionEvent event = new CollisionEvent();
+				event.setWallCollision(particle, wallCollision, particles);
+				buffer(event);
+			}
+
+			if (grid == null) {
+				for (int other = 0; other < particle; other++) {
+					bufferParticleCollision(other, particle);
+				}
+				return;
+			}
+			int cells = grid.getNeighbourCells(grid.getCell(particle), -1, neighbourCells);
+			for (int c = 0; c < cells; c++) {
+				for (int other = grid.getFirst(neighbourCells[c]); other >= 0; other = grid.getNext(other)) {
+					if (other < particle)
+						bufferParticleCollision(other, particle);
+				}
+			}
+			grid.getCellCrossingTime(particle, particles, cellCrossing);
+			if (cellCrossing.time != Float.POSITIVE_INFINITY) {
+				CollisionEvent event = new CollisionEvent();
+				event.setCellCrossing(particle, cellCrossing, particles);
+				buffer(event);
+			}
+		}
+
+		void predictFirstEvent(int particle) {
+			CollisionEvent event = new CollisionEvent();
+			particleEvents[particle] = event;
+			predictEarliestEvent(particle, event);
+			buffer(event);
+		}
+
+		void predictEarliestEvent(int particle, CollisionEvent event) {
+			event.setWallCollision(particle, particles.getWallCollisionTime(particle, width, height, wallCollision), particles);
+			if (grid == null) {
+				for (int other = 0; other < particles.size(); other++) {
+					if (other != particle)
+						predictParticleCollision(event, other);
+				}
+			} else {
+				grid.getCellCrossingTime(particle, particles, cellCrossing);
+				if (cellCrossing.time < event.getTime())
+					event.setCellCrossing(particle, cellCrossing, particles);
+				int cells = grid.getNeighbourCells(grid.getCell(particle), -1, neighbourCells);
+				for (int c = 0; c < cells; c++) {
+					for (int other = grid.getFirst(neighbourCells[c]); other >= 0; other = grid.getNext(other)) {
+						if (other != particle)
+							predictParticleCollision(event, other);
+					}
+				}
+			}
+		}
+
+		private void bufferParticleCollision(int particle, int other) {
+			float time = particles.getColitionTime(particle, other);
+			if (time != Float.POSITIVE_INFINITY) {
+				CollisionEvent event = new CollisionEvent();
+				event.setParticleCollision(particle, other, time, particles);
+				buffer(event);
+			}
+		}
+
+		private void buffer(CollisionEvent event) {
+			if (count == buffer.length)
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			buffer[count++] = event;
 		}
-		
-		return clones;
 	}
-	
+
+	/**
+	 * The new trajectories of the particles changed by one event.
+	 */
 	public static class SimulationDiffrence {
 		public float time;
-		public Atom[] atoms;
-		
-		public SimulationDiffrence(float time, Atom[] atoms) {
-			this.time = time;
-			this.atoms = atoms;
+		public int count;
+		public int[] ids = new int[2];
+		public float[] x = new float[2], y = new float[2];
+		public float[] vx = new float[2], vy = new float[2];
+
+		public void add(int id, ParticleStore particles) {
+			ids[count] = id;
+			x[count] = particles.getX(id, time);
+			y[count] = particles.getY(id, time);
+			vx[count] = particles.getVelX(id);
+			vy[count] = particles.getVelY(id);
+			count++;
+		}
+
+		/**
+		 * Makes room for the new states of {@code capacity} particles, for a diff that
+		 * carries more than one event, such as a keyframe.
+		 */
+		public void ensureCapacity(int capacity) {
+			if (ids.length >= capacity)
+				return;
+			ids = new int[capacity];
+			x = new float[capacity];
+			y = new float[capacity];
+			vx = new float[capacity];
+			vy = new float[capacity];
+		}
+
+		public void applyTo(ParticleStore particles) {
+			for (int i = 0; i < count; i++) {
+				particles.setState(ids[i], x[i], y[i], vx[i], vy[i], time);
+			}
+		}
+
+		/**
+		 * Applies the diff and updates {@code observables}, which may be {@code null}.
+		 */
+		public void applyTo(ParticleStore particles, Observables observables) {
+			if (observables == null) {
+				applyTo(particles);
+				return;
+			}
+			for (int i = 0; i < count; i++) {
+				observables.beforeChange(ids[i]);
+				particles.setState(ids[i], x[i], y[i], vx[i], vy[i], time);
+				observables.afterChange(ids[i]);
+			}
 		}
 	}
 
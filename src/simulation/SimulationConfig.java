@@ -0,0 +1,182 @@
+package simulation;
+
+import simulation.EventQueue.EventQueueType;
+import simulation.InitialState.Placement;
+
+/**
+ * Everything a {@link Simulation} is created from, fixed once the config is made, so
+ * that any number of simulations can run side by side with their own settings.
+ * {@link #fromConstants} takes the current values of {@link Constants}; the
+ * {@code with} methods return a copy with one setting changed.
+ */
+public final class SimulationConfig {
+
+	private final int nLightAtoms, nHeavyAtoms;
+	private final int lightRadius, heavyRadius;
+	private final int lightMass, heavyMass;
+	private final float lightMaxStartVel, heavyMaxStartVel;
+	private final int width, height;
+	private final long seed;
+	private final Placement placement;
+	private final boolean useCellGrid;
+	private final EventQueueType eventQueue;
+	private final boolean oneEventPerAtom;
+	private final boolean parallelSetup;
+	private final int sectors;
+
+	private SimulationConfig(int nLightAtoms, int nHeavyAtoms, int lightRadius, int heavyRadius, int lightMass,
+			int heavyMass, float lightMaxStartVel, float heavyMaxStartVel, int width, int height, long seed,
+			Placement placement, boolean useCellGrid, EventQueueType eventQueue, boolean oneEventPerAtom,
+			boolean parallelSetup, int sectors) {
+		this.nLightAtoms = nLightAtoms;
+		this.nHeavyAtoms = nHeavyAtoms;
+		this.lightRadius = lightRadius;
+		this.heavyRadius = heavyRadius;
+		this.lightMass = lightMass;
+		this.heavyMass = heavyMass;
+		this.lightMaxStartVel = lightMaxStartVel;
+		this.heavyMaxStartVel = heavyMaxStartVel;
+		this.width = width;
+		this.height = height;
+		this.seed = seed;
+		this.placement = placement;
+		this.useCellGrid = useCellGrid;
+		this.eventQueue = eventQueue;
+		this.oneEventPerAtom = oneEventPerAtom;
+		this.parallelSetup = parallelSetup;
+		this.sectors = sectors;
+	}
+
+	/**
+	 * The settings in {@link Constants} as they are now, for a box of the given size.
+	 */
+	public static SimulationConfig fromConstants(int width, int height, long seed) {
+		return new SimulationConfig(Constants.NUMBER_OF_LIGHT_ATOMS, Constants.NUMBER_OF_HEAVY_ATOMS,
+				Constants.LIGHT_ATOM_RADIUS, Constants.HEAVY_ATOM_RADIUS, Constants.LIGHT_MASS, Constants.HEAVY_MASS,
+				Constants.LIGHT_MAX_START_VEL, Constants.HEAVY_MAX_START_VEL, width, height, seed,
+				Constants.INITIAL_PLACEMENT, Constants.USE_CELL_GRID, Constants.EVENT_QUEUE, Constants.ONE_EVENT_PER_ATOM,
+				Constants.PARALLEL_SETUP, Constants.SIMULATION_SECTORS);
+	}
+
+	public SimulationConfig withAtoms(int nLightAtoms, int nHeavyAtoms) {
+		return new SimulationConfig(nLightAtoms, nHeavyAtoms, lightRadius, heavyRadius, lightMass, heavyMass,
+				lightMaxStartVel, heavyMaxStartVel, width, height, seed, placement, useCellGrid, eventQueue,
+				oneEventPerAtom, parallelSetup, sectors);
+	}
+
+	public SimulationConfig withSize(int width, int height) {
+		return new SimulationConfig(nLightAtoms, nHeavyAtoms, lightRadius, heavyRadius, lightMass, heavyMass,
+				lightMaxStartVel, heavyMaxStartVel, width, height, seed, placement, useCellGrid, eventQueue,
+				oneEventPerAtom, parallelSetup, sectors);
+	}
+
+	public SimulationConfig withSeed(long seed) {
+		return new SimulationConfig(nLightAtoms, nHeavyAtoms, lightRadius, heavyRadius, lightMass, heavyMass,
+				lightMaxStartVel, heavyMaxStartVel, width, height, seed, placement, useCellGrid, eventQueue,
+				oneEventPerAtom, parallelSetup, sectors);
+	}
+
+	public SimulationConfig withPlacement(Placement placement) {
+		return new SimulationConfig(nLightAtoms, nHeavyAtoms, lightRadius, heavyRadius, lightMass, heavyMass,
+				lightMaxStartVel, heavyMaxStartVel, width, height, seed, placement, useCellGrid, eventQueue,
+				oneEventPerAtom, parallelSetup, sectors);
+	}
+
+	public SimulationConfig withParallelSetup(boolean parallelSetup) {
+		return new SimulationConfig(nLightAtoms, nHeavyAtoms, lightRadius, heavyRadius, lightMass, heavyMass,
+				lightMaxStartVel, heavyMaxStartVel, width, height, seed, placement, useCellGrid, eventQueue,
+				oneEventPerAtom, parallelSetup, sectors);
+	}
+
+	public SimulationConfig withCellGrid(boolean useCellGrid) {
+		return new SimulationConfig(nLightAtoms, nHeavyAtoms, lightRadius, heavyRadius, lightMass, heavyMass,
+				lightMaxStartVel, heavyMaxStartVel, width, height, seed, placement, useCellGrid, eventQueue,
+				oneEventPerAtom, parallelSetup, sectors);
+	}
+
+	public SimulationConfig withEventQueue(EventQueueType eventQueue) {
+		return new SimulationConfig(nLightAtoms, nHeavyAtoms, lightRadius, heavyRadius, lightMass, heavyMass,
+				lightMaxStartVel, heavyMaxStartVel, width, height, seed, placement, useCellGrid, eventQueue,
+				oneEventPerAtom, parallelSetup, sectors);
+	}
+
+	public SimulationConfig withOneEventPerAtom(boolean oneEventPerAtom) {
+		return new SimulationConfig(nLightAtoms, nHeavyAtoms, lightRadius, heavyRadius, lightMass, heavyMass,
+				lightMaxStartVel, heavyMaxStartVel, width, height, seed, placement, useCellGrid, eventQueue,
+				oneEventPerAtom, parallelSetup, sectors);
+	}
+
+	public SimulationConfig withSectors(int sectors) {
+		return new SimulationConfig(nLightAtoms, nHeavyAtoms, lightRadius, heavyRadius, lightMass, heavyMass,
+				lightMaxStartVel, heavyMaxStartVel, width, height, seed, placement, useCellGrid, eventQueue,
+				oneEventPerAtom, parallelSetup, sectors);
+	}
+
+	public int getLightAtoms() {
+		return nLightAtoms;
+	}
+
+	public int getHeavyAtoms() {
+		return nHeavyAtoms;
+	}
+
+	public int getLightRadius() {
+		return lightRadius;
+	}
+
+	public int getHeavyRadius() {
+		return heavyRadius;
+	}
+
+	public int getLightMass() {
+		return lightMass;
+	}
+
+	public int getHeavyMass() {
+		return heavyMass;
+	}
+
+	public float getLightMaxStartVel() {
+		return lightMaxStartVel;
+	}
+
+	public float getHeavyMaxStartVel() {
+		return heavyMaxStartVel;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public Placement getPlacement() {
+		return placement;
+	}
+
+	public boolean useCellGrid() {
+		return useCellGrid;
+	}
+
+	public EventQueueType getEventQueue() {
+		return eventQueue;
+	}
+
+	public boolean isOneEventPerAtom() {
+		return oneEventPerAtom;
+	}
+
+	public boolean isParallelSetup() {
+		return parallelSetup;
+	}
+
+	public int getSectors() {
+		return sectors;
+	}
+}
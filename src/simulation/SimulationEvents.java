@@ -0,0 +1,89 @@
+package simulation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The JFR events of the simulation and the renderer. The per-event ones are disabled by
+ * default since there are millions of them a second, turn them on in a JFR settings file
+ * to see where an event spends its time. Every event is only made while its type is
+ * enabled, see {@link #ADVANCE}, so that a disabled one does not allocate.
+ */
+final class SimulationEvents {
+
+	// Checked before an event of the type is made.
+	static final EventType ADVANCE = EventType.getEventType(Advance.class);
+	static final EventType NEXT_EVENT = EventType.getEventType(NextEvent.class);
+	static final EventType HANDOFF_WAIT = EventType.getEventType(HandoffWait.class);
+	static final EventType FRAME = EventType.getEventType(Frame.class);
+
+	private SimulationEvents() {
+	}
+
+	@Name("simulation.Advance")
+	@Label("Advance Simulation")
+	@Category("Simulation")
+	@Description("Handling one event, including the cell crossings before it")
+	@Enabled(false)
+	@StackTrace(false)
+	static class Advance extends Event {
+		@Label("Simulated Time")
+		float time;
+
+		@Label("Particles")
+		int particles;
+	}
+
+	@Name("simulation.NextEvent")
+	@Label("Next Event")
+	@Category("Simulation")
+	@Description("Taking the next valid event from the queue")
+	@Enabled(false)
+	@StackTrace(false)
+	static class NextEvent extends Event {
+		@Label("Stale Events")
+		@Description("Events taken from the queue that were no longer valid")
+		int stale;
+
+		@Label("Queue Depth")
+		int queueDepth;
+	}
+
+	@Name("simulation.HandoffWait")
+	@Label("Handoff Wait")
+	@Category("Simulation")
+	@Description("The simulation waiting for the renderer to make room for more events")
+	@Threshold("1 ms")
+	@StackTrace(false)
+	static class HandoffWait extends Event {
+		@Label("Queued Events")
+		int queued;
+	}
+
+	@Name("simulation.Frame")
+	@Label("Frame")
+	@Category("Simulation")
+	@Description("Drawing one frame")
+	@StackTrace(false)
+	static class Frame extends Event {
+		@Label("Simulated Time")
+		float time;
+
+		@Label("Particles")
+		int particles;
+
+		@Label("Events Applied")
+		int eventsApplied;
+
+		@Label("Stalled")
+		@Description("Drawn at an earlier time than planned, as the events were not there yet")
+		boolean stalled;
+	}
+}
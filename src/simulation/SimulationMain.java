@@ -7,37 +7,71 @@ import java.awt.MenuItem;
 import java.awt.MenuShortcut;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.ItemEvent;
 import java.awt.event.KeyEvent;
-import java.util.ArrayList;
-import java.util.Hashtable;
-import java.util.LinkedList;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 
 import processing.awt.PSurfaceAWT;
 import processing.core.PApplet;
-import processing.core.PVector;
-import simulation.Simulation.SimulationDiffrence;
+import simulation.EventQueue.EventQueueType;
+import simulation.InitialState.Placement;
 
 public class SimulationMain extends PApplet {
 	
-	private BlockingQueue<SimulationDiffrence> snapshotQueue;
+	private static final int TIMELINE_HEIGHT = 12;
+	private static final int SEEK_STEP = 1000;
+	private static final int PARTICLE_COLOR = 0xFFFFFFFF;
+	private static final int SELECTED_COLOR = 0xFFF4C842;
+	private static final int HOVER_COLOR = 0xFF00F6FF;
+	
+	// The port of the simulation to draw from another process, -1 to run it here.
+	private static int connectPort = -1;
+	
+	private DiffRingBuffer snapshotQueue;
+	// The events drawn, snapshotQueue, client or the recording being replayed.
+	private DiffSource source;
+	private EventLogPlayer player;
+	// Null when drawing from another process, client is then.
 	private SimulationThread simThread;
-	private Atom[] atoms;
-	private SimulationDiffrence nextUpdate;
+	private DiffClient client;
+	// The counters of simThread, or of the frames alone when drawing from another process.
+	private SimulationMetrics metrics;
+	private ParticleStore particles;
 	private boolean paused;
 	private int time;
 	
-	private Hashtable<Atom, Integer> selected;
-	private ArrayList<LinkedList<PVector>> selectedTrails;
-	private Hashtable<Atom, Integer> indexMapping;
+	private Selection selection;
 	
 	private float fpsCap;
+	// The seed of the running simulation.
+	private long seed;
 	private CheckboxMenuItem hideSmall;
+	private CheckboxMenuItem cellGrid;
+	private CheckboxMenuItem eventPerAtom;
+	private CheckboxMenuItem[] eventQueues;
+	private CheckboxMenuItem[] placements;
+	private CheckboxMenuItem record;
+	private CheckboxMenuItem replay;
+	private CheckboxMenuItem batchedRendering;
+	private CheckboxMenuItem showMetrics;
+	
+	private DiscRasterizer rasterizer = new DiscRasterizer();
+	// Where the particles were drawn in the last frame, for picking them with the mouse.
+	private ScreenGrid screenGrid = new ScreenGrid();
+	private boolean boxSelecting;
+	
+	// Kept up to date as the events are applied, see Observables.
+	private Observables observables = new Observables();
+	private Observables.KineticEnergy kineticEnergy = observables.register(new Observables.KineticEnergy());
+	private Observables.Temperature temperature = observables.register(new Observables.Temperature());
+	private int boxX, boxY;
 	
 	
 	@Override
@@ -52,13 +86,34 @@ public class SimulationMain extends PApplet {
 		MenuItem pause = new MenuItem("Pause", new MenuShortcut(KeyEvent.VK_P));
 		MenuItem reset = new MenuItem("Reset", new MenuShortcut(KeyEvent.VK_SPACE));
 		
-		quit.addActionListener((ActionEvent e) -> {simThread.terminate(); exit();});
+		quit.addActionListener((ActionEvent e) -> {if (simThread != null) simThread.terminate(); exit();});
 		pause.addActionListener((ActionEvent e) -> paused = !paused);
 		reset.addActionListener((ActionEvent e) -> reset()); 
 		
+		record = new CheckboxMenuItem("Record events", false);
+		record.addItemListener((ItemEvent e) -> toggleRecording());
+		
+		replay = new CheckboxMenuItem("Replay recording", false);
+		replay.addItemListener((ItemEvent e) -> toggleReplay());
+		
+		MenuItem saveCheckpoint = new MenuItem("Save checkpoint");
+		saveCheckpoint.addActionListener((ActionEvent e) -> saveCheckpoint());
+		
+		MenuItem loadCheckpoint = new MenuItem("Load checkpoint");
+		loadCheckpoint.addActionListener((ActionEvent e) -> loadCheckpoint());
+		
 		simulation.add(quit);
 		simulation.add(pause);
 		simulation.add(reset);
+		simulation.add(record);
+		simulation.add(replay);
+		// The simulation in another process is not ours to record or save.
+		record.setEnabled(connectPort < 0);
+		saveCheckpoint.setEnabled(connectPort < 0);
+		loadCheckpoint.setEnabled(connectPort < 0);
+		
+		simulation.add(saveCheckpoint);
+		simulation.add(loadCheckpoint);
 		mb.add(simulation);
 		
 		Menu setting = new Menu("Settings");
@@ -77,10 +132,50 @@ public class SimulationMain extends PApplet {
 		MenuItem stepTime = new MenuItem("Step time", new MenuShortcut(KeyEvent.VK_T));
 		stepTime.setActionCommand("step");
 		
+		MenuItem prefetchTime = new MenuItem("Prefetch time");
+		prefetchTime.setActionCommand("prefetch");
+		
+		MenuItem randomSeed = new MenuItem("Seed");
+		randomSeed.setActionCommand("seed");
+		
 		hideSmall = new CheckboxMenuItem("Hide small particles", false);
 		
+		batchedRendering = new CheckboxMenuItem("Batched rendering", Constants.BATCHED_RENDERING);
+		batchedRendering.addItemListener((ItemEvent e) -> Constants.BATCHED_RENDERING = batchedRendering.getState());
+		
+		showMetrics = new CheckboxMenuItem("Metrics overlay", Constants.SHOW_METRICS);
+		showMetrics.addItemListener((ItemEvent e) -> Constants.SHOW_METRICS = showMetrics.getState());
+		
+		cellGrid = new CheckboxMenuItem("Cell list collision detection", Constants.USE_CELL_GRID);
+		cellGrid.addItemListener((ItemEvent e) -> {Constants.USE_CELL_GRID = cellGrid.getState(); reset();});
+		
+		eventPerAtom = new CheckboxMenuItem("One event per particle", Constants.ONE_EVENT_PER_ATOM);
+		eventPerAtom.addItemListener((ItemEvent e) -> {Constants.ONE_EVENT_PER_ATOM = eventPerAtom.getState(); reset();});
+		
+		Menu eventQueue = new Menu("Event queue");
+		eventQueues = new CheckboxMenuItem[EventQueueType.values().length];
+		for (EventQueueType type : EventQueueType.values()) {
+			CheckboxMenuItem item = new CheckboxMenuItem(type.name(), type == Constants.EVENT_QUEUE);
+			item.addItemListener((ItemEvent e) -> {Constants.EVENT_QUEUE = type; updateEventQueueItems(); reset();});
+			eventQueues[type.ordinal()] = item;
+			eventQueue.add(item);
+		}
+		
+		Menu placement = new Menu("Initial placement");
+		placements = new CheckboxMenuItem[Placement.values().length];
+		for (Placement type : Placement.values()) {
+			CheckboxMenuItem item = new CheckboxMenuItem(type.name(), type == Constants.INITIAL_PLACEMENT);
+			item.addItemListener((ItemEvent e) -> {Constants.INITIAL_PLACEMENT = type; updatePlacementItems(); reset();});
+			placements[type.ordinal()] = item;
+			placement.add(item);
+		}
+		
 		MenuItem resetValues = new MenuItem("Reset Settings", new MenuShortcut(KeyEvent.VK_Z));
-		resetValues.addActionListener((ActionEvent e) -> {Constants.RESET(); reset();});
+		resetValues.addActionListener((ActionEvent e) -> {Constants.RESET(); cellGrid.setState(Constants.USE_CELL_GRID);
+														  eventPerAtom.setState(Constants.ONE_EVENT_PER_ATOM);
+														  batchedRendering.setState(Constants.BATCHED_RENDERING);
+														  showMetrics.setState(Constants.SHOW_METRICS);
+														  updateEventQueueItems(); updatePlacementItems(); reset();});
 		
 		
 		MenuItemListener listener = new MenuItemListener();
@@ -88,12 +183,22 @@ public class SimulationMain extends PApplet {
 		trailLimit.addActionListener(listener);
 		frameRate.addActionListener(listener);
 		stepTime.addActionListener(listener);
+		prefetchTime.addActionListener(listener);
+		randomSeed.addActionListener(listener);
 		
 		globalSettings.add(setDimentions);
 		globalSettings.add(trailLimit);
 		globalSettings.add(frameRate);
 		globalSettings.add(stepTime);
+		globalSettings.add(prefetchTime);
+		globalSettings.add(randomSeed);
 		globalSettings.add(hideSmall);
+		globalSettings.add(batchedRendering);
+		globalSettings.add(showMetrics);
+		globalSettings.add(cellGrid);
+		globalSettings.add(eventPerAtom);
+		globalSettings.add(eventQueue);
+		globalSettings.add(placement);
 		globalSettings.add(resetValues);
 		
 		Menu radius = new Menu("Set radisus");
@@ -127,6 +232,123 @@ public class SimulationMain extends PApplet {
 		return mb;
 	}
 	
+	private void toggleRecording() {
+		if (record.getState()) {
+			String file = (String) JOptionPane.showInputDialog(getFrame(), "Type the file to record the events to.\n"
+					+ "The simulation restarts and every event is recorded until recording is turned off.",
+					"Record events", JOptionPane.PLAIN_MESSAGE, null, null, "events.bin");
+			if (file == null || file.isEmpty()) {
+				record.setState(false);
+				return;
+			}
+			simThread.setRecordFile(Paths.get(file));
+		} else
+			simThread.setRecordFile(null);
+		reset();
+	}
+	
+	private void toggleReplay() {
+		if (!replay.getState()) {
+			reset();
+			return;
+		}
+		String file = (String) JOptionPane.showInputDialog(getFrame(), "Type the recording to replay.\n"
+				+ "Click or drag on the timeline at the bottom or use the arrow keys to seek.",
+				"Replay recording", JOptionPane.PLAIN_MESSAGE, null, null, "events.bin");
+		if (file == null || file.isEmpty()) {
+			replay.setState(false);
+			return;
+		}
+		try {
+			startReplay(new EventLogPlayer(Paths.get(file)));
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(getFrame(), "Could not open " + file + ": " + e.getMessage(),
+					"Replay recording", JOptionPane.ERROR_MESSAGE);
+			replay.setState(false);
+		}
+	}
+	
+	private void saveCheckpoint() {
+		String file = (String) JOptionPane.showInputDialog(getFrame(), "Type the file to save the simulation to.\n"
+				+ "The simulation runs ahead of the screen, so the checkpoint is a little ahead too.",
+				"Save checkpoint", JOptionPane.PLAIN_MESSAGE, null, null, "checkpoint.bin");
+		if (file == null || file.isEmpty())
+			return;
+		simThread.requestCheckpoint(Paths.get(file)).whenComplete((saved, e) -> SwingUtilities.invokeLater(() -> {
+			if (e != null)
+				JOptionPane.showMessageDialog(getFrame(), "Could not save " + file + ": " + e.getMessage(),
+						"Save checkpoint", JOptionPane.ERROR_MESSAGE);
+			else
+				System.out.println("Saved the simulation at time " + saved + " to " + file);
+		}));
+	}
+	
+	private void loadCheckpoint() {
+		String file = (String) JOptionPane.showInputDialog(getFrame(), "Type the checkpoint to continue from.",
+				"Load checkpoint", JOptionPane.PLAIN_MESSAGE, null, null, "checkpoint.bin");
+		if (file == null || file.isEmpty())
+			return;
+		try {
+			restore(Checkpoint.read(Paths.get(file)));
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(getFrame(), "Could not load " + file + ": " + e.getMessage(),
+					"Load checkpoint", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+	
+	private synchronized void startReplay(EventLogPlayer player) {
+		stopReplay();
+		this.player = player;
+		source = player;
+		particles = player.getParticles();
+		time = round(player.getStartTime());
+		
+		selection = new Selection(particles.size(), Constants.TRAIL_MAX_LENGTH);
+		screenGrid.clear();
+		observables.reset(particles);
+		
+		surface.setSize(player.getReader().getWidth(), player.getReader().getHeight());
+	}
+	
+	private void stopReplay() {
+		if (player == null)
+			return;
+		try {
+			player.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		player = null;
+		source = client != null ? client : snapshotQueue;
+	}
+	
+	private synchronized void seek(float to) {
+		to = constrain(to, player.getStartTime(), player.getEndTime());
+		try {
+			player.seek(to);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		time = round(to);
+		observables.reset(particles);
+		for (int i = 0; i < selection.size(); i++) {
+			selection.getTrail(i).clear();
+		}
+	}
+	
+	private void updateEventQueueItems() {
+		for (EventQueueType type : EventQueueType.values()) {
+			eventQueues[type.ordinal()].setState(type == Constants.EVENT_QUEUE);
+		}
+	}
+	
+	private void updatePlacementItems() {
+		for (Placement type : Placement.values()) {
+			placements[type.ordinal()].setState(type == Constants.INITIAL_PLACEMENT);
+		}
+	}
+	
 	private MenuItem[] getMenuItems(String text, String command, int shortcut, ActionListener a) {
 		MenuItem[] items = new MenuItem[2];
 		items[0] = new MenuItem("Small " + text, new MenuShortcut(shortcut));
@@ -152,160 +374,348 @@ public class SimulationMain extends PApplet {
 		getFrame().setMenuBar(createMenuBar());
 		
 		surface.setResizable(true);
-		snapshotQueue = new ArrayBlockingQueue<SimulationDiffrence>(Constants.GET_QUEUE_LIMIT());
-		simThread = new SimulationThread(snapshotQueue, Constants.NUMBER_OF_LIGHT_ATOMS, Constants.NUMBER_OF_HEAVY_ATOMS, width, height, this);
-		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
-		atoms = simThread.getAtoms();
-			
 		paused = false;
+		if (connectPort >= 0) {
+			if (!connect())
+				System.exit(1);
+			return;
+		}
+		snapshotQueue = new DiffRingBuffer(Constants.PREFETCH_CAPACITY);
+		seed = nextSeed();
+		simThread = new SimulationThread(snapshotQueue, Constants.NUMBER_OF_LIGHT_ATOMS, Constants.NUMBER_OF_HEAVY_ATOMS, width, height, seed);
+		Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+		particles = simThread.getParticles();
+		metrics = simThread.getMetrics();
+		source = snapshotQueue;
 		time = 0;
 		
-		createIndexMapping();
-		selected = new Hashtable<Atom, Integer>();
-		selectedTrails = new ArrayList<LinkedList<PVector>>();
+		selection = new Selection(particles.size(), Constants.TRAIL_MAX_LENGTH);
+		screenGrid.clear();
+		observables.reset(particles);
 		
 		simThread.start();
 		waitForLoad();
-		
+	}
+	
+	private synchronized void reset() {
+		if (client != null) {
+			// Starts over from the current state of the stream.
+			connect();
+			return;
+		}
+		stopReplay();
+		if (replay != null)
+			replay.setState(false);
+		// The ring, the particles and the selection are reused when they are large enough,
+		// so that a reset allocates next to nothing.
+		if (snapshotQueue.capacity() < Constants.PREFETCH_CAPACITY)
+			snapshotQueue = new DiffRingBuffer(Constants.PREFETCH_CAPACITY);
+		source = snapshotQueue;
+		seed = nextSeed();
 		try {
-			nextUpdate = snapshotQueue.take();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
+			particles = simThread.reset(snapshotQueue, particles, Constants.NUMBER_OF_LIGHT_ATOMS,
+					Constants.NUMBER_OF_HEAVY_ATOMS, width, height, seed);
+		} catch (IllegalArgumentException e) {
+			// Too many particles to place apart, which every later reset would run into too.
+			Constants.INITIAL_PLACEMENT = Placement.CENTRE;
+			updatePlacementItems();
+			SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(getFrame(),
+					e.getMessage() + ".\nThe particles start at the centre instead.", "Reset",
+					JOptionPane.WARNING_MESSAGE));
+			particles = simThread.reset(snapshotQueue, particles, Constants.NUMBER_OF_LIGHT_ATOMS,
+					Constants.NUMBER_OF_HEAVY_ATOMS, width, height, seed);
 		}
-		
+		time = 0;
+		startRun();
+	}
+	
+	private synchronized void restore(Checkpoint checkpoint) {
+		stopReplay();
+		if (replay != null)
+			replay.setState(false);
+		source = snapshotQueue;
+		seed = checkpoint.getSeed();
+		particles = simThread.restore(snapshotQueue, particles, checkpoint);
+		time = ceil(checkpoint.getTime());
+		surface.setSize(checkpoint.getWidth(), checkpoint.getHeight());
+		startRun();
 	}
 	
-	private void createIndexMapping() {
-		indexMapping = new Hashtable<Atom, Integer>();
-		for (int i = 0; i < atoms.length; i++) {
-			indexMapping.put(atoms[i], i);
+	/**
+	 * Connects to the simulation streamed on {@link #connectPort} and draws it from its
+	 * current state on, in place of the stream drawn so far.
+	 *
+	 * @return {@code false} if the connection failed
+	 */
+	private synchronized boolean connect() {
+		DiffClient connected;
+		try {
+			connected = new DiffClient(connectPort, Constants.PREFETCH_CAPACITY);
+		} catch (IOException e) {
+			System.err.println("Could not connect to port " + connectPort + ": " + e.getMessage());
+			return false;
 		}
-		return;
+		stopReplay();
+		if (replay != null)
+			replay.setState(false);
+		if (client != null) {
+			try {
+				client.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		client = connected;
+		source = client;
+		if (metrics == null)
+			metrics = new SimulationMetrics();
+		particles = client.getParticles();
+		time = floor(client.getStartTime());
+		
+		selection = new Selection(particles.size(), Constants.TRAIL_MAX_LENGTH);
+		screenGrid.clear();
+		observables.reset(particles);
+		
+		surface.setSize(client.getWidth(), client.getHeight());
+		System.out.println("Connected to port " + connectPort + " at time " + client.getStartTime());
+		return true;
 	}
 	
-	private synchronized void reset() {
-		snapshotQueue = new ArrayBlockingQueue<SimulationDiffrence>(Constants.GET_QUEUE_LIMIT());
-		atoms = simThread.reset(snapshotQueue, Constants.NUMBER_OF_LIGHT_ATOMS,
-				Constants.NUMBER_OF_HEAVY_ATOMS, width, height, this);
-
-		time = 0;
-		
-		createIndexMapping();
-		selected = new Hashtable<Atom, Integer>();
-		selectedTrails = new ArrayList<LinkedList<PVector>>();
+	/**
+	 * Starts drawing the run the simulation thread has just started.
+	 */
+	private void startRun() {
+		if (selection.capacity() == particles.size())
+			selection.clear();
+		else
+			selection = new Selection(particles.size(), Constants.TRAIL_MAX_LENGTH);
+		screenGrid.clear();
+		observables.reset(particles);
 		
 		waitForLoad();
-		
-		try {
-			nextUpdate = snapshotQueue.take();
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		}
+	}
+	
+	private static long nextSeed() {
+		return Constants.SIMULATION_SEED >= 0 ? Constants.SIMULATION_SEED : System.nanoTime();
 	}
 	
 	private void waitForLoad() {
-		System.out.print("Loading... ");
+		System.out.print("Seed " + seed + ", loading... ");
 		int start = millis();
 		while (!simThread.doneLoading()) {
-			synchronized(SimulationThread.LOCK) {
-				try {
-					SimulationThread.LOCK.wait(3000);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
+			delay(1);
 		}
 		System.out.println("Done! [" + (millis() - start) + " ms]");
 	}
 	
-	private float calcKeneticEnergy() {
-		float energy = 0;
-		for (Atom atom : atoms) {
-			energy += (atom.getMass() * atom.getVel().magSq())/2;
+	private String temperatureText() {
+		StringBuilder text = new StringBuilder("Temperature:");
+		for (int i = 0; i < temperature.getSpeciesCount(); i++) {
+			text.append("  m=").append(temperature.getMass(i)).append(": ").append(round((float) temperature.get(i) * 1000.0f) / 1000.0f);
 		}
-		return energy;
+		return text.toString();
 	}
 	
-	@SuppressWarnings("unused")
-	private PVector calcTotalMomentum() {
-		PVector tot = new PVector(0,0);
-		for (Atom atom : atoms) {
-			tot.add(PVector.mult(atom.getVel(), atom.getMass(), null));
+	private void drawMetrics() {
+		fill(0, 246, 255);
+		textSize(14);
+		// The simulation in another process keeps its counters to itself.
+		if (simThread != null) {
+			text("Events/s: " + round((float) metrics.getEventsPerSecond()), width - 220, 70);
+			text("Stale events: " + nf((float) metrics.getStaleEventRatio() * 100, 0, 1) + "%", width - 220, 90);
+			text("Queue depth: " + metrics.getQueueDepth(), width - 220, 110);
+			text("Producer lag: " + nf((float) metrics.getProducerLag(), 0, 1), width - 220, 130);
 		}
-		return tot;
+		text("Frame: " + nf((float) metrics.getFrameMillis(), 0, 2) + " ms", width - 220, 150);
+		text("Jitter: " + nf((float) metrics.getFrameJitterMillis(), 0, 2) + " ms", width - 220, 170);
+		text("Stalled frames: " + metrics.getStalledFrames(), width - 220, 190);
 	}
 	
 	@Override
 	public synchronized void draw() {
+		long frameStart = System.nanoTime();
+		SimulationEvents.Frame frameEvent = null;
+		if (SimulationEvents.FRAME.isEnabled()) {
+			frameEvent = new SimulationEvents.Frame();
+			frameEvent.begin();
+		}
 		background(51);
 		
+		int previousTime = time;
 		if (!paused) {
 			time += Constants.SIMULATION_TIME_STEPS;
 		}
-		
-		for (LinkedList<PVector> trail : selectedTrails) {
-			for (PVector pos : trail) {
-				stroke(0, 255, 0);
-				strokeWeight(3);
-				point(pos.x, pos.y);
+		if (player != null && time > player.getEndTime())
+			time = ceil(player.getEndTime());
+		// Within the prefetch time of the last event received.
+		if (source == client && !paused && time < client.getLatestTime() - Constants.PREFETCH_TIME)
+			time = floor(client.getLatestTime() - Constants.PREFETCH_TIME);
+		
+		// Every event up to the frame in one batch. When the simulation has not got that
+		// far yet, the frame shows the last complete state rather than wait for the rest.
+		int applied = 0;
+		try {
+			applied = source.applyUntil(particles, time, observables);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		boolean stalled = source.getCompleteTime() < time;
+		if (stalled)
+			time = max(previousTime, floor(source.getCompleteTime()));
+		
+		if (selection.getTrailLimit() != Constants.TRAIL_MAX_LENGTH)
+			selection.setTrailLimit(Constants.TRAIL_MAX_LENGTH);
+		stroke(0, 255, 0);
+		strokeWeight(3);
+		for (int i = 0; i < selection.size(); i++) {
+			TrailBuffer trail = selection.getTrail(i);
+			for (int j = 0; j < trail.size(); j++) {
+				point(trail.getX(j), trail.getY(j));
 			}
 		}		
-			
-		for (int i = (!hideSmall.getState()) ? 0 : Constants.NUMBER_OF_LIGHT_ATOMS;
-		     i < atoms.length; i++) {
-			Atom atom = atoms[i];
-			PVector pos = atom.getPos(time);
-			if (selected.containsKey(atom)) {
-				fill(244, 200, 66);
-				if (!paused)
-					selectedTrails.get(selected.get(atom)).add(pos);
-				while (Constants.TRAIL_MAX_LENGTH > 0 && selectedTrails.get(selected.get(atom)).size() > Constants.TRAIL_MAX_LENGTH) {
-					selectedTrails.get(selected.get(atom)).pop();
-				}
-			} else 
-				fill(255,255,255);			
-			stroke(0);
+		
+		int first = (!hideSmall.getState()) ? 0 : Constants.NUMBER_OF_LIGHT_ATOMS;
+		boolean batched = Constants.BATCHED_RENDERING;
+		if (batched)
+			loadPixels();
+		screenGrid.begin(width, height, particles);
+		for (int i = first; i < particles.size(); i++) {
+			float x = particles.getX(i, time);
+			float y = particles.getY(i, time);
+			screenGrid.add(i, x, y);
+			int fill = selection.contains(i) ? SELECTED_COLOR : PARTICLE_COLOR;
+			if (batched && rasterizer.canDraw(particles.getRadius(i)))
+				rasterizer.drawDisc(pixels, width, height, x, y, particles.getRadius(i), fill);
+			else if (!batched)
+				drawParticle(x, y, particles.getRadius(i), fill);
+		}
+		screenGrid.end();
+		if (batched) {
+			updatePixels();
+			// The discs too large for a sprite go on top.
+			for (int i = first; i < particles.size(); i++) {
+				if (!rasterizer.canDraw(particles.getRadius(i)))
+					drawParticle(screenGrid.getX(i), screenGrid.getY(i), particles.getRadius(i),
+							selection.contains(i) ? SELECTED_COLOR : PARTICLE_COLOR);
+			}
+		}
+		if (!paused) {
+			for (int i = 0; i < selection.size(); i++) {
+				int particle = selection.get(i);
+				if (particle >= first)
+					selection.getTrail(i).add(screenGrid.getX(particle), screenGrid.getY(particle));
+			}
+		}
+		
+		int hovered = screenGrid.pick(mouseX, mouseY);
+		if (hovered >= 0) {
+			noFill();
+			stroke(HOVER_COLOR);
+			strokeWeight(2);
+			ellipse(screenGrid.getX(hovered), screenGrid.getY(hovered), particles.getRadius(hovered) * 2 + 4, particles.getRadius(hovered) * 2 + 4);
+		}
+		if (boxSelecting) {
+			noFill();
+			stroke(HOVER_COLOR);
 			strokeWeight(1);
-			ellipse(pos.x, pos.y, atom.getRadius() * 2, atom.getRadius() * 2);
+			rect(boxX, boxY, mouseX - boxX, mouseY - boxY);
 		}
 		
 		fill(255, 0, 0);
 		textSize(30);
-		text("Total Kinetic Energy: " + round(calcKeneticEnergy() * 100.0f) / 100.0f, 30, height - 40);
+		text("Total Kinetic Energy: " + round((float) kineticEnergy.get() * 100.0f) / 100.0f, 30, height - 40);
+		textSize(16);
+		text(temperatureText(), 30, height - 80);
+		MsdAnalyzer analyzer = simThread == null ? null : simThread.getAnalyzer();
+		if (analyzer != null && player == null) {
+			double diffusion = analyzer.getDiffusionCoefficient();
+			text("Heavy diffusion coefficient: " + (Double.isNaN(diffusion) ? "not diffusive yet" : nf((float) diffusion, 0, 4)), 30, height - 100);
+		}
 		fill(0,246,255);
 		text("FPS: " + round(frameRate), width-150, 40);
-		
-		while (time > nextUpdate.time) {
-			updateAtoms(nextUpdate.atoms);
-			try {
-				nextUpdate = snapshotQueue.take();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
+		if (Constants.SHOW_METRICS)
+			drawMetrics();
+		if (source == client && client.hasEnded())
+			text("Stream ended", 30, 40);
+		
+		if (player != null)
+			drawTimeline();
+		
+		if (source == snapshotQueue)
+			simThread.setRenderTime(time);
+		metrics.frameRendered(frameStart, System.nanoTime() - frameStart, time, stalled);
+		if (frameEvent != null && frameEvent.shouldCommit()) {
+			frameEvent.time = time;
+			frameEvent.particles = particles.size();
+			frameEvent.eventsApplied = applied;
+			frameEvent.stalled = stalled;
+			frameEvent.commit();
 		}
 	}
 	
-	private void updateAtoms(Atom[] atomsToUpdate) {
-		for(Atom atom : atomsToUpdate) {
-			atoms[indexMapping.get(atom)] = atom;
-		}
+	private void drawParticle(float x, float y, int radius, int fill) {
+		fill(fill);
+		stroke(0);
+		strokeWeight(1);
+		ellipse(x, y, radius * 2, radius * 2);
+	}
+	
+	private void drawTimeline() {
+		float start = player.getStartTime();
+		float length = max(player.getEndTime() - start, 1);
+		noStroke();
+		fill(90);
+		rect(0, height - TIMELINE_HEIGHT, width, TIMELINE_HEIGHT);
+		fill(0, 246, 255);
+		rect(0, height - TIMELINE_HEIGHT, width * (time - start) / length, TIMELINE_HEIGHT);
+		textSize(16);
+		text("Replay " + time + " / " + round(player.getEndTime()), 30, 40);
+	}
+	
+	private void seekToMouse() {
+		seek(player.getStartTime() + (player.getEndTime() - player.getStartTime()) * constrain(mouseX / (float) width, 0, 1));
+	}
+	
+	@Override
+	public void keyPressed() {
+		if (player == null || key != CODED)
+			return;
+		if (keyCode == LEFT)
+			seek(time - SEEK_STEP);
+		else if (keyCode == RIGHT)
+			seek(time + SEEK_STEP);
+	}
+	
+	@Override
+	public void mouseDragged() {
+		if (player != null && !boxSelecting && mouseY >= height - TIMELINE_HEIGHT)
+			seekToMouse();
 	}
 	
 	@Override
 	public void mousePressed() {
-		PVector mousePos = new PVector(mouseX, mouseY);
-		for (Atom atom : atoms) {
-			if (PVector.sub(mousePos, atom.getPos(time), null).magSq() < atom.getRadius() * atom.getRadius()) {
-				if (selected.containsKey(atom)) {
-					int index = selected.remove(atom);
-					selectedTrails.remove(index);
-				} else
-					selected.put(atom, selectedTrails.size());
-					selectedTrails.add(new LinkedList<PVector>());
-			}
+		if (player != null && mouseY >= height - TIMELINE_HEIGHT) {
+			seekToMouse();
+			return;
+		}
+		int picked = screenGrid.pick(mouseX, mouseY);
+		if (picked >= 0)
+			selection.toggle(picked);
+		else {
+			boxSelecting = true;
+			boxX = mouseX;
+			boxY = mouseY;
 		}
 	}
 	
+	@Override
+	public void mouseReleased() {
+		if (!boxSelecting)
+			return;
+		boxSelecting = false;
+		screenGrid.forEachInRect(boxX, boxY, mouseX, mouseY, selection::add);
+	}
+	
 	@Override
 	public void frameRate(float fps) {
 		fpsCap = fps;
@@ -336,6 +746,14 @@ public class SimulationMain extends PApplet {
 			}
 		}
 		
+		private Long parseLong(String number) {
+			try {
+				return Long.parseLong(number.trim());
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		
 		private boolean dimentionsCondition(String string) {
 			return string.split(",").length == 2 && parseInt(string.split(",")[0]) > 0 && parseInt(string.split(",")[1]) > 0 ;
 		}
@@ -413,6 +831,18 @@ public class SimulationMain extends PApplet {
 						(String s) -> parseInt(s) >= 10, 
 						(String s) -> frameRate(parseInt(s)), false);
 				break;
+			case "prefetch":
+				makeInputDialog("New prefetch time", "Type how far in simulated time the simulation may run ahead of the animation.\n"
+						+ "A longer time smooths out slow stretches of the simulation at the cost of memory.", "" + round(Constants.PREFETCH_TIME),
+						(String s) -> parseInt(s) > 0,
+						(String s) -> Constants.PREFETCH_TIME = parseInt(s), false);
+				break;
+			case "seed":
+				makeInputDialog("Seed", "Type the seed of the simulation. The same seed and settings always give the same run.\n"
+						+ "A negative seed draws a new one at every reset.", "" + seed,
+						(String s) -> parseLong(s) != null,
+						(String s) -> Constants.SIMULATION_SEED = parseLong(s));
+				break;
 			case "step":
 				makeInputDialog("New simulation time step", "Type a new time step in ms. The time step is how much time passes each frame.\n"
 						+ "Note: The time step is only used for the animation and has no effect on the accuracy of the simulation.\n"
@@ -428,7 +858,41 @@ public class SimulationMain extends PApplet {
 	}
 
 	public static void main(String[] args) {
+		if (Arrays.asList(args).contains("--headless")) {
+			HeadlessRunner.main(args);
+			return;
+		}
+		try {
+			parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: SimulationMain [--seed N] [--connect PORT] | --headless ...");
+			System.exit(1);
+		}
 		PApplet.main("simulation.SimulationMain");
 	}
 
+	private static void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for " + option);
+			String value = args[++i];
+			try {
+				switch (option) {
+				case "--seed":
+					Constants.SIMULATION_SEED = Long.parseLong(value);
+					break;
+				case "--connect":
+					connectPort = Integer.parseInt(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+			}
+		}
+	}
+
 }
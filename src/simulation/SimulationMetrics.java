@@ -0,0 +1,174 @@
+package simulation;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of a running simulation and its renderer, readable from any thread and over
+ * JMX. Each counter has a single writer that publishes it with an ordered store, which
+ * costs no more than a plain store on the hot path. The rates are worked out by the
+ * readers, at most once a second.
+ */
+public class SimulationMetrics implements SimulationMetricsMBean {
+
+	private static final VarHandle EVENTS, POLLED_EVENTS, STALE_EVENTS, QUEUE_DEPTH, PRODUCED_TIME;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			EVENTS = lookup.findVarHandle(SimulationMetrics.class, "events", long.class);
+			POLLED_EVENTS = lookup.findVarHandle(SimulationMetrics.class, "polledEvents", long.class);
+			STALE_EVENTS = lookup.findVarHandle(SimulationMetrics.class, "staleEvents", long.class);
+			QUEUE_DEPTH = lookup.findVarHandle(SimulationMetrics.class, "queueDepth", int.class);
+			PRODUCED_TIME = lookup.findVarHandle(SimulationMetrics.class, "producedTime", float.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private static final long RATE_INTERVAL = 1_000_000_000L;
+	// How much of the difference between two frame intervals goes into the jitter, the
+	// gain RTP uses for the jitter of packet arrivals.
+	private static final double JITTER_GAIN = 1 / 16.0;
+
+	// Written by the simulation thread.
+	private long events;
+	private long polledEvents;
+	private long staleEvents;
+	private int queueDepth;
+	private float producedTime;
+
+	// Written by the renderer once per frame.
+	private volatile float renderedTime;
+	private volatile long frameNanos;
+	private volatile double frameJitterNanos;
+	private volatile long stalledFrames;
+	// Only used by the renderer.
+	private long lastFrameStart, lastFrameInterval;
+
+	// The rates over the last interval, worked out under the lock by whoever reads them.
+	private long windowStart = System.nanoTime();
+	private long windowEvents, windowPolled, windowStale;
+	private double eventsPerSecond, staleRatio;
+
+	/**
+	 * Simulation thread. Counts a handled event at {@code time}, for which
+	 * {@code polled} events were taken from the queue, {@code stale} of them no longer
+	 * valid.
+	 */
+	public void eventHandled(float time, int polled, int stale, int queueDepth) {
+		// Only this thread writes the counters, so the increments need no atomic update.
+		EVENTS.setRelease(this, events + 1);
+		POLLED_EVENTS.setRelease(this, polledEvents + polled);
+		STALE_EVENTS.setRelease(this, staleEvents + stale);
+		QUEUE_DEPTH.setRelease(this, queueDepth);
+		PRODUCED_TIME.setRelease(this, time);
+	}
+
+	/**
+	 * Renderer. Counts a frame started at {@code start}, from {@link System#nanoTime()},
+	 * that took {@code nanos} to draw the particles at {@code time}, which is earlier than
+	 * planned if it {@code stalled} for the events to be there.
+	 */
+	public void frameRendered(long start, long nanos, float time, boolean stalled) {
+		if (lastFrameStart != 0) {
+			long interval = start - lastFrameStart;
+			if (lastFrameInterval != 0)
+				frameJitterNanos += (Math.abs(interval - lastFrameInterval) - frameJitterNanos) * JITTER_GAIN;
+			lastFrameInterval = interval;
+		}
+		lastFrameStart = start;
+		frameNanos = nanos;
+		renderedTime = time;
+		if (stalled)
+			stalledFrames++;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as
+	 * {@code simulation:type=SimulationMetrics}, replacing earlier ones.
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("simulation:type=SimulationMetrics");
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+			server.registerMBean(this, name);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public long getEvents() {
+		return (long) EVENTS.getAcquire(this);
+	}
+
+	@Override
+	public long getPolledEvents() {
+		return (long) POLLED_EVENTS.getAcquire(this);
+	}
+
+	@Override
+	public long getStaleEvents() {
+		return (long) STALE_EVENTS.getAcquire(this);
+	}
+
+	@Override
+	public synchronized double getEventsPerSecond() {
+		updateRates();
+		return eventsPerSecond;
+	}
+
+	@Override
+	public synchronized double getStaleEventRatio() {
+		updateRates();
+		return staleRatio;
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return (int) QUEUE_DEPTH.getAcquire(this);
+	}
+
+	@Override
+	public double getProducerLag() {
+		return (float) PRODUCED_TIME.getAcquire(this) - renderedTime;
+	}
+
+	@Override
+	public double getFrameMillis() {
+		return frameNanos / 1e6;
+	}
+
+	@Override
+	public double getFrameJitterMillis() {
+		return frameJitterNanos / 1e6;
+	}
+
+	@Override
+	public long getStalledFrames() {
+		return stalledFrames;
+	}
+
+	private void updateRates() {
+		long now = System.nanoTime();
+		long elapsed = now - windowStart;
+		if (elapsed < RATE_INTERVAL)
+			return;
+		long events = getEvents();
+		long polled = getPolledEvents();
+		long stale = getStaleEvents();
+		eventsPerSecond = (events - windowEvents) * 1e9 / elapsed;
+		staleRatio = polled == windowPolled ? 0 : (double) (stale - windowStale) / (polled - windowPolled);
+		windowStart = now;
+		windowEvents = events;
+		windowPolled = polled;
+		windowStale = stale;
+	}
+}
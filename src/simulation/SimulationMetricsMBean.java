@@ -0,0 +1,44 @@
+package simulation;
+
+/**
+ * The JMX view of {@link SimulationMetrics}. Rates are averaged over the last second.
+ */
+public interface SimulationMetricsMBean {
+
+	public long getEvents();
+
+	public double getEventsPerSecond();
+
+	/**
+	 * All events taken from the queue, valid or not.
+	 */
+	public long getPolledEvents();
+
+	public long getStaleEvents();
+
+	/**
+	 * The share of the events taken from the queue that were no longer valid.
+	 */
+	public double getStaleEventRatio();
+
+	public int getQueueDepth();
+
+	/**
+	 * How far in simulated time the simulation is ahead of what was last drawn.
+	 */
+	public double getProducerLag();
+
+	public double getFrameMillis();
+
+	/**
+	 * The smoothed difference between the time from one frame to the next and the one
+	 * before, which is 0 at a steady frame rate.
+	 */
+	public double getFrameJitterMillis();
+
+	/**
+	 * The frames drawn at an earlier time than planned, because the simulation had not
+	 * got there yet.
+	 */
+	public long getStalledFrames();
+}
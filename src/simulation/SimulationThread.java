@@ -1,34 +1,87 @@
 package simulation;
-import simulation.Simulation.SimulationDiffrence;
-
 
-import java.util.concurrent.BlockingQueue;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
-import processing.core.PApplet;
+import simulation.Simulation.SimulationDiffrence;
 
 public class SimulationThread extends Thread {
 	
-	public static final Object LOCK = new Object();
-	
-	private BlockingQueue<SimulationDiffrence> resultQueue;
+	private DiffRingBuffer resultQueue;
 	private Simulation simulation;
 	private volatile boolean running;
 	private volatile boolean reseting;
+	private volatile Path recordFile;
+	private EventRecorder recorder;
+	private final SimulationMetrics metrics = new SimulationMetrics();
+	private volatile MsdAnalyzer analyzer;
+	private final ConcurrentLinkedQueue<CheckpointRequest> checkpoints = new ConcurrentLinkedQueue<>();
+	// The ring of the last analyzer, for the next one.
+	private DiffRingBuffer analyzerRing;
+	
+	private static final long PARK_NANOS = 200_000;
+	// The time of the frame on screen, and of the last event handed out.
+	private volatile float renderTime;
+	private float producedTime;
+	// Whether the first frame can be drawn without waiting.
+	private volatile boolean loaded;
 	
-	public SimulationThread(BlockingQueue<SimulationDiffrence> queue, int nLightAtoms, int nHeavyAtoms, int width, int height, PApplet applet) {
+	public SimulationThread(DiffRingBuffer queue, int nLightAtoms, int nHeavyAtoms, int width, int height, long seed) {
 		super("Simulation Thread");
 		resultQueue = queue;
-		simulation = new Simulation(nLightAtoms, nHeavyAtoms, width, height, applet);
+		simulation = new Simulation(nLightAtoms, nHeavyAtoms, width, height, seed);
+		simulation.setMetrics(metrics);
+		metrics.register();
+		startAnalyzer();
 		running = false;
 		reseting = false;
 	}
 	
+	/**
+	 * Whether the events of the first frame are there, or as many as the ring holds.
+	 */
 	public boolean doneLoading() {
-		return resultQueue.size() == Constants.GET_QUEUE_LIMIT();
+		return loaded || resultQueue.size() >= resultQueue.capacity();
+	}
+	
+	/**
+	 * Tells the simulation the time of the frame on screen. It runs ahead of it by up to
+	 * {@link Constants#PREFETCH_TIME} and then waits for the renderer to catch up, so how
+	 * many events are buffered follows the event rate rather than the particle count.
+	 */
+	public void setRenderTime(float time) {
+		renderTime = time;
+	}
+	
+	public ParticleStore getParticles() {
+		return simulation.getParticlesClone();
+	}
+	
+	/**
+	 * The counters of this simulation, which the renderer adds its frames to.
+	 */
+	public SimulationMetrics getMetrics() {
+		return metrics;
 	}
 	
-	public Atom[] getAtoms() {
-		return simulation.getAtomsClone();
+	/**
+	 * The displacement of the heavy atoms since the last reset, or {@code null} if it is
+	 * not measured.
+	 */
+	public MsdAnalyzer getAnalyzer() {
+		return analyzer;
+	}
+	
+	/**
+	 * Sets the file every event is recorded to from the next reset on, or stops recording
+	 * at the next reset if {@code file} is {@code null}.
+	 */
+	public void setRecordFile(Path file) {
+		recordFile = file;
 	}
 	
 	@Override
@@ -37,47 +90,203 @@ public class SimulationThread extends Thread {
 		super.start();
 	}
 	
-	public Atom[] reset(BlockingQueue<SimulationDiffrence> queue, int nLightAtoms, int nHeavyAtoms, int width, int height, PApplet applet) {
+	/**
+	 * Starts over with a new simulation that hands its events over through {@code queue},
+	 * and returns its particles, copied into {@code particles} if they fit.
+	 *
+	 * @throws IllegalArgumentException if the particles do not fit into the box, in which
+	 *                                  case the queue has to be reset again before it
+	 *                                  is used
+	 */
+	public ParticleStore reset(DiffRingBuffer queue, ParticleStore particles, int nLightAtoms, int nHeavyAtoms,
+			int width, int height, long seed) {
+		return restart(queue, particles, () -> simulation.reset(nLightAtoms, nHeavyAtoms, width, height, seed));
+	}
+	
+	/**
+	 * Continues the run saved in {@code checkpoint}, and otherwise works like
+	 * {@link #reset}.
+	 */
+	public ParticleStore restore(DiffRingBuffer queue, ParticleStore particles, Checkpoint checkpoint) {
+		return restart(queue, particles, () -> simulation.restore(checkpoint));
+	}
+	
+	/**
+	 * Saves the state of the simulation to {@code file} before the next event. The
+	 * simulation runs ahead of the renderer, so the state is from the time the returned
+	 * future completes with rather than from the frame on screen.
+	 */
+	public CompletableFuture<Float> requestCheckpoint(Path file) {
+		CheckpointRequest request = new CheckpointRequest(file);
+		checkpoints.add(request);
+		return request.done;
+	}
+	
+	/**
+	 * Stops the run, starts the next one with {@code start} and lets it run. If
+	 * {@code start} fails, the exception is passed on and the last run goes on without
+	 * recording or analysing it. Its events already handed over are dropped, so the
+	 * caller has to start another run before it uses the queue again.
+	 */
+	private ParticleStore restart(DiffRingBuffer queue, ParticleStore particles, Runnable start) {
 		reseting = true;
 		interrupt();
 		synchronized(simulation) {
-			resultQueue = queue;
-			simulation.reset(nLightAtoms, nHeavyAtoms, width, height, applet);
-			reseting = false;
-			simulation.notify();
-			return getAtoms();
+			try {
+				// The queue may be the old one, whose consumer is the caller.
+				resultQueue = queue;
+				resultQueue.clear();
+				closeRecorder();
+				stopAnalyzer();
+				loaded = false;
+				start.run();
+				renderTime = simulation.getTime();
+				producedTime = simulation.getTime();
+				openRecorder();
+				startAnalyzer();
+				return simulation.getParticles().copyInto(particles);
+			} finally {
+				reseting = false;
+				simulation.notify();
+			}
 		}
 	}
 	
 	@Override
 	public void run() {
 		synchronized(simulation) {
-			while (running) {
-				if (!reseting) {
-					try {
-						synchronized(LOCK) {
-							LOCK.notifyAll();
+			try {
+				while (running) {
+					if (!reseting) {
+						try {
+							writeCheckpoints();
+							if (producedTime > renderTime + Constants.PREFETCH_TIME) {
+								loaded = true;
+								waitForRenderer();
+								continue;
+							}
+							SimulationDiffrence diff = resultQueue.claim();
+							simulation.advanceSimulation(diff);
+							if (recorder != null)
+								record(diff);
+							if (analyzer != null)
+								analyzer.offer(diff);
+							resultQueue.publish();
+							producedTime = diff.time;
+							if (!loaded && producedTime >= Constants.SIMULATION_TIME_STEPS)
+								loaded = true;
+						} catch (InterruptedException | CancellationException e) {
+							// A reset or terminate stopped the simulation in the middle of an event.
+							Thread.interrupted();
+							if (!running)
+								return;
 						}
-						resultQueue.put(simulation.advanceSimulation());
-					} catch (InterruptedException e) {
-						if (!running)
-							return;
+					} else {
+						try {
+							simulation.wait();
+						} catch (InterruptedException e) {
+							e.printStackTrace();
+						} 
 					}
-				} else {
-					try {
-						simulation.wait();
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					} 
+					
 				}
-				
+			} finally {
+				closeRecorder();
+				stopAnalyzer();
+			}
+		}
+	}
+	
+	private void writeCheckpoints() {
+		for (CheckpointRequest request = checkpoints.poll(); request != null; request = checkpoints.poll()) {
+			try {
+				simulation.writeCheckpoint(request.file);
+				request.done.complete(simulation.getTime());
+			} catch (IOException | RuntimeException e) {
+				request.done.completeExceptionally(e);
 			}
 		}
 	}
+	
+	private static void waitForRenderer() throws InterruptedException {
+		LockSupport.parkNanos(PARK_NANOS);
+		if (Thread.interrupted())
+			throw new InterruptedException();
+	}
+	
+	private void record(SimulationDiffrence diff) {
+		try {
+			recorder.record(diff);
+		} catch (IOException e) {
+			e.printStackTrace();
+			closeRecorder();
+		}
+	}
+	
+	private void startAnalyzer() {
+		if (Constants.MSD_SAMPLE_INTERVAL <= 0)
+			return;
+		ParticleStore particles = simulation.getParticles();
+		int first = simulation.getLightAtoms();
+		analyzer = analyzerRing == null
+				? new MsdAnalyzer(particles, first, particles.size(), Constants.MSD_SAMPLE_INTERVAL, simulation.getWidth(),
+						simulation.getHeight())
+				: new MsdAnalyzer(particles, first, particles.size(), Constants.MSD_SAMPLE_INTERVAL, simulation.getWidth(),
+						simulation.getHeight(), analyzerRing);
+		analyzerRing = null;
+		analyzer.start();
+	}
+	
+	private void stopAnalyzer() {
+		if (analyzer == null)
+			return;
+		analyzer.terminate();
+		// The ring is free once the analyzer has taken in what is left of it.
+		try {
+			analyzer.join();
+			analyzerRing = analyzer.getRing();
+			analyzerRing.clear();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		analyzer = null;
+	}
+	
+	private void openRecorder() {
+		Path file = recordFile;
+		if (file == null)
+			return;
+		try {
+			recorder = new EventRecorder(file, simulation.getParticles(), simulation.getTime(), simulation.getWidth(),
+					simulation.getHeight());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private void closeRecorder() {
+		if (recorder == null)
+			return;
+		try {
+			recorder.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		recorder = null;
+	}
 		
 	public void terminate() {
 		running = false;
 		interrupt();
 	}
+	
+	private static class CheckpointRequest {
+		final Path file;
+		final CompletableFuture<Float> done = new CompletableFuture<>();
+		
+		CheckpointRequest(Path file) {
+			this.file = file;
+		}
+	}
 
 }
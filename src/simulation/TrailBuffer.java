@@ -0,0 +1,92 @@
+package simulation;
+
+/**
+ * The last positions of a particle in two float rings. With a limit the oldest position
+ * is overwritten once the trail is full, so adding a position never allocates; without
+ * one the rings grow.
+ */
+public class TrailBuffer {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private float[] x, y;
+	private int start;
+	private int size;
+	private int limit;
+
+	/**
+	 * @param limit the most positions kept, 0 for no limit
+	 */
+	public TrailBuffer(int limit) {
+		this.limit = limit;
+		int capacity = limit > 0 ? limit : INITIAL_CAPACITY;
+		x = new float[capacity];
+		y = new float[capacity];
+	}
+
+	public void add(float x, float y) {
+		if (size == this.x.length) {
+			if (limit > 0) {
+				this.x[start] = x;
+				this.y[start] = y;
+				start = (start + 1) % size;
+				return;
+			}
+			resize(size * 2);
+		}
+		int i = (start + size) % this.x.length;
+		this.x[i] = x;
+		this.y[i] = y;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * The x coordinate of the {@code i}-th position, counted from the oldest.
+	 */
+	public float getX(int i) {
+		return x[(start + i) % x.length];
+	}
+
+	public float getY(int i) {
+		return y[(start + i) % y.length];
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	/**
+	 * Changes the most positions kept and drops the oldest ones over the new limit.
+	 */
+	public void setLimit(int limit) {
+		if (limit == this.limit)
+			return;
+		this.limit = limit;
+		if (limit > 0 && size > limit) {
+			start = (start + size - limit) % x.length;
+			size = limit;
+		}
+		resize(limit > 0 ? limit : Math.max(size * 2, INITIAL_CAPACITY));
+	}
+
+	public void clear() {
+		start = 0;
+		size = 0;
+	}
+
+	private void resize(int capacity) {
+		float[] newX = new float[capacity];
+		float[] newY = new float[capacity];
+		for (int i = 0; i < size; i++) {
+			newX[i] = getX(i);
+			newY[i] = getY(i);
+		}
+		x = newX;
+		y = newY;
+		start = 0;
+	}
+}
@@ -0,0 +1,27 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CalendarEventQueueTest extends EventQueueTest {
+
+	@Override
+	EventQueue createQueue() {
+		return new CalendarEventQueue();
+	}
+
+	@Test
+	void resizesWithTheNumberOfEvents() {
+		CalendarEventQueue calendar = (CalendarEventQueue) queue;
+		int initial = calendar.getBucketCount();
+		run(50_000, 5000, 1);
+		int grown = calendar.getBucketCount();
+		assertTrue(grown >= 4 * initial, "buckets after growing: " + grown);
+		run(50_000, 10, 1);
+		assertTrue(calendar.getBucketCount() < grown, "buckets after shrinking: " + calendar.getBucketCount());
+		drain();
+		assertEquals(initial, calendar.getBucketCount());
+	}
+}
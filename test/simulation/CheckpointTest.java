@@ -0,0 +1,237 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import simulation.CollisionEvent.CollisionEventType;
+import simulation.EventQueue.EventQueueType;
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Restores runs from a {@link Checkpoint} and checks they go on exactly like runs that
+ * were never stopped, and that damaged checkpoints are turned down.
+ */
+class CheckpointTest {
+
+	private static final int LIGHT = 200, HEAVY = 5;
+	private static final int EVENTS = 20_000;
+
+	// Offsets into the header, see Checkpoint.write.
+	private static final int N = 8, WIDTH = 16, QUEUE = 36, FLAGS = 40, GRID_ENTRIES = 44, EVENT_COUNT = 48;
+	private static final int CELL_GRID = 1, EVENT_PER_ATOM = 2;
+
+	@TempDir
+	Path dir;
+
+	private static SimulationConfig config(EventQueueType queue, boolean eventPerAtom, boolean cellGrid) {
+		return SimulationConfig.fromConstants(500, 400, 11).withAtoms(LIGHT, HEAVY).withEventQueue(queue)
+				.withOneEventPerAtom(eventPerAtom).withCellGrid(cellGrid).withSectors(1);
+	}
+
+	private static void advance(Simulation simulation, int events, SimulationDiffrence[] diffs) {
+		for (int i = 0; i < events; i++) {
+			diffs[i] = simulation.advanceSimulation();
+		}
+	}
+
+	private static double momentum(ParticleStore particles, boolean x) {
+		double momentum = 0;
+		for (int i = 0; i < particles.size(); i++) {
+			momentum += particles.getMass(i) * (double) (x ? particles.getVelX(i) : particles.getVelY(i));
+		}
+		return momentum;
+	}
+
+	private static double meanSpeed(ParticleStore particles, int from, int to) {
+		double sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += Math.hypot(particles.getVelX(i), particles.getVelY(i));
+		}
+		return sum / (to - from);
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "BINARY_HEAP, false, true", "CALENDAR, false, true", "BINARY_HEAP, true, true",
+			"CALENDAR, true, true", "BINARY_HEAP, false, false", "CALENDAR, true, false" })
+	void restoredRunMatchesStraightRun(EventQueueType queue, boolean eventPerAtom, boolean cellGrid)
+			throws IOException {
+		SimulationConfig config = config(queue, eventPerAtom, cellGrid);
+		Path file = dir.resolve("run.checkpoint");
+
+		Simulation first = new Simulation(config);
+		advance(first, EVENTS, new SimulationDiffrence[EVENTS]);
+		first.writeCheckpoint(file);
+		Simulation restored = new Simulation(Checkpoint.read(file));
+		assertEquals(first.getTime(), restored.getTime());
+		SimulationDiffrence[] continued = new SimulationDiffrence[EVENTS];
+		advance(restored, EVENTS, continued);
+
+		Simulation straight = new Simulation(config);
+		advance(straight, EVENTS, new SimulationDiffrence[EVENTS]);
+		SimulationDiffrence[] expected = new SimulationDiffrence[EVENTS];
+		advance(straight, EVENTS, expected);
+
+		for (int i = 0; i < EVENTS; i++) {
+			SimulationDiffrence a = expected[i], b = continued[i];
+			assertEquals(a.time, b.time, "time of event " + i);
+			assertEquals(a.count, b.count, "event " + i);
+			for (int k = 0; k < a.count; k++) {
+				assertEquals(a.ids[k], b.ids[k], "event " + i);
+				assertEquals(a.x[k], b.x[k], "event " + i);
+				assertEquals(a.y[k], b.y[k], "event " + i);
+				assertEquals(a.vx[k], b.vx[k], "event " + i);
+				assertEquals(a.vy[k], b.vy[k], "event " + i);
+			}
+		}
+		ParticleStore s = straight.getParticles(), r = restored.getParticles();
+		assertEquals(momentum(s, true), momentum(r, true));
+		assertEquals(momentum(s, false), momentum(r, false));
+		assertEquals(meanSpeed(s, 0, LIGHT), meanSpeed(r, 0, LIGHT));
+		assertEquals(meanSpeed(s, LIGHT, LIGHT + HEAVY), meanSpeed(r, LIGHT, LIGHT + HEAVY));
+	}
+
+	/**
+	 * Writes a checkpoint after a few events and returns its bytes.
+	 */
+	private byte[] checkpoint(boolean eventPerAtom, boolean cellGrid) throws IOException {
+		Simulation simulation = new Simulation(config(EventQueueType.BINARY_HEAP, eventPerAtom, cellGrid));
+		advance(simulation, 1000, new SimulationDiffrence[1000]);
+		Path file = dir.resolve("valid.checkpoint");
+		simulation.writeCheckpoint(file);
+		return Files.readAllBytes(file);
+	}
+
+	private static ByteBuffer buffer(byte[] bytes) {
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int gridStart(byte[] bytes) {
+		return Checkpoint.HEADER_SIZE + buffer(bytes).getInt(N) * Checkpoint.PARTICLE_SIZE;
+	}
+
+	private static int eventStart(byte[] bytes) {
+		return gridStart(bytes) + buffer(bytes).getInt(GRID_ENTRIES) * Checkpoint.GRID_ENTRY_SIZE;
+	}
+
+	/**
+	 * The offset of the first event of {@code type}.
+	 */
+	private static int event(byte[] bytes, CollisionEventType type) {
+		ByteBuffer buffer = buffer(bytes);
+		for (int i = 0; i < buffer.getInt(EVENT_COUNT); i++) {
+			int offset = eventStart(bytes) + i * Checkpoint.EVENT_SIZE;
+			if (buffer.getInt(offset) == type.ordinal())
+				return offset;
+		}
+		throw new AssertionError("No " + type + " event");
+	}
+
+	private void assertRejected(byte[] valid, String message, Consumer<ByteBuffer> corruption) throws IOException {
+		byte[] bytes = valid.clone();
+		corruption.accept(buffer(bytes));
+		Path file = dir.resolve("corrupt.checkpoint");
+		Files.write(file, bytes);
+		IOException e = assertThrows(IOException.class, () -> Checkpoint.read(file));
+		assertEquals(message, e.getMessage());
+	}
+
+	private void assertRejected(byte[] bytes, String message) throws IOException {
+		assertRejected(bytes, message, buffer -> {
+		});
+	}
+
+	@Test
+	void rejectsFilesThatAreNoCheckpoint() throws IOException {
+		byte[] valid = checkpoint(false, true);
+		assertRejected(new byte[0], "Not a checkpoint");
+		assertRejected(new byte[Checkpoint.HEADER_SIZE - 1], "Not a checkpoint");
+		assertRejected(valid, "Not a checkpoint", b -> b.putInt(0, 0));
+		assertRejected(valid, "Unsupported checkpoint version 7", b -> b.putInt(4, 7));
+	}
+
+	@Test
+	void rejectsCorruptHeader() throws IOException {
+		byte[] valid = checkpoint(false, true);
+		String corrupt = "Corrupt checkpoint";
+		assertRejected(Arrays.copyOf(valid, valid.length - 1), corrupt);
+		assertRejected(Arrays.copyOf(valid, valid.length + Checkpoint.EVENT_SIZE), corrupt);
+		assertRejected(valid, corrupt, b -> b.putInt(N, -1));
+		assertRejected(valid, corrupt, b -> b.putInt(N, b.getInt(N) + 1));
+		assertRejected(valid, corrupt, b -> b.putInt(WIDTH, 0));
+		assertRejected(valid, corrupt, b -> b.putInt(QUEUE, EventQueueType.values().length));
+		assertRejected(valid, corrupt, b -> b.putInt(GRID_ENTRIES, -1));
+		assertRejected(valid, corrupt, b -> b.putInt(EVENT_COUNT, b.getInt(EVENT_COUNT) - 1));
+	}
+
+	@Test
+	void rejectsCorruptGrid() throws IOException {
+		String corrupt = "Corrupt checkpoint";
+		// A grid without its entries.
+		assertRejected(checkpoint(false, false), corrupt, b -> b.putInt(FLAGS, b.getInt(FLAGS) | CELL_GRID));
+
+		byte[] valid = checkpoint(false, true);
+		int entry = gridStart(valid);
+		int n = buffer(valid).getInt(N);
+		assertRejected(valid, corrupt, b -> b.putInt(entry, n));
+		assertRejected(valid, corrupt, b -> b.putInt(entry, -1));
+		assertRejected(valid, corrupt, b -> b.putInt(entry, b.getInt(entry + Checkpoint.GRID_ENTRY_SIZE)));
+		assertRejected(valid, corrupt, b -> b.putInt(entry + 4, -1));
+		assertRejected(valid, corrupt, b -> b.putInt(entry + 4, Integer.MAX_VALUE));
+	}
+
+	@Test
+	void rejectsCorruptEvents() throws IOException {
+		String corrupt = "Corrupt checkpoint";
+		byte[] valid = checkpoint(false, true);
+		int collision = event(valid, CollisionEventType.PARTICLE_COLLISION);
+		int wall = event(valid, CollisionEventType.WALL_COLLISION);
+		int crossing = event(valid, CollisionEventType.CELL_CROSSING);
+		int n = buffer(valid).getInt(N);
+
+		assertRejected(valid, corrupt, b -> b.putInt(collision, -1));
+		assertRejected(valid, corrupt, b -> b.putInt(collision, CollisionEventType.values().length));
+		assertRejected(valid, corrupt, b -> b.putInt(collision + 4, n));
+		assertRejected(valid, corrupt, b -> b.putInt(collision + 8, -1));
+		assertRejected(valid, corrupt, b -> b.putInt(wall + 24, -1));
+		assertRejected(valid, corrupt, b -> b.putInt(wall + 24, 4));
+		assertRejected(valid, corrupt, b -> b.putInt(crossing + 24, -1));
+		assertRejected(valid, corrupt, b -> b.putInt(crossing + 24, Integer.MAX_VALUE));
+
+		// Cell crossings need a grid.
+		byte[] noGrid = valid.clone();
+		ByteBuffer b = buffer(noGrid);
+		b.putInt(FLAGS, b.getInt(FLAGS) & ~CELL_GRID);
+		int entries = b.getInt(GRID_ENTRIES);
+		b.putInt(GRID_ENTRIES, 0);
+		byte[] withoutEntries = new byte[noGrid.length - entries * Checkpoint.GRID_ENTRY_SIZE];
+		System.arraycopy(noGrid, 0, withoutEntries, 0, gridStart(noGrid));
+		System.arraycopy(noGrid, gridStart(noGrid) + entries * Checkpoint.GRID_ENTRY_SIZE, withoutEntries,
+				gridStart(noGrid), withoutEntries.length - gridStart(noGrid));
+		assertRejected(withoutEntries, corrupt);
+	}
+
+	@Test
+	void rejectsCorruptEventPerAtom() throws IOException {
+		String corrupt = "Corrupt checkpoint";
+		// Not one event for every particle.
+		assertRejected(checkpoint(false, true), corrupt, b -> b.putInt(FLAGS, b.getInt(FLAGS) | EVENT_PER_ATOM));
+
+		byte[] valid = checkpoint(true, true);
+		int first = eventStart(valid);
+		// Two events of the same particle.
+		assertRejected(valid, corrupt, b -> b.putInt(first + 4, b.getInt(first + Checkpoint.EVENT_SIZE + 4)));
+	}
+}
@@ -0,0 +1,141 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import simulation.Simulation.SimulationDiffrence;
+
+class DiffRingBufferTest {
+
+	private static void publish(DiffRingBuffer ring, float time, int id, float x) {
+		SimulationDiffrence diff = ring.tryClaim();
+		assertNotNull(diff);
+		diff.time = time;
+		diff.count = 1;
+		diff.ids[0] = id;
+		diff.x[0] = x;
+		diff.y[0] = 0;
+		diff.vx[0] = 0;
+		diff.vy[0] = 0;
+		ring.publish();
+	}
+
+	@Test
+	void roundsCapacityUpToPowerOfTwo() {
+		assertEquals(2, new DiffRingBuffer(1).capacity());
+		assertEquals(16, new DiffRingBuffer(16).capacity());
+		assertEquals(32, new DiffRingBuffer(17).capacity());
+	}
+
+	@Test
+	void peekOnEmptyRing() {
+		DiffRingBuffer ring = new DiffRingBuffer(4);
+		assertNull(ring.peek());
+		publish(ring, 1, 0, 0);
+		assertEquals(1, ring.peek().time);
+		ring.release();
+		assertNull(ring.peek());
+		assertEquals(0, ring.size());
+	}
+
+	@Test
+	void tryClaimOnFullRing() {
+		DiffRingBuffer ring = new DiffRingBuffer(4);
+		for (int i = 0; i < ring.capacity(); i++) {
+			publish(ring, i, i, 0);
+		}
+		assertEquals(ring.capacity(), ring.size());
+		assertNull(ring.tryClaim());
+
+		SimulationDiffrence oldest = ring.peek();
+		assertEquals(0, oldest.time);
+		ring.release();
+		// The slot just released is the one handed out next.
+		assertSame(oldest, ring.tryClaim());
+	}
+
+	@Test
+	void applyUntilStopsAtTime() {
+		DiffRingBuffer ring = new DiffRingBuffer(8);
+		ParticleStore particles = new ParticleStore(1);
+		particles.add(0, 0, 0, 0, 1, 1);
+		for (int i = 1; i <= 4; i++) {
+			publish(ring, i, 0, 10 * i);
+		}
+
+		assertEquals(2, ring.applyUntil(particles, 2.5f, null));
+		assertEquals(20, particles.getX(0, 2));
+		// The next diff is at 3, so nothing changes before it.
+		assertEquals(3, ring.getCompleteTime());
+		assertEquals(2, ring.size());
+
+		// A diff at exactly the time asked for is not applied yet.
+		assertEquals(0, ring.applyUntil(particles, 3, null));
+		assertEquals(1, ring.applyUntil(particles, 3.5f, null));
+		assertEquals(30, particles.getX(0, 3));
+
+		assertEquals(1, ring.applyUntil(particles, 100, null));
+		assertEquals(40, particles.getX(0, 4));
+		// With the ring empty the particles are only known to be right up to the last diff.
+		assertEquals(4, ring.getCompleteTime());
+		assertEquals(0, ring.applyUntil(particles, 200, null));
+		assertEquals(4, ring.getCompleteTime());
+	}
+
+	@Test
+	void clearDropsPublishedDiffs() {
+		DiffRingBuffer ring = new DiffRingBuffer(4);
+		publish(ring, 1, 0, 0);
+		ring.clear();
+		assertEquals(0, ring.size());
+		assertNull(ring.peek());
+		assertEquals(Float.NEGATIVE_INFINITY, ring.getCompleteTime());
+	}
+
+	@Test
+	void twoThreadsLoseAndReorderNothing() throws InterruptedException {
+		int diffs = 4_000_000;
+		DiffRingBuffer ring = new DiffRingBuffer(16);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread producer = new Thread(() -> {
+			try {
+				for (int i = 0; i < diffs; i++) {
+					SimulationDiffrence diff = ring.claim();
+					diff.time = i;
+					diff.count = 1 + (i & 1);
+					diff.ids[0] = i;
+					diff.ids[1] = ~i;
+					ring.publish();
+				}
+			} catch (Throwable e) {
+				failure.set(e);
+			}
+		}, "Producer");
+		producer.start();
+
+		for (int i = 0; i < diffs; i++) {
+			SimulationDiffrence diff;
+			while ((diff = ring.peek()) == null) {
+				// Lets the producer run on a single core.
+				Thread.yield();
+				if (!producer.isAlive() && ring.size() == 0)
+					throw new AssertionError("Producer stopped after " + i + " diffs", failure.get());
+			}
+			if (diff.ids[0] != i || diff.time != i || diff.count != 1 + (i & 1) || diff.ids[1] != ~i)
+				fail("Expected diff " + i + " but got " + diff.ids[0] + " at " + diff.time);
+			ring.release();
+		}
+		producer.join(10_000);
+		assertFalse(producer.isAlive());
+		assertNull(failure.get());
+		assertNull(ring.peek());
+	}
+}
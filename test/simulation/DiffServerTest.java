@@ -0,0 +1,84 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Streams a run from a {@link DiffServer} to a {@link DiffClient} that stops taking
+ * events for a while. The server has to skip events for it and catch it up with a
+ * keyframe, after which it must be in the same state as the simulation.
+ */
+class DiffServerTest {
+
+	private static final int WIDTH = 600, HEIGHT = 400;
+	// Far more than the socket and the send buffer on the server hold.
+	private static final int STALLED_EVENTS = 200_000;
+	private static final int EVENTS = 20_000;
+	private static final long CATCH_UP_NANOS = 30_000_000_000L;
+
+	private static int takeUntil(DiffClient client, ParticleStore particles, float time) throws InterruptedException {
+		int applied = 0;
+		long deadline = System.nanoTime() + CATCH_UP_NANOS;
+		while (client.getLatestTime() < time && !client.hasEnded() && System.nanoTime() < deadline) {
+			applied += client.applyUntil(particles, Float.POSITIVE_INFINITY, null);
+			Thread.sleep(1);
+		}
+		applied += client.applyUntil(particles, Float.POSITIVE_INFINITY, null);
+		assertEquals(time, client.getLatestTime(), "time the viewer got to");
+		return applied;
+	}
+
+	private static void assertSameState(ParticleStore expected, ParticleStore actual, float time) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < actual.size(); i++) {
+			assertEquals(expected.getX(i, time), actual.getX(i, time), 1e-3f, "x of particle " + i);
+			assertEquals(expected.getY(i, time), actual.getY(i, time), 1e-3f, "y of particle " + i);
+			assertEquals(expected.getVelX(i), actual.getVelX(i), "vx of particle " + i);
+			assertEquals(expected.getVelY(i), actual.getVelY(i), "vy of particle " + i);
+		}
+	}
+
+	@Test
+	@Timeout(120)
+	void slowViewerCatchesUpWithKeyframe() throws Exception {
+		Simulation simulation = new Simulation(
+				SimulationConfig.fromConstants(WIDTH, HEIGHT, 5).withAtoms(200, 5).withSectors(1));
+		DiffServer server = new DiffServer(simulation.getParticles(), simulation.getTime(), WIDTH, HEIGHT, 0);
+		server.start();
+		try (DiffClient client = new DiffClient(server.getPort(), 1 << 10)) {
+			ParticleStore particles = client.getParticles();
+			SimulationDiffrence diff = new SimulationDiffrence();
+			// The viewer takes nothing, so its ring and then the connection run full.
+			for (int i = 0; i < STALLED_EVENTS; i++) {
+				simulation.advanceSimulation(diff);
+				server.offer(diff);
+			}
+			int applied = takeUntil(client, particles, diff.time);
+			assertTrue(applied < STALLED_EVENTS, "no events were skipped");
+			assertSameState(simulation.getParticles(), particles, diff.time);
+
+			// Once caught up, a viewer that keeps up gets every event until the stream ends.
+			applied = 0;
+			for (int i = 0; i < EVENTS; i++) {
+				simulation.advanceSimulation(diff);
+				server.offer(diff);
+				applied += client.applyUntil(particles, Float.POSITIVE_INFINITY, null);
+			}
+			server.terminate();
+			applied += takeUntil(client, particles, diff.time);
+			assertEquals(EVENTS, applied);
+			while (!client.hasEnded()) {
+				Thread.sleep(1);
+			}
+			assertSameState(simulation.getParticles(), particles, diff.time);
+		} finally {
+			server.terminate();
+			server.join();
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Records a short seeded run with {@link EventRecorder} and reads it back with
+ * {@link EventLogReader} and {@link EventLogPlayer}.
+ */
+class EventLogTest {
+
+	private static final int WIDTH = 400, HEIGHT = 300;
+	private static final int EVENTS = 20_000;
+	// Every this many events the state of the live simulation is kept to seek to later.
+	private static final int SNAPSHOT_INTERVAL = 1500;
+
+	@TempDir
+	Path dir;
+
+	private Path log;
+	// Where the last record ends, the file goes on with the rest of the segment and the index.
+	private long dataEnd;
+	private ParticleStore start;
+	private final List<SimulationDiffrence> recorded = new ArrayList<>();
+	private final List<Float> seekTimes = new ArrayList<>();
+	private final List<ParticleStore> snapshots = new ArrayList<>();
+
+	@BeforeEach
+	void record() throws IOException {
+		log = dir.resolve("run.log");
+		Simulation simulation = new Simulation(SimulationConfig.fromConstants(WIDTH, HEIGHT, 5).withAtoms(100, 5));
+		start = simulation.getParticles().copy();
+		ParticleStore snapshot = null;
+		try (EventRecorder recorder = new EventRecorder(log, simulation.getParticles(), simulation.getTime(), WIDTH,
+				HEIGHT)) {
+			for (int i = 0; i < EVENTS; i++) {
+				SimulationDiffrence diff = simulation.advanceSimulation();
+				recorder.record(diff);
+				recorded.add(diff);
+				// Seeks half way to the next event, where the state is the one after this one.
+				if (snapshot != null && diff.time > recorded.get(i - 1).time) {
+					seekTimes.add((recorded.get(i - 1).time + diff.time) / 2);
+					snapshots.add(snapshot);
+				}
+				snapshot = (i % SNAPSHOT_INTERVAL == SNAPSHOT_INTERVAL - 1) ? simulation.getParticles().copy() : null;
+			}
+			assertEquals(EVENTS, recorder.getEventCount());
+			dataEnd = recorder.getSize();
+		}
+	}
+
+	private static void assertDiffEquals(SimulationDiffrence expected, SimulationDiffrence actual, long event) {
+		assertEquals(expected.time, actual.time, "time of event " + event);
+		assertEquals(expected.count, actual.count, "count of event " + event);
+		for (int i = 0; i < expected.count; i++) {
+			assertEquals(expected.ids[i], actual.ids[i], "event " + event);
+			assertEquals(expected.x[i], actual.x[i], "event " + event);
+			assertEquals(expected.y[i], actual.y[i], "event " + event);
+			assertEquals(expected.vx[i], actual.vx[i], "event " + event);
+			assertEquals(expected.vy[i], actual.vy[i], "event " + event);
+		}
+	}
+
+	private static void assertStateEquals(ParticleStore expected, ParticleStore actual, float time) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getX(i, time), actual.getX(i, time), "x of particle " + i + " at " + time);
+			assertEquals(expected.getY(i, time), actual.getY(i, time), "y of particle " + i + " at " + time);
+			assertEquals(expected.getVelX(i), actual.getVelX(i), "vx of particle " + i + " at " + time);
+			assertEquals(expected.getVelY(i), actual.getVelY(i), "vy of particle " + i + " at " + time);
+		}
+	}
+
+	/**
+	 * Copies the first {@code length} bytes of the log to {@code file}.
+	 */
+	private void copyStart(Path file, long length) throws IOException {
+		try (FileChannel in = FileChannel.open(log);
+				FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for (long position = 0; position < length;) {
+				position += in.transferTo(position, length - position, out);
+			}
+		}
+	}
+
+	@Test
+	void readsBackEveryEvent() throws IOException {
+		try (EventLogReader reader = new EventLogReader(log)) {
+			assertEquals(WIDTH, reader.getWidth());
+			assertEquals(HEIGHT, reader.getHeight());
+			assertEquals(EVENTS, reader.getEventCount());
+			assertEquals(recorded.get(EVENTS - 1).time, reader.getEndTime());
+			assertTrue(reader.getKeyframeCount() > 0);
+			assertStateEquals(start, reader.getParticles(), reader.getStartTime());
+
+			SimulationDiffrence diff = new SimulationDiffrence();
+			for (int i = 0; i < EVENTS; i++) {
+				assertTrue(reader.next(diff), "event " + i);
+				assertDiffEquals(recorded.get(i), diff, i);
+			}
+			assertFalse(reader.next(diff));
+			assertEquals(reader.getKeyframeCount() - 1, reader.getKeyframe());
+		}
+	}
+
+	@Test
+	void seekMatchesLiveSimulation() throws IOException {
+		assertTrue(snapshots.size() > 5);
+		try (EventLogPlayer player = new EventLogPlayer(log)) {
+			// Forwards, then backwards, so both reading on and jumping to a keyframe are used.
+			for (int i = 0; i < snapshots.size(); i++) {
+				player.seek(seekTimes.get(i));
+				assertStateEquals(snapshots.get(i), player.getParticles(), seekTimes.get(i));
+			}
+			for (int i = snapshots.size() - 1; i >= 0; i--) {
+				player.seek(seekTimes.get(i));
+				assertStateEquals(snapshots.get(i), player.getParticles(), seekTimes.get(i));
+			}
+		}
+	}
+
+	@Test
+	void seeksToLastKeyframeBefore() throws IOException {
+		try (EventLogReader reader = new EventLogReader(log)) {
+			int keyframes = reader.getKeyframeCount();
+			assertTrue(keyframes > 2);
+			ParticleStore particles = reader.getParticles();
+			float time = seekTimes.get(seekTimes.size() / 2);
+			int k = reader.findKeyframe(time);
+			assertTrue(k >= 0);
+			reader.seekKeyframe(time, particles);
+			assertEquals(k, reader.getKeyframe());
+
+			// The events after the keyframe follow, up to and past the time sought.
+			SimulationDiffrence diff = new SimulationDiffrence();
+			assertTrue(reader.next(diff));
+			int first = 0;
+			while (recorded.get(first).time != diff.time)
+				first++;
+			assertTrue(first > 0);
+			for (int i = first + 1; i < EVENTS; i++) {
+				assertTrue(reader.next(diff));
+				assertDiffEquals(recorded.get(i), diff, i);
+			}
+			assertFalse(reader.next(diff));
+
+			// Before the first keyframe the log is read from the start state.
+			assertEquals(-1, reader.findKeyframe(reader.getStartTime()));
+			reader.seekKeyframe(reader.getStartTime(), particles);
+			assertEquals(-1, reader.getKeyframe());
+			assertStateEquals(start, particles, reader.getStartTime());
+			assertTrue(reader.next(diff));
+			assertDiffEquals(recorded.get(0), diff, 0);
+		}
+	}
+
+	@Test
+	void readsTruncatedLogUpToCut() throws IOException {
+		long dataStart = EventRecorder.HEADER_SIZE + (long) start.size() * EventRecorder.PARTICLE_SIZE;
+		Path truncated = dir.resolve("truncated.log");
+		SimulationDiffrence diff = new SimulationDiffrence();
+		// Cuts without the index, inside event records and inside keyframes.
+		for (int cut = 0; cut < 40; cut++) {
+			copyStart(truncated, dataStart + (dataEnd - dataStart) * cut / 40 + cut % 7);
+			try (EventLogReader reader = new EventLogReader(truncated)) {
+				long events = reader.getEventCount();
+				assertTrue(events < EVENTS, "events " + events);
+				if (events > 0)
+					assertEquals(recorded.get((int) events - 1).time, reader.getEndTime());
+				for (int i = 0; i < events; i++) {
+					assertTrue(reader.next(diff));
+					assertDiffEquals(recorded.get(i), diff, i);
+				}
+				assertFalse(reader.next(diff));
+
+				// Every keyframe found can be sought to.
+				ParticleStore particles = reader.getParticles();
+				reader.seekKeyframe(Float.POSITIVE_INFINITY, particles);
+				assertEquals(reader.getKeyframeCount() - 1, reader.getKeyframe());
+			}
+		}
+	}
+
+	@Test
+	void rejectsLogCutInsideStartState() throws IOException {
+		Path truncated = dir.resolve("start.log");
+		copyStart(truncated, EventRecorder.HEADER_SIZE + 10);
+		IOException e = assertThrows(IOException.class, () -> new EventLogReader(truncated));
+		assertEquals("Event log ends inside the start state", e.getMessage());
+
+		Files.write(truncated, new byte[EventRecorder.HEADER_SIZE - 1]);
+		e = assertThrows(IOException.class, () -> new EventLogReader(truncated));
+		assertEquals("Not an event log", e.getMessage());
+
+		Files.write(truncated, new byte[EventRecorder.HEADER_SIZE]);
+		e = assertThrows(IOException.class, () -> new EventLogReader(truncated));
+		assertEquals("Not an event log", e.getMessage());
+	}
+}
@@ -0,0 +1,231 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import simulation.CellGrid.CellCrossing;
+import simulation.ParticleStore.Wall;
+import simulation.ParticleStore.WallCollision;
+
+/**
+ * Checks an {@link EventQueue} against a {@link PriorityQueue} under a random mix of
+ * operations. Every event gets particles of its own, so no two events compare equal and
+ * the queue must hand them out in exactly the order of the oracle, also when many of
+ * them share a time.
+ */
+abstract class EventQueueTest {
+
+	private static final int MAX_EVENTS = 1 << 20;
+	// Only the collision counters are read, which stay 0.
+	private static final ParticleStore particles = new ParticleStore(MAX_EVENTS);
+
+	static {
+		for (int i = 0; i < MAX_EVENTS; i++) {
+			particles.add(0, 0, 0, 0, 1, 1);
+		}
+	}
+
+	protected EventQueue queue;
+	private final PriorityQueue<CollisionEvent> oracle = new PriorityQueue<>(Comparator.naturalOrder());
+	// The events in the queue, to pick from at random.
+	private final List<CollisionEvent> queued = new ArrayList<>();
+	private final Random random = new Random(1);
+	private int nextParticle;
+	private float now;
+
+	abstract EventQueue createQueue();
+
+	EventQueueTest() {
+		queue = createQueue();
+	}
+
+	/**
+	 * A new event {@code delay} after the last event polled, with a particle no other
+	 * event has.
+	 */
+	private CollisionEvent newEvent(float delay) {
+		int particle = nextParticle++;
+		float time = now + delay;
+		CollisionEvent event = new CollisionEvent();
+		switch ((particle == 0) ? 0 : random.nextInt(3)) {
+		case 0:
+			event.setWallCollision(particle, new WallCollision(time, Wall.LEFT), particles);
+			break;
+		case 1:
+			event.setCellCrossing(particle, new CellCrossing(time, 0), particles);
+			break;
+		default:
+			event.setParticleCollision(particle, random.nextInt(particle), time, particles);
+			break;
+		}
+		return event;
+	}
+
+	/**
+	 * A delay that often repeats, so that many events happen at the same time.
+	 */
+	private float delay(float scale) {
+		if (random.nextInt(100) == 0)
+			return Float.POSITIVE_INFINITY;
+		return scale * random.nextInt(20);
+	}
+
+	private void add(float scale) {
+		CollisionEvent event = newEvent(delay(scale));
+		queue.add(event);
+		oracle.add(event);
+		queued.add(event);
+	}
+
+	private void addAll(float scale, int count) {
+		CollisionEvent[] events = new CollisionEvent[count];
+		for (int i = 0; i < count; i++) {
+			events[i] = newEvent(delay(scale));
+			oracle.add(events[i]);
+			queued.add(events[i]);
+		}
+		queue.addAll(events, count);
+	}
+
+	private CollisionEvent pick() {
+		return queued.get(random.nextInt(queued.size()));
+	}
+
+	/**
+	 * Takes the event out of the oracle. Events are equal when they share a particle, so
+	 * they are found by identity.
+	 */
+	private void forget(CollisionEvent event) {
+		oracle.removeIf(e -> e == event);
+		queued.removeIf(e -> e == event);
+	}
+
+	private void update(float scale) {
+		CollisionEvent event = pick();
+		forget(event);
+		event.setTime(now + delay(scale));
+		queue.update(event);
+		oracle.add(event);
+		queued.add(event);
+	}
+
+	private void remove() {
+		CollisionEvent event = pick();
+		forget(event);
+		assertTrue(queue.remove(event));
+		assertFalse(queue.remove(event));
+	}
+
+	private void poll() {
+		CollisionEvent expected = oracle.poll();
+		assertSame(expected, queue.peek());
+		assertSame(expected, queue.poll());
+		queued.removeIf(e -> e == expected);
+		if (expected != null && expected.getTime() != Float.POSITIVE_INFINITY)
+			now = expected.getTime();
+	}
+
+	/**
+	 * Runs random operations, adding more often than polling while the queue is below
+	 * {@code target} events and less often above, with delays of up to 20 times
+	 * {@code scale}.
+	 */
+	protected void run(int operations, int target, float scale) {
+		for (int i = 0; i < operations; i++) {
+			int op = random.nextInt(10);
+			boolean grow = queued.size() < target;
+			if (queued.isEmpty() || op < (grow ? 4 : 2)) {
+				add(scale);
+			} else if (op == 4 && random.nextInt(50) == 0) {
+				addAll(scale, 1 + random.nextInt(grow ? 2 * target : 8));
+			} else if (op < 6) {
+				update(scale);
+			} else if (op < 7) {
+				remove();
+			} else {
+				poll();
+			}
+			assertEquals(oracle.size(), queue.size());
+		}
+	}
+
+	protected void drain() {
+		while (!oracle.isEmpty()) {
+			poll();
+		}
+		assertNull(queue.poll());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	void emptyQueue() {
+		assertNull(queue.peek());
+		assertNull(queue.poll());
+		assertEquals(0, queue.size());
+	}
+
+	@Test
+	void followsOracle() {
+		run(100_000, 100, 1);
+		drain();
+	}
+
+	@Test
+	void ordersTiesByParticles() {
+		for (int i = 0; i < 1000; i++) {
+			CollisionEvent event = newEvent(5);
+			queue.add(event);
+			oracle.add(event);
+			queued.add(event);
+		}
+		drain();
+	}
+
+	@Test
+	void followsOracleWhileGrowingAndShrinking() {
+		run(50_000, 5000, 1);
+		run(50_000, 10, 1);
+		run(50_000, 5000, 0.001f);
+		run(50_000, 2000, 1000);
+		drain();
+	}
+
+	@Test
+	void updateOfEventNotInQueueFails() {
+		CollisionEvent event = newEvent(1);
+		assertThrows(IllegalArgumentException.class, () -> queue.update(event));
+		assertFalse(queue.remove(event));
+
+		EventQueue other = createQueue();
+		other.add(event);
+		add(1);
+		assertThrows(IllegalArgumentException.class, () -> queue.update(event));
+		assertFalse(queue.remove(event));
+	}
+
+	@Test
+	void clearEmptiesQueue() {
+		run(1000, 100, 1);
+		queue.clear();
+		assertEquals(0, queue.size());
+		assertNull(queue.poll());
+		CollisionEvent event = pick();
+		assertFalse(queue.remove(event));
+		oracle.clear();
+		queued.clear();
+		run(1000, 100, 1);
+		drain();
+	}
+}
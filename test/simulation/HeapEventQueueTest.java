@@ -0,0 +1,9 @@
+package simulation;
+
+class HeapEventQueueTest extends EventQueueTest {
+
+	@Override
+	EventQueue createQueue() {
+		return new HeapEventQueue();
+	}
+}
@@ -0,0 +1,98 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import simulation.InitialState.Placement;
+
+/**
+ * Checks that every placement but {@link Placement#CENTRE} keeps the particles apart and
+ * inside the box, for species of the same size and of different sizes either way round.
+ */
+class InitialStateTest {
+
+	private final int lightRadius = Constants.LIGHT_ATOM_RADIUS;
+	private final int heavyRadius = Constants.HEAVY_ATOM_RADIUS;
+
+	@AfterEach
+	void restoreRadii() {
+		Constants.LIGHT_ATOM_RADIUS = lightRadius;
+		Constants.HEAVY_ATOM_RADIUS = heavyRadius;
+	}
+
+	private static SimulationConfig config(Placement placement, int light, int heavy, int lightRadius,
+			int heavyRadius) {
+		Constants.LIGHT_ATOM_RADIUS = lightRadius;
+		Constants.HEAVY_ATOM_RADIUS = heavyRadius;
+		return SimulationConfig.fromConstants(600, 400, 9).withAtoms(light, heavy).withPlacement(placement);
+	}
+
+	private static ParticleStore assertValid(SimulationConfig config) {
+		ParticleStore particles = InitialState.create(config, new SplittableRandom(config.getSeed()));
+		int n = config.getLightAtoms() + config.getHeavyAtoms();
+		assertEquals(n, particles.size());
+		for (int i = 0; i < n; i++) {
+			boolean light = i < config.getLightAtoms();
+			assertEquals(light ? config.getLightRadius() : config.getHeavyRadius(), particles.getRadius(i));
+			assertEquals(light ? config.getLightMass() : config.getHeavyMass(), particles.getMass(i));
+			int r = particles.getRadius(i);
+			float x = particles.getX(i, 0), y = particles.getY(i, 0);
+			assertTrue(x >= r && x <= config.getWidth() - r, "x of particle " + i + " is " + x);
+			assertTrue(y >= r && y <= config.getHeight() - r, "y of particle " + i + " is " + y);
+			for (int j = 0; j < i; j++) {
+				float dx = particles.getX(j, 0) - x;
+				float dy = particles.getY(j, 0) - y;
+				float distance = r + particles.getRadius(j);
+				assertTrue(dx * dx + dy * dy >= distance * distance, "particles " + j + " and " + i + " overlap");
+			}
+		}
+		return particles;
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "RANDOM, 5, 10", "RANDOM, 5, 5", "RANDOM, 10, 5", "SQUARE_LATTICE, 5, 10", "SQUARE_LATTICE, 5, 5",
+			"SQUARE_LATTICE, 10, 5", "HEXAGONAL_LATTICE, 5, 10", "HEXAGONAL_LATTICE, 5, 5",
+			"HEXAGONAL_LATTICE, 10, 5" })
+	void keepsParticlesApartAndInside(Placement placement, int lightRadius, int heavyRadius) {
+		assertValid(config(placement, 300, 20, lightRadius, heavyRadius));
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "RANDOM, 5, 10", "RANDOM, 5, 5", "SQUARE_LATTICE, 5, 10", "SQUARE_LATTICE, 5, 5",
+			"HEXAGONAL_LATTICE, 5, 10", "HEXAGONAL_LATTICE, 5, 5" })
+	void fillsCrowdedBox(Placement placement, int lightRadius, int heavyRadius) {
+		// More than half the area covered, where random placement falls back to the
+		// hexagonal lattice and the lattice has to shrink its spacing around the
+		// larger atoms.
+		assertValid(config(placement, 1500, 40, lightRadius, heavyRadius));
+	}
+
+	@Test
+	void rejectsTooManyParticles() {
+		for (Placement placement : new Placement[] { Placement.RANDOM, Placement.SQUARE_LATTICE,
+				Placement.HEXAGONAL_LATTICE }) {
+			SimulationConfig config = config(placement, 3000, 0, 5, 5);
+			assertThrows(IllegalArgumentException.class,
+					() -> InitialState.create(config, new SplittableRandom(config.getSeed())), placement.name());
+		}
+	}
+
+	@Test
+	void sameSeedSameStart() {
+		SimulationConfig config = config(Placement.RANDOM, 300, 20, 5, 10);
+		ParticleStore a = assertValid(config);
+		ParticleStore b = InitialState.create(config, new SplittableRandom(config.getSeed()));
+		for (int i = 0; i < a.size(); i++) {
+			assertEquals(a.getX(i, 0), b.getX(i, 0));
+			assertEquals(a.getVelY(i), b.getVelY(i));
+		}
+	}
+}
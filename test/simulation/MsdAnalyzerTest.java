@@ -0,0 +1,128 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Feeds an {@link MsdAnalyzer} through {@link MsdAnalyzer#offer} with made up motion
+ * whose displacement is known: a random walk, and particles moving in a straight line.
+ */
+class MsdAnalyzerTest {
+
+	private static final int PARTICLES = 100;
+	private static final int STEPS = 4096;
+	// Multi-tau parameters of MsdAnalyzer.
+	private static final int POINTS = 16, LEVELS = 24;
+
+	private static void offer(MsdAnalyzer analyzer, SimulationDiffrence diff, float time, int id, float x, float y)
+			throws InterruptedException {
+		diff.time = time;
+		diff.count = 1;
+		diff.ids[0] = id;
+		diff.x[0] = x;
+		diff.y[0] = y;
+		diff.vx[0] = 0;
+		diff.vy[0] = 0;
+		analyzer.offer(diff);
+	}
+
+	/**
+	 * A walk of unit steps in x and in y, one step per interval, so that the mean
+	 * squared displacement is 2 per interval and D is 1/2.
+	 */
+	private static MsdAnalyzer randomWalk(int width, int height) throws InterruptedException {
+		ParticleStore particles = new ParticleStore(PARTICLES);
+		for (int i = 0; i < PARTICLES; i++) {
+			particles.add(0, 0, 0, 0, 1, 1);
+		}
+		MsdAnalyzer analyzer = new MsdAnalyzer(particles, 0, PARTICLES, 1, width, height);
+		analyzer.start();
+		SplittableRandom random = new SplittableRandom(17);
+		float[] x = new float[PARTICLES], y = new float[PARTICLES];
+		SimulationDiffrence diff = new SimulationDiffrence();
+		for (int step = 1; step <= STEPS; step++) {
+			for (int i = 0; i < PARTICLES; i++) {
+				x[i] += random.nextBoolean() ? 1 : -1;
+				y[i] += random.nextBoolean() ? 1 : -1;
+				// Half way between two samples.
+				offer(analyzer, diff, step - 0.5f, i, x[i], y[i]);
+			}
+		}
+		analyzer.terminate();
+		analyzer.join();
+		return analyzer;
+	}
+
+	@Test
+	void randomWalk() throws InterruptedException {
+		MsdAnalyzer analyzer = randomWalk(160, 160);
+		assertEquals(STEPS - 1, analyzer.getSampledTime());
+		float[] lags = analyzer.getLags();
+		double[] msd = analyzer.getMeanSquaredDisplacements();
+		// Every single step moves a particle by exactly sqrt(2).
+		assertEquals(1, lags[0]);
+		assertEquals(2, msd[0], 1e-9);
+		for (int i = 0; i < lags.length && lags[i] <= 256; i++) {
+			assertEquals(2 * lags[i], msd[i], 0.1 * 2 * lags[i], "MSD at lag " + lags[i]);
+		}
+		// The box limits the fit to a root mean squared displacement of 40.
+		assertEquals(0.5, analyzer.getDiffusionCoefficient(), 0.05);
+		assertEquals(0.5, analyzer.getDiffusionCoefficient(1, 256), 0.05);
+	}
+
+	@Test
+	void lagsAreSpacedMultiTau() throws InterruptedException {
+		MsdAnalyzer analyzer = randomWalk(1000, 1000);
+		// Level 0 has the lags 1 to POINTS - 1, every level above the upper half of its
+		// points at twice the spacing of the level below, as far as it has samples.
+		List<Float> expected = new ArrayList<>();
+		for (int level = 0; level < LEVELS; level++) {
+			long taken = (STEPS + (1L << level) - 1) >> level;
+			for (int point = level == 0 ? 1 : POINTS / 2; point < POINTS && point < taken; point++) {
+				expected.add((float) point * (1L << level));
+			}
+		}
+		float[] lags = analyzer.getLags();
+		assertEquals(expected.size(), lags.length);
+		for (int i = 0; i < lags.length; i++) {
+			assertEquals(expected.get(i), lags[i], "lag " + i);
+		}
+		// Level 9 has taken only POINTS / 2 samples, so the longest lags are those of level 8.
+		assertEquals((POINTS - 1) << 8, lags[lags.length - 1]);
+	}
+
+	@Test
+	void straightLines() throws InterruptedException {
+		// Particle 0 is not measured and only moves the time on.
+		ParticleStore particles = new ParticleStore(PARTICLES + 1);
+		particles.add(0, 0, 0, 0, 1, 1);
+		for (int i = 0; i < PARTICLES; i++) {
+			particles.add(i, -i, 0.3f, 0.4f, 1, 1);
+		}
+		MsdAnalyzer analyzer = new MsdAnalyzer(particles, 1, PARTICLES + 1, 0.5f, 1000, 1000);
+		analyzer.start();
+		SimulationDiffrence diff = new SimulationDiffrence();
+		for (int step = 1; step <= 1000; step++) {
+			offer(analyzer, diff, step * 0.5f, 0, 0, 0);
+		}
+		analyzer.terminate();
+		analyzer.join();
+
+		float[] lags = analyzer.getLags();
+		double[] msd = analyzer.getMeanSquaredDisplacements();
+		double[] expected = new double[lags.length];
+		for (int i = 0; i < lags.length; i++) {
+			expected[i] = 0.25 * lags[i] * lags[i];
+			assertEquals(expected[i], msd[i], 1e-4 * expected[i], "MSD at lag " + lags[i]);
+		}
+		assertArrayEquals(new float[] { 0.5f, 1, 1.5f }, new float[] { lags[0], lags[1], lags[2] });
+	}
+}
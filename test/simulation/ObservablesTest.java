@@ -0,0 +1,94 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import simulation.Observables.KineticEnergy;
+import simulation.Observables.Momentum;
+import simulation.Observables.Temperature;
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Applies the events of a run to a copy of its particles like the renderer does, and
+ * checks the running totals against totals computed from scratch.
+ */
+class ObservablesTest {
+
+	private static final int EVENTS = 300_000;
+	private static final int CHECK_EVERY = 997;
+	private static final double TOLERANCE = 1e-12;
+
+	private static void assertSameTotals(Observables incremental, KineticEnergy energy, Momentum momentum,
+			Temperature temperature, ParticleStore particles, String at) {
+		Observables full = new Observables();
+		full.reset(particles);
+		KineticEnergy expectedEnergy = full.register(new KineticEnergy());
+		Momentum expectedMomentum = full.register(new Momentum());
+		Temperature expectedTemperature = full.register(new Temperature());
+		double scale = expectedEnergy.get();
+		assertEquals(expectedEnergy.get(), energy.get(), TOLERANCE * scale, "energy " + at);
+		double momentumScale = 0;
+		for (int i = 0; i < particles.size(); i++) {
+			momentumScale += particles.getMass(i) * Math.hypot(particles.getVelX(i), particles.getVelY(i));
+		}
+		assertEquals(expectedMomentum.getX(), momentum.getX(), TOLERANCE * momentumScale, "momentum x " + at);
+		assertEquals(expectedMomentum.getY(), momentum.getY(), TOLERANCE * momentumScale, "momentum y " + at);
+		assertEquals(expectedTemperature.getSpeciesCount(), temperature.getSpeciesCount());
+		for (int s = 0; s < temperature.getSpeciesCount(); s++) {
+			assertEquals(expectedTemperature.getMass(s), temperature.getMass(s));
+			assertEquals(expectedTemperature.get(s), temperature.get(s), TOLERANCE * expectedTemperature.get(s),
+					"temperature of species " + s + " " + at);
+		}
+	}
+
+	@Test
+	void incrementalTotalsMatchRecompute() {
+		Simulation simulation = new Simulation(SimulationConfig.fromConstants(600, 400, 21).withAtoms(300, 10)
+				.withSectors(1));
+		ParticleStore particles = simulation.getParticles().copy();
+		Observables observables = new Observables();
+		observables.reset(particles);
+		KineticEnergy energy = observables.register(new KineticEnergy());
+		Momentum momentum = observables.register(new Momentum());
+		Temperature temperature = observables.register(new Temperature());
+		assertEquals(2, temperature.getSpeciesCount());
+
+		SimulationDiffrence diff = new SimulationDiffrence();
+		for (int i = 1; i <= EVENTS; i++) {
+			simulation.advanceSimulation(diff);
+			diff.applyTo(particles, observables);
+			// Not a multiple of the resync interval, so most checks fall between resyncs.
+			if (i % CHECK_EVERY == 0)
+				assertSameTotals(observables, energy, momentum, temperature, particles, "after event " + i);
+		}
+		assertSameTotals(observables, energy, momentum, temperature, particles, "at the end");
+	}
+
+	@Test
+	void registerComputesRightAway() {
+		ParticleStore particles = new ParticleStore(3);
+		particles.add(0, 0, 3, 4, 2, 1);
+		particles.add(0, 0, -1, 0, 2, 1);
+		particles.add(0, 0, 0, 2, 5, 1);
+		Observables observables = new Observables();
+		observables.reset(particles);
+		KineticEnergy energy = observables.register(new KineticEnergy());
+		Momentum momentum = observables.register(new Momentum());
+		Temperature temperature = observables.register(new Temperature());
+		assertEquals(25 + 1 + 10, energy.get());
+		assertEquals(4, momentum.getX());
+		assertEquals(18, momentum.getY());
+		assertEquals(2, temperature.getMass(0));
+		assertEquals(13, temperature.get(0));
+		assertEquals(10, temperature.get(1));
+
+		observables.beforeChange(1);
+		particles.setState(1, 0, 0, 0, -3, 0);
+		observables.afterChange(1);
+		assertEquals(25 + 9 + 10, energy.get());
+		assertEquals(6, momentum.getX());
+		assertEquals(12, momentum.getY());
+		assertEquals(17, temperature.get(0));
+	}
+}
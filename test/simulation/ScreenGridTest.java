@@ -0,0 +1,112 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Picks and box-selects particles drawn into a {@link ScreenGrid}, including particles
+ * that overlap each other, reach into the next cell or lie off the screen.
+ */
+class ScreenGridTest {
+
+	private static final int WIDTH = 200, HEIGHT = 100;
+
+	private final ParticleStore particles = new ParticleStore(8);
+	private final ScreenGrid grid = new ScreenGrid();
+
+	/**
+	 * Draws the particles at {@code positions}, x and y of each in turn, with
+	 * {@code radii}.
+	 */
+	private void draw(float[] positions, int... radii) {
+		particles.clear();
+		for (int i = 0; i < radii.length; i++) {
+			particles.add(positions[2 * i], positions[2 * i + 1], 0, 0, 1, radii[i]);
+		}
+		grid.begin(WIDTH, HEIGHT, particles);
+		for (int i = 0; i < radii.length; i++) {
+			grid.add(i, positions[2 * i], positions[2 * i + 1]);
+		}
+		grid.end();
+	}
+
+	private Set<Integer> inRect(float x1, float y1, float x2, float y2) {
+		Set<Integer> found = new TreeSet<>();
+		grid.forEachInRect(x1, y1, x2, y2, found::add);
+		return found;
+	}
+
+	@Test
+	void picksNothingBeforeTheFirstFrame() {
+		assertEquals(-1, grid.pick(10, 10));
+		assertEquals(Set.of(), inRect(0, 0, WIDTH, HEIGHT));
+	}
+
+	@Test
+	void picksTopMost() {
+		// 0 and 2 overlap 1, which is drawn after 0 and before 2.
+		draw(new float[] { 50, 50, 58, 50, 66, 50, 150, 50 }, 10, 10, 10, 4);
+		assertEquals(0, grid.pick(45, 50));
+		assertEquals(1, grid.pick(55, 50));
+		assertEquals(2, grid.pick(62, 50));
+		assertEquals(3, grid.pick(153, 52));
+		assertEquals(-1, grid.pick(155, 50));
+		assertEquals(-1, grid.pick(100, 50));
+	}
+
+	@Test
+	void picksLargeParticleFromNextCell() {
+		// The cells are 40 pixels wide, so the mouse is in the cells next to the centre.
+		draw(new float[] { 35, 35, 100, 80 }, 20, 1);
+		assertEquals(0, grid.pick(45, 35));
+		assertEquals(0, grid.pick(35, 45));
+		assertEquals(0, grid.pick(48, 48));
+		assertEquals(-1, grid.pick(50, 50));
+	}
+
+	@Test
+	void clampsToTheEdges() {
+		// Drawn partly or wholly off the screen.
+		draw(new float[] { -3, 50, 205, 50, 100, -2, 100, 104, -50, -50 }, 5, 6, 5, 5, 5);
+		assertEquals(0, grid.pick(1, 50));
+		assertEquals(0, grid.pick(-5, 50));
+		assertEquals(1, grid.pick(200, 50));
+		assertEquals(1, grid.pick(210, 50));
+		assertEquals(2, grid.pick(100, 1));
+		assertEquals(3, grid.pick(100, 101));
+		assertEquals(4, grid.pick(-50, -50));
+		assertEquals(-1, grid.pick(-1000, 50));
+		assertEquals(-1, grid.pick(100, 1000));
+		assertEquals(Set.of(), inRect(0, 0, WIDTH, HEIGHT));
+		assertEquals(Set.of(0, 1, 2, 3), inRect(-10, -10, WIDTH + 10, HEIGHT + 10));
+		assertEquals(Set.of(0, 1, 2, 3, 4), inRect(-1000, -1000, 1000, 1000));
+	}
+
+	@Test
+	void selectsBoxDraggedInAnyDirection() {
+		draw(new float[] { 10, 10, 60, 30, 90, 70, 140, 90, 190, 50, 60, 70 }, 5, 5, 5, 5, 5, 5);
+		Set<Integer> expected = Set.of(1, 2, 5);
+		assertEquals(expected, inRect(50, 20, 100, 80));
+		assertEquals(expected, inRect(100, 80, 50, 20));
+		assertEquals(expected, inRect(100, 20, 50, 80));
+		assertEquals(expected, inRect(50, 80, 100, 20));
+		// The centre has to be inside, and an edge counts as inside.
+		assertEquals(Set.of(1), inRect(60, 30, 64, 25));
+		assertEquals(Set.of(), inRect(61, 20, 80, 80));
+		assertEquals(Set.of(), inRect(70, 40, 70, 40));
+	}
+
+	@Test
+	void reusesArraysForLargerFrames() {
+		draw(new float[] { 10, 10 }, 5);
+		draw(new float[] { 10, 10, 20, 20, 30, 30, 190, 90 }, 5, 5, 5, 5);
+		assertEquals(3, grid.pick(190, 90));
+		assertEquals(Set.of(0, 1, 2), inRect(0, 0, 40, 40));
+		grid.clear();
+		assertEquals(-1, grid.pick(190, 90));
+	}
+}
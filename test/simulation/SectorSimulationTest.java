@@ -0,0 +1,124 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Runs the box split into sectors against the serial simulation with one event per
+ * particle, which {@link SectorSimulation} must match up to the order of simultaneous
+ * events.
+ */
+class SectorSimulationTest {
+
+	// Enough for the sectors to be rolled back many times.
+	private static final int EVENTS = 100_000;
+	private static final int LONG_EVENTS = 1_000_000;
+	private static final long SEED = 42;
+
+	/**
+	 * A serial run, made once for every sector count.
+	 */
+	private static class Run {
+		final float[] times;
+		final ParticleStore state;
+
+		Run(Simulation simulation, int events) {
+			times = new float[events];
+			state = simulation.getParticles().copy();
+			SimulationDiffrence diff = new SimulationDiffrence();
+			// The diffs are applied to a copy of the particles the way a viewer would.
+			for (int i = 0; i < events; i++) {
+				simulation.advanceSimulation(diff);
+				times[i] = diff.time;
+				diff.applyTo(state);
+			}
+		}
+	}
+
+	private static final Map<Integer, Run> serialRuns = new HashMap<>();
+
+	private static SimulationConfig config(int sectors) {
+		return SimulationConfig.fromConstants(1280, 720, SEED).withAtoms(500, 10).withOneEventPerAtom(true)
+				.withSectors(sectors);
+	}
+
+	private static synchronized Run serialRun(int events) {
+		return serialRuns.computeIfAbsent(events, e -> new Run(new Simulation(config(1)), e));
+	}
+
+	private static void assertMatchesSerial(int sectors, int events) {
+		Run serial = serialRun(events);
+		Run run = new Run(new Simulation(config(sectors)), events);
+
+		for (int i = 0; i < events; i++) {
+			if (run.times[i] != serial.times[i])
+				assertEquals(serial.times[i], run.times[i], "time of event " + i);
+		}
+		float time = serial.times[events - 1];
+		for (int i = 0; i < run.state.size(); i++) {
+			assertEquals(serial.state.getX(i, time), run.state.getX(i, time), "x of particle " + i);
+			assertEquals(serial.state.getY(i, time), run.state.getY(i, time), "y of particle " + i);
+			assertEquals(serial.state.getVelX(i), run.state.getVelX(i), "vx of particle " + i);
+			assertEquals(serial.state.getVelY(i), run.state.getVelY(i), "vy of particle " + i);
+		}
+	}
+
+	// A rollback loop hangs rather than fails.
+	@Timeout(120)
+	@ParameterizedTest
+	@ValueSource(ints = { 2, 4, 8 })
+	void matchesSerialEventPerAtom(int sectors) {
+		assertMatchesSerial(sectors, EVENTS);
+	}
+
+	@Tag("slow")
+	@Timeout(1200)
+	@ParameterizedTest
+	@ValueSource(ints = { 2, 4, 8 })
+	void matchesSerialEventPerAtomOverLongRun(int sectors) {
+		assertMatchesSerial(sectors, LONG_EVENTS);
+	}
+
+	@Test
+	void interruptStopsTheSectors() {
+		Simulation simulation = new Simulation(config(4));
+		SimulationDiffrence diff = new SimulationDiffrence();
+		Thread.currentThread().interrupt();
+		// Events already final are handed out without waiting for the sectors.
+		assertThrows(CancellationException.class, () -> {
+			for (int i = 0; i < EVENTS; i++) {
+				simulation.advanceSimulation(diff);
+			}
+		});
+		assertTrue(Thread.interrupted());
+		assertThrows(IllegalStateException.class, () -> simulation.advanceSimulation(diff));
+
+		// A reset waits for the sector threads to stop before it reuses the particles.
+		List<Thread> workers = new ArrayList<>();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("Sector Thread"))
+				workers.add(thread);
+		}
+		simulation.reset(config(4).withSeed(SEED + 1));
+		for (Thread worker : workers) {
+			assertFalse(worker.isAlive(), worker.getName());
+		}
+		simulation.advanceSimulation(diff);
+	}
+}
@@ -0,0 +1,128 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import org.junit.jupiter.api.Test;
+
+class SelectionTest {
+
+	private static final int PARTICLES = 200;
+
+	private static Set<Integer> members(Selection selection) {
+		Set<Integer> members = new HashSet<>();
+		for (int i = 0; i < selection.size(); i++) {
+			assertTrue(members.add(selection.get(i)), "listed twice: " + selection.get(i));
+		}
+		return members;
+	}
+
+	private static void assertSelected(Set<Integer> expected, Selection selection) {
+		assertEquals(expected, members(selection));
+		for (int particle = 0; particle < PARTICLES; particle++) {
+			assertEquals(expected.contains(particle), selection.contains(particle), "particle " + particle);
+		}
+	}
+
+	@Test
+	void addRemoveAndToggle() {
+		Selection selection = new Selection(PARTICLES, 0);
+		selection.add(3);
+		selection.add(64);
+		selection.add(3);
+		selection.add(PARTICLES - 1);
+		assertSelected(Set.of(3, 64, PARTICLES - 1), selection);
+		selection.remove(3);
+		selection.remove(5);
+		assertSelected(Set.of(64, PARTICLES - 1), selection);
+		selection.toggle(64);
+		selection.toggle(0);
+		assertSelected(Set.of(0, PARTICLES - 1), selection);
+		selection.clear();
+		assertSelected(Set.of(), selection);
+	}
+
+	@Test
+	void matchesASetUnderRandomChanges() {
+		Selection selection = new Selection(PARTICLES, 0);
+		Set<Integer> expected = new HashSet<>();
+		SplittableRandom random = new SplittableRandom(5);
+		for (int step = 0; step < 10_000; step++) {
+			int particle = random.nextInt(PARTICLES);
+			switch (random.nextInt(3)) {
+			case 0:
+				selection.add(particle);
+				expected.add(particle);
+				break;
+			case 1:
+				selection.remove(particle);
+				expected.remove(particle);
+				break;
+			default:
+				selection.toggle(particle);
+				if (!expected.remove(particle))
+					expected.add(particle);
+			}
+			assertEquals(expected.size(), selection.size());
+		}
+		assertSelected(expected, selection);
+	}
+
+	@Test
+	void trailsMoveWithTheirParticles() {
+		Selection selection = new Selection(PARTICLES, 0);
+		for (int particle = 10; particle < 15; particle++) {
+			selection.add(particle);
+		}
+		for (int i = 0; i < selection.size(); i++) {
+			selection.getTrail(i).add(selection.get(i), 0);
+		}
+		// The last member takes the place of the removed one, with its trail.
+		selection.remove(11);
+		selection.toggle(12);
+		for (int i = 0; i < selection.size(); i++) {
+			TrailBuffer trail = selection.getTrail(i);
+			assertEquals(1, trail.size());
+			assertEquals(selection.get(i), trail.getX(0));
+		}
+	}
+
+	@Test
+	void newSelectionStartsWithEmptyTrail() {
+		Selection selection = new Selection(PARTICLES, 4);
+		selection.add(7);
+		TrailBuffer trail = selection.getTrail(0);
+		trail.add(1, 1);
+		selection.remove(7);
+		selection.setTrailLimit(2);
+		selection.add(8);
+		// The trail is reused, but empty and with the limit of now.
+		assertSame(trail, selection.getTrail(0));
+		assertEquals(0, trail.size());
+		assertEquals(2, trail.getLimit());
+	}
+
+	@Test
+	void setTrailLimitShrinksEveryTrail() {
+		Selection selection = new Selection(PARTICLES, 0);
+		selection.add(1);
+		selection.add(2);
+		for (int i = 0; i < 20; i++) {
+			selection.getTrail(0).add(i, 0);
+			selection.getTrail(1).add(i, 0);
+		}
+		selection.setTrailLimit(5);
+		assertEquals(5, selection.getTrailLimit());
+		for (int i = 0; i < selection.size(); i++) {
+			TrailBuffer trail = selection.getTrail(i);
+			assertEquals(5, trail.size());
+			assertEquals(15, trail.getX(0));
+			assertEquals(19, trail.getX(4));
+		}
+	}
+}
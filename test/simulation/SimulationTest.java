@@ -0,0 +1,77 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import simulation.InitialState.Placement;
+import simulation.Simulation.SimulationDiffrence;
+
+/**
+ * Runs the same seeded start with the cell grid and with all pairs, which must find the
+ * same events with the same results, and checks that a reset that cannot place its
+ * particles leaves the run as it was.
+ */
+class SimulationTest {
+
+	private static final int EVENTS = 200_000;
+
+	private static SimulationConfig config(boolean cellGrid, boolean eventPerAtom) {
+		return SimulationConfig.fromConstants(600, 400, 3).withAtoms(200, 5).withCellGrid(cellGrid)
+				.withOneEventPerAtom(eventPerAtom).withSectors(1);
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void cellGridMatchesAllPairs(boolean eventPerAtom) {
+		Simulation grid = new Simulation(config(true, eventPerAtom));
+		Simulation allPairs = new Simulation(config(false, eventPerAtom));
+		SimulationDiffrence expected = new SimulationDiffrence();
+		SimulationDiffrence actual = new SimulationDiffrence();
+		for (int i = 0; i < EVENTS; i++) {
+			allPairs.advanceSimulation(expected);
+			grid.advanceSimulation(actual);
+			assertEquals(expected.time, actual.time, "time of event " + i);
+			assertEquals(expected.count, actual.count, "count of event " + i);
+			// The two particles of a collision may be listed either way round.
+			boolean swapped = expected.count == 2 && expected.ids[0] != actual.ids[0];
+			for (int k = 0; k < expected.count; k++) {
+				int j = swapped ? 1 - k : k;
+				assertEquals(expected.ids[k], actual.ids[j], "event " + i);
+				assertEquals(expected.x[k], actual.x[j], "event " + i);
+				assertEquals(expected.y[k], actual.y[j], "event " + i);
+				assertEquals(expected.vx[k], actual.vx[j], "event " + i);
+				assertEquals(expected.vy[k], actual.vy[j], "event " + i);
+			}
+		}
+	}
+
+	@Test
+	void failedResetKeepsTheRun() {
+		Simulation reset = new Simulation(config(true, false));
+		Simulation straight = new Simulation(config(true, false));
+		SimulationDiffrence expected = new SimulationDiffrence();
+		SimulationDiffrence actual = new SimulationDiffrence();
+		for (int i = 0; i < 1000; i++) {
+			reset.advanceSimulation(actual);
+			straight.advanceSimulation(expected);
+		}
+		assertThrows(IllegalArgumentException.class, () -> reset
+				.reset(config(true, false).withSize(40, 40).withPlacement(Placement.RANDOM).withSeed(4)));
+		assertEquals(205, reset.getParticles().size());
+		for (int i = 0; i < 1000; i++) {
+			reset.advanceSimulation(actual);
+			straight.advanceSimulation(expected);
+			assertEquals(expected.time, actual.time, "time of event " + i);
+			assertEquals(expected.count, actual.count, "count of event " + i);
+			for (int k = 0; k < expected.count; k++) {
+				assertEquals(expected.ids[k], actual.ids[k], "event " + i);
+				assertEquals(expected.x[k], actual.x[k], "event " + i);
+				assertEquals(expected.vx[k], actual.vx[k], "event " + i);
+			}
+		}
+	}
+}
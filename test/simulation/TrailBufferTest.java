@@ -0,0 +1,94 @@
+package simulation;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class TrailBufferTest {
+
+	private static void add(TrailBuffer trail, int from, int to) {
+		for (int i = from; i < to; i++) {
+			trail.add(i, -i);
+		}
+	}
+
+	/**
+	 * Checks that {@code trail} holds the positions added by {@link #add} from
+	 * {@code from} to {@code to}, oldest first.
+	 */
+	private static void assertTrail(TrailBuffer trail, int from, int to) {
+		assertEquals(to - from, trail.size());
+		for (int i = 0; i < trail.size(); i++) {
+			assertEquals(from + i, trail.getX(i), "x of position " + i);
+			assertEquals(-(from + i), trail.getY(i), "y of position " + i);
+		}
+	}
+
+	@Test
+	void keepsTheLatestPositionsOnceFull() {
+		TrailBuffer trail = new TrailBuffer(5);
+		add(trail, 0, 3);
+		assertTrail(trail, 0, 3);
+		add(trail, 3, 5);
+		assertTrail(trail, 0, 5);
+		// Wraps around more than once.
+		for (int to = 6; to <= 17; to++) {
+			add(trail, to - 1, to);
+			assertTrail(trail, to - 5, to);
+		}
+	}
+
+	@Test
+	void growsWithoutLimit() {
+		TrailBuffer trail = new TrailBuffer(0);
+		add(trail, 0, 1000);
+		assertTrail(trail, 0, 1000);
+	}
+
+	@Test
+	void shrinkingDropsTheOldest() {
+		TrailBuffer trail = new TrailBuffer(8);
+		// Wrapped, so the oldest position is not at the start of the ring.
+		add(trail, 0, 13);
+		trail.setLimit(3);
+		assertEquals(3, trail.getLimit());
+		assertTrail(trail, 10, 13);
+		add(trail, 13, 15);
+		assertTrail(trail, 12, 15);
+	}
+
+	@Test
+	void shrinkingKeepsAShorterTrail() {
+		TrailBuffer trail = new TrailBuffer(8);
+		add(trail, 0, 2);
+		trail.setLimit(4);
+		assertTrail(trail, 0, 2);
+		add(trail, 2, 7);
+		assertTrail(trail, 3, 7);
+	}
+
+	@Test
+	void growingAndLiftingTheLimitKeepEverything() {
+		TrailBuffer trail = new TrailBuffer(4);
+		add(trail, 0, 6);
+		trail.setLimit(6);
+		assertTrail(trail, 2, 6);
+		add(trail, 6, 9);
+		assertTrail(trail, 3, 9);
+		trail.setLimit(0);
+		add(trail, 9, 200);
+		assertTrail(trail, 3, 200);
+		trail.setLimit(10);
+		assertTrail(trail, 190, 200);
+	}
+
+	@Test
+	void clearKeepsTheLimit() {
+		TrailBuffer trail = new TrailBuffer(4);
+		add(trail, 0, 7);
+		trail.clear();
+		assertTrail(trail, 0, 0);
+		add(trail, 0, 6);
+		assertTrail(trail, 2, 6);
+	}
+}